@@ -0,0 +1,87 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The thread pool shared by the analyst raster computations (time surfaces, tile images), which
+ * split their work into independent chunks of rows or pixels.
+ */
+class AnalystExecutor {
+
+    private static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService threadPool = Executors.newFixedThreadPool(N_THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "analyst");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** A range of indexes [start, end) processed by one task. */
+    interface Chunk {
+        public void run(int start, int end);
+    }
+
+    /**
+     * Split the range [0, n) in chunks of at least minChunkSize, process them on the shared pool,
+     * and wait for all of them.
+     *
+     * @return false if the calling thread was interrupted while waiting
+     */
+    static boolean forEachChunk(int n, int minChunkSize, final Chunk chunk) {
+        int chunkSize = Math.max(minChunkSize, (n + N_THREADS * 4 - 1) / (N_THREADS * 4));
+        if (chunkSize >= n) {
+            chunk.run(0, n);
+            return true;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int start = 0; start < n; start += chunkSize) {
+            final int s = start;
+            final int e = Math.min(n, start + chunkSize);
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    chunk.run(s, e);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : threadPool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        return true;
+    }
+}
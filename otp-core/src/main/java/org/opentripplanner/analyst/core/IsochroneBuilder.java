@@ -0,0 +1,264 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Extracts isochrones from a TimeSurface with marching squares. The contours of all cutoffs are
+ * traced in a single pass over the grid, with crossing points interpolated between cell travel
+ * times, so no edge geometries are processed and no hull is computed: the cost only depends on
+ * the size of the grid and the length of the contours.
+ *
+ * Contour segments are oriented with the reachable area on their left. Every crossing point then
+ * starts exactly one segment and ends exactly one other, so the segments are chained into rings
+ * by following them; counter-clockwise rings are shells and clockwise rings are holes.
+ */
+public class IsochroneBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IsochroneBuilder.class);
+
+    /** Keeps crossing points off the grid points, so that rings never touch themselves. */
+    private static final double MIN_FRACTION = 0.001;
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final TimeSurface surface;
+
+    /** The number of grid points in a row, including one point of padding on each side */
+    private final int width;
+
+    private IsochroneBuilder(TimeSurface surface) {
+        this.surface = surface;
+        this.width = surface.getCols() + 2;
+    }
+
+    /**
+     * @param cutoffs travel times in seconds, in any order
+     * @return one (multi)polygon for each cutoff, in the order of the cutoffs, covering the area
+     *         reachable within that cutoff. Isochrones of greater cutoffs contain those of lesser
+     *         ones.
+     */
+    public static MultiPolygon[] build(TimeSurface surface, int[] cutoffs) {
+        long t0 = System.currentTimeMillis();
+        IsochroneBuilder builder = new IsochroneBuilder(surface);
+        List<Map<Integer, Integer>> segments = builder.traceSegments(cutoffs);
+        MultiPolygon[] isochrones = new MultiPolygon[cutoffs.length];
+        for (int k = 0; k < cutoffs.length; k++) {
+            isochrones[k] = builder.makePolygons(segments.get(k), cutoffs[k]);
+        }
+        LOG.debug("built {} isochrones in {} msec", cutoffs.length,
+                System.currentTimeMillis() - t0);
+        return isochrones;
+    }
+
+    /** @return the travel time at a grid point, where point (1, 1) is the first cell */
+    private int value(int px, int py) {
+        return surface.getCellTime(px - 1, py - 1);
+    }
+
+    private int horizontalEdge(int px, int py) {
+        return 2 * (py * width + px);
+    }
+
+    private int verticalEdge(int px, int py) {
+        return 2 * (py * width + px) + 1;
+    }
+
+    /**
+     * Visit every cell of the padded grid once, and record the contour segments crossing it for
+     * each cutoff.
+     *
+     * @return for each cutoff, a map from the edge where each segment starts to the edge where it
+     *         ends
+     */
+    private List<Map<Integer, Integer>> traceSegments(int[] cutoffs) {
+        List<Map<Integer, Integer>> segments = new ArrayList<Map<Integer, Integer>>();
+        int minCutoff = Integer.MAX_VALUE;
+        int maxCutoff = Integer.MIN_VALUE;
+        for (int cutoff : cutoffs) {
+            segments.add(new HashMap<Integer, Integer>());
+            minCutoff = Math.min(minCutoff, cutoff);
+            maxCutoff = Math.max(maxCutoff, cutoff);
+        }
+        int[] v = new int[4];
+        int[] edges = new int[4];
+        boolean[] inside = new boolean[4];
+        for (int py = 0; py <= surface.getRows(); py++) {
+            for (int px = 0; px <= surface.getCols(); px++) {
+                // corners and edges in counter-clockwise order, edge k joining corners k and k+1
+                v[0] = value(px, py);
+                v[1] = value(px + 1, py);
+                v[2] = value(px + 1, py + 1);
+                v[3] = value(px, py + 1);
+                int min = Math.min(Math.min(v[0], v[1]), Math.min(v[2], v[3]));
+                int max = Math.max(Math.max(v[0], v[1]), Math.max(v[2], v[3]));
+                if (min > maxCutoff || max <= minCutoff)
+                    continue; // no contour crosses this cell
+                edges[0] = horizontalEdge(px, py);
+                edges[1] = verticalEdge(px + 1, py);
+                edges[2] = horizontalEdge(px, py + 1);
+                edges[3] = verticalEdge(px, py);
+                for (int k = 0; k < cutoffs.length; k++) {
+                    int cutoff = cutoffs[k];
+                    if (min > cutoff || max <= cutoff)
+                        continue;
+                    int nInside = 0;
+                    for (int i = 0; i < 4; i++) {
+                        inside[i] = v[i] <= cutoff;
+                        if (inside[i])
+                            nInside++;
+                    }
+                    Map<Integer, Integer> next = segments.get(k);
+                    if (nInside == 2 && inside[0] == inside[2]) {
+                        // saddle: the diagonal corners are connected if the cell center is
+                        // reachable, in which case each segment ends at the following crossing
+                        // in counter-clockwise order, otherwise at the preceding one.
+                        boolean connected = ((long) v[0] + v[1] + v[2] + v[3]) / 4 <= cutoff;
+                        for (int i = 0; i < 4; i++) {
+                            if (inside[i]) {
+                                int end = connected ? (i + 1) % 4 : (i + 3) % 4;
+                                next.put(edges[i], edges[end]);
+                            }
+                        }
+                    } else {
+                        // one segment, from the edge leaving the reachable corners to the edge
+                        // entering them
+                        int start = -1, end = -1;
+                        for (int i = 0; i < 4; i++) {
+                            boolean in0 = inside[i];
+                            boolean in1 = inside[(i + 1) % 4];
+                            if (in0 && !in1)
+                                start = i;
+                            else if (!in0 && in1)
+                                end = i;
+                        }
+                        next.put(edges[start], edges[end]);
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+
+    /** @return the interpolated position of the contour of the given cutoff on the given edge */
+    private Coordinate crossing(int edge, int cutoff) {
+        int point = edge >> 1;
+        int px0 = point % width;
+        int py0 = point / width;
+        int px1 = (edge & 1) == 0 ? px0 + 1 : px0;
+        int py1 = (edge & 1) == 0 ? py0 : py0 + 1;
+        int v0 = value(px0, py0);
+        int v1 = value(px1, py1);
+        double fraction;
+        if (v0 == TimeSurface.UNREACHABLE || v1 == TimeSurface.UNREACHABLE) {
+            fraction = 0.5;
+        } else {
+            fraction = (cutoff - v0) / (double) (v1 - v0);
+            fraction = Math.min(1 - MIN_FRACTION, Math.max(MIN_FRACTION, fraction));
+        }
+        double px = px0 + (px1 - px0) * fraction;
+        double py = py0 + (py1 - py0) * fraction;
+        // grid point (1, 1) is the center of the first cell
+        return new Coordinate(surface.getWest() + (px - 0.5) * surface.getDLon(),
+                surface.getSouth() + (py - 0.5) * surface.getDLat());
+    }
+
+    /** Chain the segments of one cutoff into rings, and assemble the rings into polygons. */
+    private MultiPolygon makePolygons(Map<Integer, Integer> next, int cutoff) {
+        final Map<LinearRing, Double> areas = new HashMap<LinearRing, Double>();
+        List<LinearRing> shells = new ArrayList<LinearRing>();
+        List<LinearRing> holes = new ArrayList<LinearRing>();
+        while (!next.isEmpty()) {
+            Integer start = next.keySet().iterator().next();
+            List<Coordinate> coords = new ArrayList<Coordinate>();
+            Integer edge = start;
+            do {
+                coords.add(crossing(edge, cutoff));
+                edge = next.remove(edge);
+            } while (edge != null && !edge.equals(start));
+            if (edge == null || coords.size() < 3) {
+                LOG.warn("open contour of {} points at {} sec", coords.size(), cutoff);
+                continue;
+            }
+            coords.add(coords.get(0));
+            Coordinate[] ring = coords.toArray(new Coordinate[coords.size()]);
+            LinearRing linearRing = geometryFactory.createLinearRing(ring);
+            double signedArea = signedArea(ring);
+            areas.put(linearRing, Math.abs(signedArea));
+            if (signedArea > 0)
+                shells.add(linearRing);
+            else
+                holes.add(linearRing);
+        }
+
+        // each hole belongs to the smallest shell containing it
+        Collections.sort(shells, new Comparator<LinearRing>() {
+            @Override
+            public int compare(LinearRing r1, LinearRing r2) {
+                return areas.get(r1).compareTo(areas.get(r2));
+            }
+        });
+        List<List<LinearRing>> shellHoles = new ArrayList<List<LinearRing>>();
+        for (int i = 0; i < shells.size(); i++) {
+            shellHoles.add(new ArrayList<LinearRing>());
+        }
+        for (LinearRing hole : holes) {
+            Envelope env = hole.getEnvelopeInternal();
+            Coordinate p = hole.getCoordinateN(0);
+            for (int i = 0; i < shells.size(); i++) {
+                LinearRing shell = shells.get(i);
+                if (shell.getEnvelopeInternal().contains(env)
+                        && CGAlgorithms.isPointInRing(p, shell.getCoordinates())) {
+                    shellHoles.get(i).add(hole);
+                    break;
+                }
+            }
+        }
+        Polygon[] polygons = new Polygon[shells.size()];
+        for (int i = 0; i < shells.size(); i++) {
+            List<LinearRing> h = shellHoles.get(i);
+            polygons[i] = geometryFactory.createPolygon(shells.get(i),
+                    h.toArray(new LinearRing[h.size()]));
+        }
+        Collections.reverse(Arrays.asList(polygons)); // largest first
+        return geometryFactory.createMultiPolygon(polygons);
+    }
+
+    /** @return the signed area of a closed ring, positive if it is counter-clockwise */
+    private static double signedArea(Coordinate[] ring) {
+        double sum = 0;
+        for (int i = 0; i < ring.length - 1; i++) {
+            sum += ring[i].x * ring[i + 1].y - ring[i + 1].x * ring[i].y;
+        }
+        return sum / 2;
+    }
+}
@@ -27,6 +27,7 @@ public class TemplateTile extends Tile {
 
     private static final Logger LOG = LoggerFactory.getLogger(TemplateTile.class);
     Sample[] samples;
+    SampleArrays sampleArrays;
     
     public TemplateTile(TileRequest req, SampleSource sampleSource) {
         super(req);
@@ -67,4 +68,12 @@ public class TemplateTile extends Tile {
         return this.samples;
     }
 
+    /** The samples never change, so their array form is built once, on first use. */
+    @Override
+    protected synchronized SampleArrays getSampleArrays() {
+        if (sampleArrays == null)
+            sampleArrays = super.getSampleArrays();
+        return sampleArrays;
+    }
+
 }
@@ -27,13 +27,28 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.analyst.parameter.Style;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+
 /**  
  * Analyst 8-bit tile format:
  * Seconds are converted to minutes.
@@ -265,72 +280,320 @@ public abstract class Tile {
             return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
     }
     
-    final byte UNREACHABLE = Byte.MIN_VALUE;
+    static final byte UNREACHABLE = Byte.MIN_VALUE;
+
+    /** The minimum number of pixels evaluated by one task. */
+    private static final int PIXELS_PER_TASK = 4096;
+
+    /**
+     * The samples of a tile in struct-of-arrays form: for each pixel the indexes of the two sample
+     * vertices and the times to reach the pixel from them. Missing samples and vertices have index
+     * -1. Evaluating these against per-vertex arrays avoids two SPT lookups per pixel.
+     */
+    protected static class SampleArrays {
+        final int[] v0, t0, v1, t1;
+
+        SampleArrays(Sample[] samples) {
+            int n = samples.length;
+            v0 = new int[n];
+            t0 = new int[n];
+            v1 = new int[n];
+            t1 = new int[n];
+            for (int i = 0; i < n; i++) {
+                Sample s = samples[i];
+                v0[i] = (s == null || s.v0 == null) ? -1 : s.v0.getIndex();
+                t0[i] = (s == null) ? 0 : s.t0;
+                v1[i] = (s == null || s.v1 == null) ? -1 : s.v1.getIndex();
+                t1[i] = (s == null) ? 0 : s.t1;
+            }
+        }
+    }
+
+    /** @return the samples of this tile in struct-of-arrays form, or null if there are none. */
+    protected SampleArrays getSampleArrays() {
+        Sample[] samples = getSamples();
+        return samples == null ? null : new SampleArrays(samples);
+    }
 
-    public BufferedImage generateImage(ShortestPathTree spt, RenderRequest renderRequest) {
+    /** The maximum total size in bytes of the cached per-vertex arrays of each kind. */
+    private static final long VERTEX_ARRAY_CACHE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The values of the vertices reached by an SPT, indexed by vertex index minus an offset.
+     * Vertex indexes are unique across all graphs and temporary vertices of the process, but the
+     * vertices of a graph, which are the only ones samples refer to, are numbered consecutively
+     * when it is loaded. The arrays only cover the range of the reached vertices of the graph.
+     */
+    private static class VertexTimes {
+        final int offset;
+        final long[] times;
+
+        VertexTimes(ShortestPathTree spt) {
+            int[] range = indexRange(spt);
+            offset = range[0];
+            times = new long[range[1] - range[0]];
+            Arrays.fill(times, Long.MAX_VALUE);
+            for (State s : spt.getAllStates()) {
+                Vertex v = s.getVertex();
+                int i = v.getIndex() - offset;
+                if (i >= 0 && i < times.length && times[i] == Long.MAX_VALUE) {
+                    // the state Sample.eval would use
+                    times[i] = spt.getState(v).getActiveTime();
+                }
+            }
+        }
+
+        /** @return the active time at the vertex of the given index, or Long.MAX_VALUE */
+        long get(int vertexIndex) {
+            int i = vertexIndex - offset;
+            return i >= 0 && i < times.length ? times[i] : Long.MAX_VALUE;
+        }
+    }
+
+    /** The number of boardings of the vertices reached by an SPT, stored like VertexTimes. */
+    private static class VertexBoardings {
+        final int offset;
+        final int[] boardings;
+
+        VertexBoardings(ShortestPathTree spt) {
+            int[] range = indexRange(spt);
+            offset = range[0];
+            boardings = new int[range[1] - range[0]];
+            Arrays.fill(boardings, 255);
+            for (State s : spt.getAllStates()) {
+                Vertex v = s.getVertex();
+                int i = v.getIndex() - offset;
+                if (i >= 0 && i < boardings.length && boardings[i] == 255) {
+                    boardings[i] = spt.getState(v).getNumBoardings();
+                }
+            }
+        }
+
+        /** @return the number of boardings at the vertex of the given index, or 255 */
+        int get(int vertexIndex) {
+            int i = vertexIndex - offset;
+            return i >= 0 && i < boardings.length ? boardings[i] : 255;
+        }
+    }
+
+    /**
+     * @return the lowest index and one past the highest index of the vertices reached by an SPT,
+     *         leaving out temporary vertices when its graph is known
+     */
+    private static int[] indexRange(ShortestPathTree spt) {
+        RoutingRequest options = spt.getOptions();
+        Graph graph = options == null || options.rctx == null ? null : options.rctx.graph;
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (State s : spt.getAllStates()) {
+            Vertex v = s.getVertex();
+            if (graph != null && graph.getVertex(v.getLabel()) != v)
+                continue;
+            min = Math.min(min, v.getIndex());
+            max = Math.max(max, v.getIndex());
+        }
+        return max < 0 ? new int[] { 0, 0 } : new int[] { min, max + 1 };
+    }
+
+    /**
+     * The times of the vertices reached by an SPT. They are built on the first tile rendered from
+     * an SPT and shared by the following ones, for as long as the SPT itself is kept.
+     */
+    private static final LoadingCache<ShortestPathTree, VertexTimes> vertexTimes = CacheBuilder
+            .newBuilder().weakKeys().maximumWeight(VERTEX_ARRAY_CACHE_BYTES)
+            .weigher(new Weigher<ShortestPathTree, VertexTimes>() {
+                @Override
+                public int weigh(ShortestPathTree spt, VertexTimes times) {
+                    return times.times.length * 8;
+                }
+            }).build(new CacheLoader<ShortestPathTree, VertexTimes>() {
+                @Override
+                public VertexTimes load(ShortestPathTree spt) {
+                    return new VertexTimes(spt);
+                }
+            });
+
+    /** The number of boardings of the vertices reached by an SPT, cached like the times. */
+    private static final LoadingCache<ShortestPathTree, VertexBoardings> vertexBoardings =
+            CacheBuilder.newBuilder().weakKeys().maximumWeight(VERTEX_ARRAY_CACHE_BYTES)
+            .weigher(new Weigher<ShortestPathTree, VertexBoardings>() {
+                @Override
+                public int weigh(ShortestPathTree spt, VertexBoardings boardings) {
+                    return boardings.boardings.length * 4;
+                }
+            }).build(new CacheLoader<ShortestPathTree, VertexBoardings>() {
+                @Override
+                public VertexBoardings load(ShortestPathTree spt) {
+                    return new VertexBoardings(spt);
+                }
+            });
+
+    /** Same as Sample.eval, on the sample and vertex arrays. */
+    private static long eval(SampleArrays sa, VertexTimes times, int i) {
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        long t0 = times.get(sa.v0[i]);
+        long t1 = times.get(sa.v1[i]);
+        if (t0 != Long.MAX_VALUE)
+            m0 = t0 + sa.t0[i];
+        if (t1 != Long.MAX_VALUE)
+            m1 = t1 + sa.t1[i];
+        return (m0 < m1) ? m0 : m1;
+    }
+
+    /** @return the pixel value of the given number of minutes, clamped to +-120 */
+    private static byte minutesToPixel(double minutes) {
+        if (minutes < -120)
+            minutes = -120;
+        else if (minutes > 120)
+            minutes = 120;
+        return (byte) minutes;
+    }
+
+    /**
+     * Render travel times or boardings by evaluating the samples of this tile against the SPT.
+     *
+     * @return the image, or null if the rendering thread was interrupted
+     */
+    public BufferedImage generateImage(ShortestPathTree spt, final RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
-        byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
-        for (Sample s : getSamples()) {
-            byte pixel;
-            if (s != null) {
-                if (renderRequest.style == Style.BOARDINGS) {
-                    pixel = s.evalBoardings(spt);
-                } else {
-                    long t = s.eval(spt); // renderRequest.style
-                    if (t == Long.MAX_VALUE)
+        final byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+        final SampleArrays sa = getSampleArrays();
+        if (sa == null) {
+            Arrays.fill(imagePixelData, UNREACHABLE);
+            return image;
+        }
+        final boolean boardings = renderRequest.style == Style.BOARDINGS;
+        final VertexTimes times = boardings ? null : vertexTimes.getUnchecked(spt);
+        final VertexBoardings nBoardings = boardings ? vertexBoardings.getUnchecked(spt) : null;
+        boolean done = AnalystExecutor.forEachChunk(imagePixelData.length, PIXELS_PER_TASK,
+                new AnalystExecutor.Chunk() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    byte pixel;
+                    if (sa.v0[i] < 0 && sa.v1[i] < 0) {
                         pixel = UNREACHABLE;
-                    else {
-                        t /= 60;
-                        if (t < -120)
-                            t = -120;
-                        else if (t > 120)
-                            t = 120;
-                        pixel = (byte) t;
+                    } else if (boardings) {
+                        int m0 = nBoardings.get(sa.v0[i]);
+                        int m1 = nBoardings.get(sa.v1[i]);
+                        pixel = (byte) ((m0 < m1) ? m0 : m1);
+                    } else {
+                        long t = eval(sa, times, i);
+                        pixel = (t == Long.MAX_VALUE) ? UNREACHABLE : minutesToPixel(t / 60);
                     }
+                    imagePixelData[i] = pixel;
                 }
-            } else {
-                pixel = UNREACHABLE;
             }
-            imagePixelData[i] = pixel;
-            i++;
-        }
+        });
+        if (!done)
+            return null;
         long t1 = System.currentTimeMillis();
         LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
         return image;
     }
 
-    public BufferedImage linearCombination(
-            double k1, ShortestPathTree spt1, 
-            double k2, ShortestPathTree spt2, 
-            double intercept, RenderRequest renderRequest) {
+    /**
+     * Render travel times by resampling a precomputed time surface, instead of evaluating the
+     * samples of this tile against the SPT.
+     *
+     * @return the image, or null if the rendering thread was interrupted
+     */
+    public BufferedImage generateImage(final TimeSurface surface, RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
-        byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
-        for (Sample s : getSamples()) {
-            byte pixel = UNREACHABLE;
-            if (s != null) {
-                long t1 = s.eval(spt1);
-                long t2 = s.eval(spt2);
-                if (t1 != Long.MAX_VALUE && t2 != Long.MAX_VALUE) {
-                    double t = (k1 * t1 + k2 * t2) / 60 + intercept; 
-                    if (t < -120)
-                        t = -120;
-                    else if (t > 120)
-                        t = 120;
-                    pixel = (byte) t;
+        final byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+        final double[] coords = getWorldCoordinates();
+        if (surface == null || coords == null) {
+            Arrays.fill(imagePixelData, UNREACHABLE);
+            return image;
+        }
+        boolean done = AnalystExecutor.forEachChunk(imagePixelData.length, PIXELS_PER_TASK,
+                new AnalystExecutor.Chunk() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    int t = surface.getTime(coords[2 * i], coords[2 * i + 1]);
+                    imagePixelData[i] = (t == TimeSurface.UNREACHABLE) ? UNREACHABLE
+                            : minutesToPixel(t / 60);
                 }
             }
-            imagePixelData[i] = pixel;
-            i++;
+        });
+        if (!done)
+            return null;
+        long t1 = System.currentTimeMillis();
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
+        return image;
+    }
+
+    /**
+     * Render k1 * t1 + k2 * t2 + intercept, with t1 and t2 the travel times in minutes resampled
+     * from two time surfaces.
+     *
+     * @return the image, or null if the rendering thread was interrupted
+     */
+    public BufferedImage linearCombination(
+            final double k1, final TimeSurface surface1, 
+            final double k2, final TimeSurface surface2, 
+            final double intercept, RenderRequest renderRequest) {
+        long t0 = System.currentTimeMillis();
+        BufferedImage image = getEmptyImage(renderRequest.style);
+        final byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+        final double[] coords = getWorldCoordinates();
+        if (surface1 == null || surface2 == null || coords == null) {
+            Arrays.fill(imagePixelData, UNREACHABLE);
+            return image;
         }
+        boolean done = AnalystExecutor.forEachChunk(imagePixelData.length, PIXELS_PER_TASK,
+                new AnalystExecutor.Chunk() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    byte pixel = UNREACHABLE;
+                    int t1 = surface1.getTime(coords[2 * i], coords[2 * i + 1]);
+                    int t2 = surface2.getTime(coords[2 * i], coords[2 * i + 1]);
+                    if (t1 != TimeSurface.UNREACHABLE && t2 != TimeSurface.UNREACHABLE)
+                        pixel = minutesToPixel((k1 * t1 + k2 * t2) / 60 + intercept);
+                    imagePixelData[i] = pixel;
+                }
+            }
+        });
+        if (!done)
+            return null;
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
+        LOG.debug("filled in tile image from time surfaces in {}msec", t1 - t0);
         return image;
     }
 
+    /**
+     * @return the WGS84 longitude and latitude of the center of each pixel, interleaved, in the
+     *         same order as the samples; or null if the tile CRS cannot be transformed. They are
+     *         recomputed on every call rather than kept, since tiles are cached in large numbers.
+     */
+    protected double[] getWorldCoordinates() {
+        double[] coords = new double[width * height * 2];
+        int i = 0;
+        for (int gy = 0; gy < height; gy++) {
+            for (int gx = 0; gx < width; gx++) {
+                coords[i++] = gx;
+                coords[i++] = gy;
+            }
+        }
+        try {
+            CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D();
+            MathTransform gridToWgs = ConcatenatedTransform.create(
+                    gg.getGridToCRS2D(PixelOrientation.CENTER),
+                    CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84));
+            // axis order is lon, lat as in the sample sources
+            gridToWgs.transform(coords, 0, coords, 0, width * height);
+        } catch (Exception e) {
+            LOG.error(e.toString());
+            return null;
+        }
+        return coords;
+    }
+
     public GridCoverage2D getGridCoverage2D(BufferedImage image) {
         GridCoverage2D gridCoverage = new GridCoverageFactory()
             .create("isochrone", image, gg.getEnvelope2D());
@@ -0,0 +1,195 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import lombok.Getter;
+
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A regular WGS84 grid of travel times from the origin of one shortest path tree. It is built once
+ * per SPT by evaluating a sample at the center of every cell, in parallel, and stored in a
+ * primitive array. Tiles at any zoom level are then rendered by resampling the grid, rather than
+ * by evaluating one Sample per pixel against the SPT.
+ */
+public class TimeSurface {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSurface.class);
+
+    /** The travel time of cells that are not reachable or have no street nearby. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** Cells are made larger if a surface would otherwise have more than this many. */
+    public static final int MAX_CELLS = 1 << 22;
+
+    /** The margin added around the reached vertices, which covers the sample search radius. */
+    private static final double MARGIN_METERS = 200;
+
+    /** The minimum number of grid rows evaluated by one task. */
+    private static final int ROWS_PER_TASK = 16;
+
+    /** The longitude and latitude of the south-west corner of the grid */
+    @Getter
+    private final double west, south;
+
+    /** The size of a cell in degrees */
+    @Getter
+    private final double dLon, dLat;
+
+    @Getter
+    private final int cols, rows;
+
+    /** Travel times in seconds, row by row from the south, or UNREACHABLE */
+    private final int[] times;
+
+    private TimeSurface(Envelope env, double cellSizeMeters) {
+        double dLat = SphericalDistanceLibrary.metersToDegrees(cellSizeMeters);
+        double xscale = Math.cos(Math.toRadians(env.centre().y));
+        double dLon = dLat / xscale;
+        int cols = (int) Math.ceil(env.getWidth() / dLon) + 1;
+        int rows = (int) Math.ceil(env.getHeight() / dLat) + 1;
+        if ((long) cols * rows > MAX_CELLS) {
+            double scale = Math.sqrt((double) cols * rows / MAX_CELLS);
+            dLat *= scale;
+            dLon *= scale;
+            cols = (int) Math.ceil(env.getWidth() / dLon) + 1;
+            rows = (int) Math.ceil(env.getHeight() / dLat) + 1;
+        }
+        this.west = env.getMinX();
+        this.south = env.getMinY();
+        this.dLon = dLon;
+        this.dLat = dLat;
+        this.cols = cols;
+        this.rows = rows;
+        this.times = new int[cols * rows];
+    }
+
+    /** A surface with the given travel times, row by row from the south. */
+    TimeSurface(double west, double south, double dLon, double dLat, int cols, int[] times) {
+        this.west = west;
+        this.south = south;
+        this.dLon = dLon;
+        this.dLat = dLat;
+        this.cols = cols;
+        this.rows = times.length / cols;
+        this.times = times;
+    }
+
+    /**
+     * Build the time surface of an SPT, covering all vertices it reached.
+     *
+     * @param cellSizeMeters the height of a grid cell; it is increased for very large SPTs
+     * @return the surface, which is unreachable everywhere if the SPT did not reach any vertex,
+     *         or null if the thread was interrupted while building it
+     */
+    public static TimeSurface build(final ShortestPathTree spt, final SampleSource sampleSource,
+            double cellSizeMeters) {
+        long t0 = System.currentTimeMillis();
+        Envelope env = new Envelope();
+        for (State s : spt.getAllStates()) {
+            Vertex v = s.getVertex();
+            env.expandToInclude(v.getX(), v.getY());
+        }
+        if (env.isNull())
+            return unreachable();
+        double marginLat = SphericalDistanceLibrary.metersToDegrees(MARGIN_METERS);
+        env.expandBy(marginLat / Math.cos(Math.toRadians(env.centre().y)), marginLat);
+
+        final TimeSurface surface = new TimeSurface(env, cellSizeMeters);
+        boolean done = AnalystExecutor.forEachChunk(surface.rows, ROWS_PER_TASK,
+                new AnalystExecutor.Chunk() {
+                    @Override
+                    public void run(int firstRow, int lastRow) {
+                        surface.evaluateRows(spt, sampleSource, firstRow, lastRow);
+                    }
+                });
+        if (!done)
+            return null;
+        LOG.debug("built {}x{} time surface in {} msec", surface.cols, surface.rows,
+                System.currentTimeMillis() - t0);
+        return surface;
+    }
+
+    /** @return a surface of a single cell, which is unreachable like every point outside it */
+    public static TimeSurface unreachable() {
+        return new TimeSurface(0, 0, 1, 1, 1, new int[] { UNREACHABLE });
+    }
+
+    private void evaluateRows(ShortestPathTree spt, SampleSource sampleSource, int firstRow,
+            int lastRow) {
+        for (int r = firstRow; r < lastRow; r++) {
+            double lat = south + (r + 0.5) * dLat;
+            int i = r * cols;
+            for (int c = 0; c < cols; c++, i++) {
+                Sample s = sampleSource.getSample(west + (c + 0.5) * dLon, lat);
+                long t = (s == null) ? Long.MAX_VALUE : s.eval(spt);
+                times[i] = (t >= UNREACHABLE) ? UNREACHABLE : (int) t;
+            }
+        }
+    }
+
+    /**
+     * @return the travel time in seconds at the given point, interpolated between the four
+     *         surrounding cells when they are all reachable, or UNREACHABLE.
+     */
+    public int getTime(double lon, double lat) {
+        double x = (lon - west) / dLon - 0.5;
+        double y = (lat - south) / dLat - 0.5;
+        if (x < -0.5 || y < -0.5 || x > cols - 0.5 || y > rows - 0.5)
+            return UNREACHABLE;
+        int c0 = (int) Math.floor(x);
+        int r0 = (int) Math.floor(y);
+        if (c0 >= 0 && r0 >= 0 && c0 + 1 < cols && r0 + 1 < rows) {
+            int i = r0 * cols + c0;
+            int t00 = times[i];
+            int t01 = times[i + 1];
+            int t10 = times[i + cols];
+            int t11 = times[i + cols + 1];
+            if (t00 != UNREACHABLE && t01 != UNREACHABLE && t10 != UNREACHABLE
+                    && t11 != UNREACHABLE) {
+                double fx = x - c0;
+                double fy = y - r0;
+                double t0 = t00 + (t01 - t00) * fx;
+                double t1 = t10 + (t11 - t10) * fx;
+                return (int) (t0 + (t1 - t0) * fy);
+            }
+        }
+        // near unreachable cells and at the edges, use the nearest cell
+        int c = Math.min(cols - 1, Math.max(0, (int) Math.round(x)));
+        int r = Math.min(rows - 1, Math.max(0, (int) Math.round(y)));
+        return times[r * cols + c];
+    }
+
+    /**
+     * @return the travel time of the cell at the given column and row, or UNREACHABLE if it is
+     *         outside the grid.
+     */
+    int getCellTime(int col, int row) {
+        if (col < 0 || row < 0 || col >= cols || row >= rows)
+            return UNREACHABLE;
+        return times[row * cols + col];
+    }
+
+    /** @return the approximate size of this surface in bytes, for cache weighing */
+    public int getByteSize() {
+        return times.length * 4;
+    }
+}
@@ -0,0 +1,226 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Getter;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Runs analyst searches for many origins at once, for instance to compare the isochrones or
+ * accessibility of candidate sites.
+ *
+ * The origins of a batch are first linked to the street network together, on the calling thread,
+ * against a single graph. The searches then run on a fixed pool of threads shared by all batches,
+ * which bounds the number of SPTs computed at the same time regardless of the number of origins
+ * or concurrent batches. Results are handed back in the order the searches complete, so that they
+ * can be streamed to the client as soon as they are available. The temporary edges of all origins
+ * are removed once the whole batch is done.
+ */
+public class BatchSearchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchSearchService.class);
+
+    @Autowired
+    private GraphService graphService;
+
+    private final ThreadPoolExecutor threadPool;
+
+    /** The maximum number of origins in one batch */
+    @Getter
+    private final int maxOrigins;
+
+    /** A computation for one origin, run on a search thread once the origin has been linked. */
+    public interface OriginTask<T> {
+        public T compute(RoutingRequest request) throws Exception;
+    }
+
+    /** Receives the results of a batch on the calling thread, in order of completion. */
+    public interface ResultHandler<T> {
+        /**
+         * @param index the position of the origin in the batch
+         * @param result the result of the task, or null if it failed
+         * @param error the reason the origin could not be linked or the task failed, or null
+         */
+        public void handle(int index, T result, Exception error) throws IOException;
+    }
+
+    /** One search thread per processor, and at most 50 origins per batch. */
+    public BatchSearchService() {
+        this(Runtime.getRuntime().availableProcessors(), 50);
+    }
+
+    /**
+     * @param nThreads the number of searches run at the same time, across all batches
+     * @param maxOrigins the maximum number of origins in one batch
+     */
+    public BatchSearchService(int nThreads, int maxOrigins) {
+        this.maxOrigins = maxOrigins;
+        threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "batch-search");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Link all origins, run the task for each of them on the search threads, and pass the results
+     * to the handler as they complete. If the handler throws, for instance because the client
+     * has gone away, the remaining searches are cancelled.
+     *
+     * @throws IllegalArgumentException if there are more than maxOrigins requests
+     */
+    public <T> void execute(List<RoutingRequest> requests, OriginTask<T> task,
+            ResultHandler<T> handler) throws IOException {
+        if (requests.size() > maxOrigins)
+            throw new IllegalArgumentException("at most " + maxOrigins + " origins per batch");
+        long t0 = System.currentTimeMillis();
+        Graph graph = graphService.getGraph();
+        List<RoutingRequest> linked = new ArrayList<RoutingRequest>();
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        List<OriginSearch<T>> searches = new ArrayList<OriginSearch<T>>();
+        CompletionService<T> completionService = new ExecutorCompletionService<T>(threadPool);
+        try {
+            // shared linking step: temporary edges are only added from this thread
+            int nSubmitted = 0;
+            for (int i = 0; i < requests.size(); i++) {
+                RoutingRequest request = requests.get(i);
+                try {
+                    request.setRoutingContext(graph);
+                    linked.add(request);
+                } catch (Exception e) {
+                    LOG.debug("cannot link origin {}: {}", i, e.toString());
+                    if (request.rctx != null)
+                        linked.add(request);
+                    handler.handle(i, null, e);
+                    futures.add(null);
+                    continue;
+                }
+                OriginSearch<T> search = new OriginSearch<T>(task, request);
+                searches.add(search);
+                futures.add(completionService.submit(search));
+                nSubmitted++;
+            }
+            LOG.debug("linked {} origins in {} msec", requests.size(),
+                    System.currentTimeMillis() - t0);
+
+            for (int n = 0; n < nSubmitted; n++) {
+                Future<T> future = completionService.take();
+                int index = futures.indexOf(future);
+                try {
+                    handler.handle(index, future.get(), null);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    handler.handle(index, null, cause instanceof Exception ? (Exception) cause
+                            : new RuntimeException(cause));
+                }
+            }
+            LOG.debug("searched from {} origins in {} msec", requests.size(),
+                    System.currentTimeMillis() - t0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for batch searches");
+        } finally {
+            // no-op for completed searches, otherwise interrupts them. The temporary edges are
+            // only removed once no search can be using them any more.
+            for (Future<T> future : futures) {
+                if (future != null)
+                    future.cancel(true);
+            }
+            for (OriginSearch<T> search : searches) {
+                search.awaitStopped();
+            }
+            for (RoutingRequest request : linked) {
+                request.cleanup();
+            }
+        }
+    }
+
+    /** The search for one origin, which can be waited for even once its future is cancelled. */
+    private static class OriginSearch<T> implements Callable<T> {
+
+        private final OriginTask<T> task;
+
+        private final RoutingRequest request;
+
+        /** Set by whichever comes first, the search starting or waiting for it to stop */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        OriginSearch(OriginTask<T> task, RoutingRequest request) {
+            this.task = task;
+            this.request = request;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!claimed.compareAndSet(false, true))
+                return null; // cancelled before it started
+            try {
+                return task.compute(request);
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * Wait until this search has completed, or make sure it never starts. The wait is not
+         * interrupted, since the caller may not remove the temporary edges before it returns.
+         */
+        void awaitStopped() {
+            if (claimed.compareAndSet(false, true))
+                return;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shutdown() {
+        threadPool.shutdownNow();
+    }
+}
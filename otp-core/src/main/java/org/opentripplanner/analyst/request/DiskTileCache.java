@@ -0,0 +1,334 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.annotation.PostConstruct;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * A second-tier cache of rendered analyst tiles, stored as encoded image files on disk so that
+ * they survive restarts. Servers loading the same graph file may share the directory, but a server
+ * removes the tiles of every other graph when it starts or its graph is replaced, so servers
+ * running different graphs need different directories.
+ *
+ * Entries are keyed on a canonical description of the tile, render and SPT requests, and on the
+ * version of the data they were computed from: the build id stored in the graph file, and the
+ * version of the realtime timetable snapshot if the SPT uses it. Tiles computed from an older
+ * graph or snapshot are therefore never returned. Each graph gets its own subdirectory; entries of
+ * superseded snapshots are removed by the least-recently-used eviction that bounds the total size
+ * of the cache.
+ *
+ * Reads are memory-mapped, so cached tiles are served from the OS page cache without copying.
+ */
+public class DiskTileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskTileCache.class);
+
+    /**
+     * Realtime snapshots only exist in one process, so their keys include a random per-process
+     * value: tiles computed from realtime data are never shared across restarts.
+     */
+    private static final String PROCESS_ID = Long.toHexString(new Random().nextLong());
+
+    @Autowired @Setter
+    private GraphService graphService;
+
+    /** The directory under which the tile directories of the graphs are kept */
+    @Getter
+    private final File baseDirectory;
+
+    /** The maximum total size in bytes of the cached tiles */
+    @Getter
+    private final long maxBytes;
+
+    /** The current graph, its build id, and the directory of its tiles */
+    private Graph graph = null;
+
+    private String graphId;
+
+    private File directory;
+
+    /** Cached tile files and their sizes, from least to most recently used */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f,
+            true);
+
+    private long totalBytes = 0;
+
+    public DiskTileCache(File baseDirectory, long maxBytes) {
+        this.baseDirectory = baseDirectory;
+        this.maxBytes = maxBytes;
+    }
+
+    @PostConstruct
+    private void runAfterInjection() {
+        if (!baseDirectory.isDirectory() && !baseDirectory.mkdirs())
+            throw new IllegalStateException("Cannot create tile cache directory " + baseDirectory);
+        LOG.info("Caching up to {} MB of analyst tiles in {}", maxBytes >> 20, baseDirectory);
+    }
+
+    /**
+     * @return a canonical key for the given requests, or null if they cannot be described
+     *         canonically, in which case the tile must not be cached on disk.
+     */
+    public String getKey(TileRequest tileRequest, RenderRequest renderRequest,
+            RoutingRequest sptRequestA, RoutingRequest sptRequestB) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(tileRequest.bbox.getCoordinateReferenceSystem() == null ? "" :
+                tileRequest.bbox.getCoordinateReferenceSystem().getName().toString());
+        sb.append(';').append(tileRequest.bbox.getMinX()).append(',')
+                .append(tileRequest.bbox.getMinY()).append(',')
+                .append(tileRequest.bbox.getMaxX()).append(',')
+                .append(tileRequest.bbox.getMaxY()).append(';')
+                .append(tileRequest.width).append('x').append(tileRequest.height).append(';');
+        sb.append(renderRequest.format).append(';').append(renderRequest.layer).append(';')
+                .append(renderRequest.style).append(';').append(renderRequest.transparent)
+                .append(';').append(renderRequest.timestamp).append(';');
+        if (!appendKey(sb, sptRequestA) || !appendKey(sb, sptRequestB))
+            return null;
+        return sb.toString();
+    }
+
+    /**
+     * Append the fields of a routing request that determine its SPT, as compared by
+     * RoutingRequest.equals, in a form that is the same across processes.
+     *
+     * @return false if the request has fields that have no such form
+     */
+    private boolean appendKey(StringBuilder sb, RoutingRequest req) {
+        if (req == null) {
+            sb.append("-;");
+            return true;
+        }
+        if (!req.bannedTrips.isEmpty() || !req.extensions.isEmpty())
+            return false;
+        Object[] fields = new Object[] { req.batch,
+                req.batch && req.arriveBy ? null : req.from.toDescriptiveString(),
+                req.batch && !req.arriveBy ? null : req.to.toDescriptiveString(),
+                req.dateTime, req.arriveBy, req.numItineraries, req.getWalkSpeed(),
+                req.getBikeSpeed(), req.getCarSpeed(), req.maxWeight, req.worstTime,
+                req.maxTransfers, req.getModes().getAsStr(), req.wheelchairAccessible,
+                req.optimize, req.maxWalkDistance, req.transferPenalty, req.maxSlope,
+                req.walkReluctance, req.waitReluctance, req.getWalkBoardCost(),
+                req.getBikeBoardCost(), req.bannedRoutes.asString(),
+                req.preferredRoutes.asString(), req.unpreferredRoutes.asString(),
+                req.getTransferSlack(), req.getBoardSlack(), req.getAlightSlack(),
+                req.nonpreferredTransferPenalty, req.otherThanPreferredRoutesPenalty,
+                req.useUnpreferredRoutesPenalty,
+                req.triangleSafetyFactor, req.triangleSlopeFactor, req.triangleTimeFactor,
+                req.stairsReluctance, req.elevatorBoardTime, req.elevatorBoardCost,
+                req.elevatorHopTime, req.elevatorHopCost, req.bikeRentalPickupTime,
+                req.bikeRentalPickupCost, req.bikeRentalDropoffTime, req.bikeRentalDropoffCost,
+                req.isUseBikeRentalAvailabilityInformation(), req.clampInitialWait,
+                req.reverseOptimizeOnTheFly, req.ignoreRealtimeUpdates,
+                req.disableRemainingWeightHeuristic, req.getStartingTransitTripId() };
+        for (Object field : fields) {
+            sb.append(field).append(',');
+        }
+        TimetableSnapshotSource snapshotSource = graphService.getGraph()
+                .getTimetableSnapshotSource();
+        if (snapshotSource != null && !req.ignoreRealtimeUpdates) {
+            sb.append("rt=").append(PROCESS_ID).append('/')
+                    .append(snapshotSource.getTimetableSnapshotVersion());
+        }
+        sb.append(';');
+        return true;
+    }
+
+    /**
+     * @return the encoded tile for the given key, mapped into memory, or null if it is not cached
+     */
+    public ByteBuffer get(String key) {
+        File file;
+        synchronized (this) {
+            String name = fileName(key);
+            file = new File(directory, name);
+            if (entries.get(name) == null)
+                return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                // the mapping stays valid after the file is closed
+                raf.close();
+            }
+        } catch (IOException e) {
+            // evicted concurrently, or removed by another server sharing the directory
+            LOG.debug("Cannot read cached tile {}: {}", file, e.toString());
+            synchronized (this) {
+                remove(file.getName());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Store an encoded tile, and evict the least recently used tiles beyond the size limit.
+     */
+    public void put(String key, byte[] data) {
+        File dir;
+        String name;
+        synchronized (this) {
+            name = fileName(key);
+            dir = directory;
+        }
+        File file = new File(dir, name);
+        File tmp = new File(dir, name + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            // readers never see a partially written tile
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot write cached tile {}: {}", file, e.toString());
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (dir != directory)
+                return; // the graph changed meanwhile
+            Long previous = entries.put(name, (long) data.length);
+            totalBytes += data.length - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(name))
+                    continue;
+                new File(directory, eldest.getKey()).delete();
+                totalBytes -= eldest.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null)
+            totalBytes -= size;
+    }
+
+    /**
+     * @return the file name for the given key in the directory of the current graph, switching to
+     *         the directory of a new graph first if it has been replaced or saved again.
+     */
+    private String fileName(String key) {
+        Graph current = graphService.getGraph();
+        if (current != graph || !current.getBuildId().equals(graphId)) {
+            switchGraph(current);
+        }
+        return sha1(graphId + '|' + key);
+    }
+
+    /**
+     * Use the tile directory of the given graph, load the index of the tiles already in it, and
+     * remove the directories of all other graphs.
+     */
+    private void switchGraph(Graph newGraph) {
+        graph = newGraph;
+        graphId = newGraph.getBuildId();
+        directory = new File(baseDirectory, graphId);
+        directory.mkdirs();
+        entries.clear();
+        totalBytes = 0;
+
+        File[] others = baseDirectory.listFiles();
+        for (File other : others == null ? new File[0] : others) {
+            if (other.isDirectory() && !other.equals(directory)) {
+                LOG.info("Removing tiles of a previous graph in {}", other);
+                deleteDirectory(other);
+            }
+        }
+        // index the existing tiles, least recently modified first
+        File[] files = directory.listFiles();
+        TreeSet<File> sorted = new TreeSet<File>(new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                int c = Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+                return c != 0 ? c : f1.getName().compareTo(f2.getName());
+            }
+        });
+        sorted.addAll(Arrays.asList(files == null ? new File[0] : files));
+        for (File file : sorted) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+        LOG.info("Found {} cached tiles ({} MB) for graph {}", entries.size(), totalBytes >> 20,
+                graphId);
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -6,7 +6,12 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.TimeZone;
@@ -26,6 +31,7 @@ import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opentripplanner.analyst.core.Tile;
 import org.opentripplanner.analyst.parameter.MIMEImageFormat;
+import org.opentripplanner.analyst.parameter.Style;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
@@ -44,28 +50,54 @@ public class Renderer {
     @Autowired
     private SPTCache sptCache;
 
+    /** Encoded tiles are kept on disk across requests and restarts, if configured. */
+    @Autowired(required = false)
+    private DiskTileCache diskTileCache;
+
     public Response getResponse (TileRequest tileRequest, 
             RoutingRequest sptRequestA, RoutingRequest sptRequestB, 
             RenderRequest renderRequest) throws Exception {
 
+        String cacheKey = null;
+        if (diskTileCache != null) {
+            cacheKey = diskTileCache.getKey(tileRequest, renderRequest, sptRequestA, sptRequestB);
+            if (cacheKey != null) {
+                ByteBuffer cached = diskTileCache.get(cacheKey);
+                if (cached != null) {
+                    return generateCachedResponse(cached, renderRequest.format.toString());
+                }
+            }
+        }
+
         Tile tile = tileCache.get(tileRequest);
-        ShortestPathTree sptA = sptCache.get(sptRequestA);
-        ShortestPathTree sptB = sptCache.get(sptRequestB);
         
+        // Travel times are resampled from the time surfaces of the SPTs, which are computed once
+        // per SPT. Boardings are not part of the surfaces: samples are evaluated against per-vertex
+        // boardings, which are also computed once per SPT.
         BufferedImage image;
         switch (renderRequest.layer) {
         case DIFFERENCE :
-            image = tile.linearCombination(1, sptA, -1, sptB, 0, renderRequest);
+            image = tile.linearCombination(1, sptCache.getSurface(sptRequestA), 
+                    -1, sptCache.getSurface(sptRequestB), 0, renderRequest);
             break;
         case HAGERSTRAND :
             long elapsed = Math.abs(sptRequestB.dateTime - sptRequestA.dateTime);
-            image = tile.linearCombination(-1, sptA, -1, sptB, elapsed/60, renderRequest);
+            image = tile.linearCombination(-1, sptCache.getSurface(sptRequestA), 
+                    -1, sptCache.getSurface(sptRequestB), elapsed/60, renderRequest);
             break;
         case TRAVELTIME :
         default :
-            image = tile.generateImage(sptA, renderRequest);
+            if (renderRequest.style == Style.BOARDINGS) {
+                ShortestPathTree sptA = sptCache.get(sptRequestA);
+                image = tile.generateImage(sptA, renderRequest);
+            } else {
+                image = tile.generateImage(sptCache.getSurface(sptRequestA), renderRequest);
+            }
         }
-        
+        // a partial image must be neither sent nor cached
+        if (image == null)
+            throw new InterruptedException("rendering of " + tileRequest + " was interrupted");
+
         // add a timestamp to the image if requested. 
         // of course this will make it useless as a raster for analysis, but it's good for animations.
         if (renderRequest.timestamp) {
@@ -82,7 +114,20 @@ public class Renderer {
         }
                 
         // geotiff kludge
-        if (renderRequest.format.toString().equals("image/geotiff")) {
+        boolean geotiff = renderRequest.format.toString().equals("image/geotiff");
+        if (cacheKey != null) {
+            // encode into memory once, to both store and send the same bytes
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if (geotiff) {
+                writeGeotiff(tile.getGridCoverage2D(image), buffer);
+            } else {
+                ImageIO.write(image, renderRequest.format.type, buffer);
+            }
+            byte[] data = buffer.toByteArray();
+            diskTileCache.put(cacheKey, data);
+            return generateCachedResponse(ByteBuffer.wrap(data), renderRequest.format.toString());
+        }
+        if (geotiff) {
             GridCoverage2D gc = tile.getGridCoverage2D(image);
             return generateStreamingGeotiffResponse(gc);
         } else {
@@ -146,21 +191,49 @@ public class Renderer {
     }
     
     
+    /** Send an already encoded tile, from the disk cache or just written to it. */
+    private static Response generateCachedResponse(final ByteBuffer data, String type) {
+
+        StreamingOutput streamingOutput = new StreamingOutput() {
+            public void write(OutputStream outStream) throws IOException {
+                // duplicate, since several responses may be sending the same mapped buffer
+                ByteBuffer src = data.duplicate();
+                WritableByteChannel channel = Channels.newChannel(outStream);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            }
+       };
+
+       CacheControl cc = new CacheControl();
+       cc.setMaxAge(3600);
+       cc.setNoCache(false);
+       return Response.ok(streamingOutput)
+                       .type(type)
+                       .cacheControl(cc)
+                       .build();
+    }
+
+    private static void writeGeotiff(GridCoverage2D coverage, OutputStream outStream)
+            throws IOException {
+        long t0 = System.currentTimeMillis();
+        GeoTiffWriteParams wp = new GeoTiffWriteParams();
+        wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
+        wp.setCompressionType("LZW");
+        ParameterValueGroup params = new GeoTiffFormat().getWriteParameters();
+        params.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
+        new GeoTiffWriter(outStream).write(coverage, (GeneralParameterValue[]) params.values().toArray(new GeneralParameterValue[1]));
+        //new GeoTiffWriter(outStream).write(coverage, null); //wasn't this line writing twice and trashing compressed version?
+        long t1 = System.currentTimeMillis();
+        LOG.debug("wrote geotiff in {}msec", t1-t0);
+    }
+
     private static Response generateStreamingGeotiffResponse(final GridCoverage2D coverage) {
         
         StreamingOutput streamingOutput = new StreamingOutput() {
             public void write(OutputStream outStream) {
                 try {
-                    long t0 = System.currentTimeMillis();
-                    GeoTiffWriteParams wp = new GeoTiffWriteParams();
-                    wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
-                    wp.setCompressionType("LZW");
-                    ParameterValueGroup params = new GeoTiffFormat().getWriteParameters();
-                    params.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
-                    new GeoTiffWriter(outStream).write(coverage, (GeneralParameterValue[]) params.values().toArray(new GeneralParameterValue[1]));
-                    //new GeoTiffWriter(outStream).write(coverage, null); //wasn't this line writing twice and trashing compressed version?
-                    long t1 = System.currentTimeMillis();
-                    LOG.debug("wrote geotiff in {}msec", t1-t0);
+                    writeGeotiff(coverage, outStream);
                 } catch (Exception e) {
                     LOG.error("exception while preparing geotiff : {}", e.getMessage());
                     throw new WebApplicationException(e);
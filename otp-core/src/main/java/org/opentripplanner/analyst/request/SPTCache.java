@@ -17,6 +17,7 @@ import javax.annotation.PostConstruct;
 
 import lombok.Setter;
 
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
@@ -28,6 +29,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 
 public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
 
@@ -37,10 +39,20 @@ public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
     
     @Autowired private GraphService graphService; 
 
+    @Autowired private SampleFactory sampleFactory;
+
     private LoadingCache<RoutingRequest, ShortestPathTree> sptCache;
 
+    private LoadingCache<RoutingRequest, TimeSurface> surfaceCache;
+
     @Setter private int size = 200;
     @Setter private int concurrency = 16;
+
+    /** The maximum total size in bytes of the cached time surfaces */
+    @Setter private long surfaceCacheBytes = 256 * 1024 * 1024;
+
+    /** The height in meters of the cells of the time surfaces */
+    @Setter private double surfaceCellSize = 50;
             
     @PostConstruct
     private void runAfterInjection() {
@@ -48,22 +60,57 @@ public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
                 .concurrencyLevel(concurrency)
                 .maximumSize(size)
                 .build(this);
+        this.surfaceCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrency)
+                .maximumWeight(surfaceCacheBytes)
+                .weigher(new Weigher<RoutingRequest, TimeSurface>() {
+                    @Override
+                    public int weigh(RoutingRequest req, TimeSurface surface) {
+                        return surface.getByteSize();
+                    }
+                })
+                .build(new CacheLoader<RoutingRequest, TimeSurface>() {
+                    @Override
+                    public TimeSurface load(RoutingRequest req) throws Exception {
+                        LOG.debug("time surface cache miss : {}", req);
+                        TimeSurface surface = TimeSurface.build(get(req), sampleFactory,
+                                surfaceCellSize);
+                        if (surface == null) // not cached, unlike an unreachable surface
+                            throw new InterruptedException("time surface of " + req
+                                    + " was interrupted");
+                        return surface;
+                    }
+                });
     }
  
-    @Override /** completes the abstract CacheLoader superclass */
+    /**
+     * Completes the abstract CacheLoader superclass. If the request already has a routing context,
+     * its origin was linked by the caller, which is then also responsible for cleaning it up.
+     */
+    @Override
     public ShortestPathTree load(RoutingRequest req) throws Exception {
         LOG.debug("spt cache miss : {}", req);
+        boolean linked = req.rctx != null;
         req.setRoutingContext(graphService.getGraph());
         long t0 = System.currentTimeMillis();
         ShortestPathTree spt = sptService.getShortestPathTree(req);
         long t1 = System.currentTimeMillis();
         LOG.debug("calculated spt in {}msec", (int) (t1 - t0));
-        req.cleanup();
+        if (!linked)
+            req.cleanup();
         return spt;
     }
 
     public ShortestPathTree get(RoutingRequest req) throws Exception {
         return req == null ? null : sptCache.get(req);
     }
+
+    /**
+     * @return the time surface of the SPT for the given request, which is built once and then
+     *         shared by all tiles rendered for that request.
+     */
+    public TimeSurface getSurface(RoutingRequest req) throws Exception {
+        return req == null ? null : surfaceCache.get(req);
+    }
     
 }
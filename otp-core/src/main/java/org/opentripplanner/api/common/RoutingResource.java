@@ -140,6 +140,16 @@ public abstract class RoutingResource {
      *  Atlantic Avenue should be included. */
     @DefaultValue("false") @QueryParam("showIntermediateStops") protected List<Boolean> showIntermediateStops;
 
+    /** Whether turn-by-turn walk steps should be returned for street legs. Leaving them out
+     *  makes responses for long walking and cycling itineraries much smaller. */
+    @DefaultValue("true") @QueryParam("showWalkSteps") protected List<Boolean> showWalkSteps;
+
+    /** Whether elevation profiles should be returned along the walk steps. */
+    @DefaultValue("true") @QueryParam("showElevation") protected List<Boolean> showElevation;
+
+    /** Whether the encoded polyline geometry of each leg should be returned. */
+    @DefaultValue("true") @QueryParam("showLegGeometry") protected List<Boolean> showLegGeometry;
+
     /**
      * Prevents unnecessary transfers by adding a cost for boarding a vehicle. This is the cost that
      * is used when boarding while walking.
@@ -352,6 +362,9 @@ public abstract class RoutingResource {
         }
         request.setArriveBy(get(arriveBy, n, false));
         request.setShowIntermediateStops(get(showIntermediateStops, n, request.isShowIntermediateStops()));
+        request.setShowWalkSteps(get(showWalkSteps, n, request.isShowWalkSteps()));
+        request.setShowElevation(get(showElevation, n, request.isShowElevation()));
+        request.setShowLegGeometry(get(showLegGeometry, n, request.isShowLegGeometry()));
         /* intermediate places and their ordering are shared because they are themselves a list */
         if (intermediatePlaces != null && intermediatePlaces.size() > 0 
             && ! intermediatePlaces.get(0).equals("")) {
@@ -17,11 +17,13 @@ package org.opentripplanner.api.model.error;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.opentripplanner.api.common.Message;
 import org.opentripplanner.api.ws.LocationNotAccessible;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.error.PathNotFoundException;
+import org.opentripplanner.routing.error.RequestTimeoutException;
 import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.TrivialPathException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
@@ -41,6 +43,8 @@ public class PlannerError {
         messages.put(TransitTimesException.class,   Message.NO_TRANSIT_TIMES);
         messages.put(TrivialPathException.class,    Message.TOO_CLOSE);
         messages.put(GraphNotFoundException.class,    Message.GRAPH_UNAVAILABLE);
+        messages.put(RequestTimeoutException.class,   Message.REQUEST_TIMEOUT);
+        messages.put(RejectedExecutionException.class, Message.GRAPH_UNAVAILABLE);
     }
     
     private int    id;
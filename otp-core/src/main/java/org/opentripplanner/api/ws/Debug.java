@@ -9,7 +9,7 @@ import com.google.common.collect.Lists;
 /** 
  * Holds information to be included in the REST Response for debugging and profiling purposes.
  * 
- * startedCalculating is called in the routingContext constructor.
+ * startedCalculating and finishedSetup are called in the routingContext constructor.
  * finishedCalculating and finishedRendering are all called in PlanGenerator.generate().
  * finishedPrecalculating and foundPaths are called in the SPTService implementations.
  */
@@ -18,16 +18,21 @@ public class Debug { // rename to DebugOutput
 
     /* Only public fields are serialized by JAX-RS, make interal ones private? */
     private long startedCalculating;
+    private long finishedSetup;
     private long finishedPrecalculating;
     private List<Long> foundPaths = Lists.newArrayList();    
     private long finishedCalculating;    
     private long finishedRendering;    
+    private long fareCalculationNanos;
     
     /* Results, public to cause JAX-RS serialization */
+    public long setupTime;
     public long precalculationTime;
     public long pathCalculationTime;
     public List<Long> pathTimes = Lists.newArrayList();
     public long renderingTime;
+    /** The part of the rendering time spent computing fares, in milliseconds */
+    public long fareCalculationTime;
     public long totalTime;
     public boolean timedOut;
     
@@ -42,6 +47,14 @@ public class Debug { // rename to DebugOutput
         startedCalculating = System.currentTimeMillis();
     }
 
+    /**
+     * Record the time when we finished setting up the routing context (linking the endpoints
+     * into the graph, finding the service days) and are about to start searching.
+     */
+    public void finishedSetup() {
+        finishedSetup = System.currentTimeMillis();
+    }
+
     /** Record the time when we finished heuristic pre-calculation. */
     public void finishedPrecalculating() {
         finishedPrecalculating = System.currentTimeMillis();
@@ -57,6 +70,11 @@ public class Debug { // rename to DebugOutput
         finishedCalculating = System.currentTimeMillis();
     }
     
+    /** Record the time spent computing the fare of one itinerary. */
+    public void addFareCalculationTime(long nanos) {
+        fareCalculationNanos += nanos;
+    }
+
     /** Record the time when we finished converting paths into itineraries. */
     public void finishedRendering() {
         finishedRendering= System.currentTimeMillis();
@@ -65,7 +83,10 @@ public class Debug { // rename to DebugOutput
     
     /** Summarize and calculate elapsed times. */
     private void computeSummary() {
-        precalculationTime = finishedPrecalculating - startedCalculating;
+        if (finishedSetup == 0)
+            finishedSetup = startedCalculating;
+        setupTime = finishedSetup - startedCalculating;
+        precalculationTime = finishedPrecalculating - finishedSetup;
         pathCalculationTime = finishedCalculating - finishedPrecalculating;
         long last_t = finishedPrecalculating;
         for (long t : foundPaths) {
@@ -73,6 +94,7 @@ public class Debug { // rename to DebugOutput
             last_t = t;
         }
         renderingTime = finishedRendering - finishedCalculating;
+        fareCalculationTime = fareCalculationNanos / 1000000;
         totalTime = finishedRendering - startedCalculating;
     }
 
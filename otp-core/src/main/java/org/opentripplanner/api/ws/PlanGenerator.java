@@ -31,7 +31,6 @@ import org.opentripplanner.api.model.RelativeDirection;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.WalkStep;
 import org.opentripplanner.common.geometry.DirectionUtils;
-import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.core.RoutingContext;
@@ -122,7 +121,7 @@ public class PlanGenerator {
             throw new PathNotFoundException();
         }
 
-        TripPlan plan = generatePlan(paths, originalOptions);
+        TripPlan plan = generatePlan(paths, originalOptions, options.rctx.debug);
         if (plan != null) {
             for (Itinerary i : plan.itinerary) {
                 i.tooSloped = tooSloped;
@@ -142,9 +141,10 @@ public class PlanGenerator {
     }
 
     /**
-     * Generates a TripPlan from a set of paths
+     * Generates a TripPlan from a set of paths, recording the time spent on fares in the given
+     * Debug of the request.
      */
-    TripPlan generatePlan(List<GraphPath> paths, RoutingRequest request) {
+    TripPlan generatePlan(List<GraphPath> paths, RoutingRequest request, Debug debug) {
 
         GraphPath exemplar = paths.get(0);
         Vertex tripStartVertex = exemplar.getStartVertex();
@@ -165,7 +165,9 @@ public class PlanGenerator {
         TripPlan plan = new TripPlan(from, to, request.getDateTime());
 
         for (GraphPath path : paths) {
-            Itinerary itinerary = generateItinerary(path, request.isShowIntermediateStops());
+            Itinerary itinerary = generateItinerary(path, request.isShowIntermediateStops(),
+                    request.isShowWalkSteps(), request.isShowElevation(),
+                    request.isShowLegGeometry(), debug);
             itinerary = adjustItinerary(request, itinerary);
             plan.addItinerary(itinerary);
         }
@@ -197,6 +199,23 @@ public class PlanGenerator {
      * @return The generated itinerary
      */
     Itinerary generateItinerary(GraphPath path, boolean showIntermediateStops) {
+        return generateItinerary(path, showIntermediateStops, true, true, true, null);
+    }
+
+    /**
+     * Generate an itinerary from a {@link GraphPath}, leaving out the parts of the itinerary the
+     * client did not ask for, so they are neither computed nor serialized.
+     *
+     * @param path The graph path to base the itinerary on
+     * @param showIntermediateStops Whether to include intermediate stops in the itinerary or not
+     * @param showWalkSteps Whether to include turn-by-turn walk steps in the itinerary or not
+     * @param showElevation Whether to include elevation profiles in the walk steps or not
+     * @param showLegGeometry Whether to include the encoded leg geometries or not
+     * @param debug The Debug of the request, which accumulates the time spent on fares, or null
+     * @return The generated itinerary
+     */
+    Itinerary generateItinerary(GraphPath path, boolean showIntermediateStops,
+            boolean showWalkSteps, boolean showElevation, boolean showLegGeometry, Debug debug) {
         if (path.states.size() < 2) {
             throw new TrivialPathException();
         }
@@ -218,14 +237,20 @@ public class PlanGenerator {
         State[][] legsStates = sliceStates(states);
 
         if (fareService != null) {
+            long t0 = System.nanoTime();
             itinerary.fare = fareService.getCost(path);
+            if (debug != null)
+                debug.addFareCalculationTime(System.nanoTime() - t0);
         }
 
         for (State[] legStates : legsStates) {
-            itinerary.addLeg(generateLeg(legStates, transitIndexService, showIntermediateStops));
+            itinerary.addLeg(generateLeg(legStates, transitIndexService, showIntermediateStops,
+                    showLegGeometry));
         }
 
-        addWalkSteps(itinerary.legs, legsStates);
+        if (showWalkSteps) {
+            addWalkSteps(itinerary.legs, legsStates, showElevation);
+        }
 
         fixupLegs(itinerary.legs, legsStates);
 
@@ -256,27 +281,23 @@ public class PlanGenerator {
     }
 
     /**
-     * Generate a {@link CoordinateArrayListSequence} based on an {@link Edge} array.
+     * Collect the geometries of an {@link Edge} array, skipping edges without a geometry.
      *
      * @param edges The array of input edges
-     * @return The coordinates of the points on the edges
+     * @return The geometries of the edges, in order
      */
-    private CoordinateArrayListSequence makeCoordinates(Edge[] edges) {
-        CoordinateArrayListSequence coordinates = new CoordinateArrayListSequence();
+    private List<LineString> makeGeometries(Edge[] edges) {
+        List<LineString> geometries = new ArrayList<LineString>(edges.length);
 
         for (Edge edge : edges) {
             LineString geometry = edge.getGeometry();
 
-            if (geometry != null) {
-                if (coordinates.size() == 0) {
-                    coordinates.extend(geometry.getCoordinates());
-                } else {
-                    coordinates.extend(geometry.getCoordinates(), 1); // Avoid duplications
-                }
+            if (geometry != null && !geometry.isEmpty()) {
+                geometries.add(geometry);
             }
         }
 
-        return coordinates;
+        return geometries;
     }
 
     /**
@@ -343,10 +364,11 @@ public class PlanGenerator {
      * @param states The array of states to base the leg on
      * @param transitIndexService The service to use for transit agency lookups
      * @param showIntermediateStops Whether to include intermediate stops in the leg or not
+     * @param showLegGeometry Whether to include the encoded geometry of the leg or not
      * @return The generated leg
      */
     private Leg generateLeg(State[] states, TransitIndexService transitIndexService,
-            boolean showIntermediateStops) {
+            boolean showIntermediateStops, boolean showLegGeometry) {
         Leg leg = new Leg();
 
         Edge[] edges = new Edge[states.length - 1];
@@ -372,10 +394,10 @@ public class PlanGenerator {
 
         if (leg.isTransitLeg()) addRealTimeData(leg, states);
 
-        CoordinateArrayListSequence coordinates = makeCoordinates(edges);
-        Geometry geometry = GeometryUtils.getGeometryFactory().createLineString(coordinates);
-
-        leg.legGeometry = PolylineEncoder.createEncodings(geometry);
+        if (showLegGeometry) {
+            // Encode the edge geometries in place, without building an intermediate LineString
+            leg.legGeometry = PolylineEncoder.encodeLineStrings(makeGeometries(edges));
+        }
 
         leg.interlineWithPreviousLeg = states[0].getBackEdge() instanceof PatternInterlineDwell;
 
@@ -390,12 +412,13 @@ public class PlanGenerator {
      *
      * @param legs The legs of the itinerary
      * @param legsStates The states that go with the legs
+     * @param showElevation Whether to include elevation profiles in the walk steps or not
      */
-    private void addWalkSteps(List<Leg> legs, State[][] legsStates) {
+    private void addWalkSteps(List<Leg> legs, State[][] legsStates, boolean showElevation) {
         WalkStep previousStep = null;
 
         for (int i = 0; i < legsStates.length; i++) {
-            List<WalkStep> walkSteps = generateWalkSteps(legsStates[i], previousStep);
+            List<WalkStep> walkSteps = generateWalkSteps(legsStates[i], previousStep, showElevation);
 
             legs.get(i).walkSteps = walkSteps;
 
@@ -559,8 +582,8 @@ public class PlanGenerator {
                 }
             }
 
-            if (edge != null) {
-                for (Patch patch : edge.getPatches()) {
+            if (edge != null && state.getContext() != null) {
+                for (Patch patch : state.getContext().patchOverlay.getPatches(edge)) {
                     leg.addAlert(patch.getAlert());
                 }
             }
@@ -723,9 +746,11 @@ public class PlanGenerator {
      * @param previous a non-transit leg that immediately precedes this one (bike-walking, say), or null
      * 
      * @param edges : A list of street edges
+     * @param showElevation : whether to attach elevation profiles to the steps
      * @return
      */
-    private List<WalkStep> generateWalkSteps(State[] states, WalkStep previous) {
+    private List<WalkStep> generateWalkSteps(State[] states, WalkStep previous,
+            boolean showElevation) {
         List<WalkStep> steps = new ArrayList<WalkStep>();
         WalkStep step = null;
         double lastAngle = 0, distance = 0; // distance used for appending elevation profiles
@@ -753,7 +778,7 @@ public class PlanGenerator {
             // before or will come after
             if (edge instanceof ElevatorAlightEdge) {
                 // don't care what came before or comes after
-                step = createWalkStep(forwardState);
+                step = createWalkStep(forwardState, showElevation);
                 createdNewStep = true;
                 disableZagRemovalForThisStep = true;
 
@@ -781,7 +806,7 @@ public class PlanGenerator {
 
             if (step == null) {
                 // first step
-                step = createWalkStep(forwardState);
+                step = createWalkStep(forwardState, showElevation);
                 createdNewStep = true;
 
                 steps.add(step);
@@ -812,7 +837,7 @@ public class PlanGenerator {
                     roundaboutExit = 0;
                 }
                 /* start a new step */
-                step = createWalkStep(forwardState);
+                step = createWalkStep(forwardState, showElevation);
                 createdNewStep = true;
 
                 steps.add(step);
@@ -899,7 +924,7 @@ public class PlanGenerator {
 
                     if (shouldGenerateContinue) {
                         // turn to stay on same-named street
-                        step = createWalkStep(forwardState);
+                        step = createWalkStep(forwardState, showElevation);
                         createdNewStep = true;
                         steps.add(step);
                         step.setDirections(lastAngle, thisAngle, false);
@@ -1014,14 +1039,15 @@ public class PlanGenerator {
         return angleDiff;
     }
 
-    private WalkStep createWalkStep(State s) {
+    private WalkStep createWalkStep(State s, boolean showElevation) {
         Edge en = s.getBackEdge();
         WalkStep step;
         step = new WalkStep();
         step.streetName = en.getName();
         step.lon = en.getFromVertex().getX();
         step.lat = en.getFromVertex().getY();
-        step.elevation = encodeElevationProfile(s.getBackEdge(), 0);
+        // a null profile is never extended when further edges are appended to the step
+        step.elevation = showElevation ? encodeElevationProfile(s.getBackEdge(), 0) : null;
         step.bogusName = en.hasBogusName();
         step.addAlerts(s.getBackAlerts());
         step.angle = DirectionUtils.getFirstAngle(s.getBackEdge().getGeometry());
@@ -0,0 +1,97 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map.Entry;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.model.json_serialization.SerializerUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes a planner Response as JSON directly to the HTTP response stream, one itinerary at a
+ * time, instead of handing the whole object tree to the JAX-RS provider. The output has the same
+ * structure as the regular JSON response; each itinerary is flushed as soon as it is written, so
+ * the client starts receiving data before the last (and often largest) itinerary is serialized.
+ */
+public class PlanJsonWriter implements StreamingOutput {
+
+    /** Mappers are thread safe once configured, so one is shared by all responses. */
+    private static final ObjectMapper mapper = SerializerUtils.getMapper();
+
+    private final Response response;
+
+    public PlanJsonWriter(Response response) {
+        this.response = response;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        JsonGenerator gen = mapper.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+
+        gen.writeObjectFieldStart("requestParameters");
+        for (Entry<String, String> e : response.getRequestParameters().entrySet()) {
+            gen.writeStringField(e.getKey(), e.getValue());
+        }
+        gen.writeEndObject();
+
+        TripPlan plan = response.getPlan();
+        if (plan != null) {
+            gen.writeFieldName("plan");
+            writePlan(gen, plan);
+        }
+        if (response.getError() != null) {
+            gen.writeFieldName("error");
+            gen.writeObject(response.getError());
+        }
+        if (response.debug != null) {
+            gen.writeFieldName("debug");
+            gen.writeObject(response.debug);
+        }
+
+        gen.writeEndObject();
+        gen.close();
+    }
+
+    private void writePlan(JsonGenerator gen, TripPlan plan) throws IOException {
+        gen.writeStartObject();
+        if (plan.date != null) {
+            gen.writeNumberField("date", plan.date.getTime());
+        }
+        if (plan.from != null) {
+            gen.writeFieldName("from");
+            gen.writeObject(plan.from);
+        }
+        if (plan.to != null) {
+            gen.writeFieldName("to");
+            gen.writeObject(plan.to);
+        }
+        gen.writeArrayFieldStart("itineraries");
+        for (Itinerary itinerary : plan.itinerary) {
+            gen.writeObject(itinerary);
+            gen.flush();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+}
@@ -12,11 +12,15 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.api.ws;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -27,6 +31,7 @@ import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.api.model.TripPlan;
 import org.opentripplanner.api.model.error.PlannerError;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.impl.RoutingExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +62,10 @@ public class Planner extends RoutingResource {
     
     @Setter @InjectParam 
     public PlanGenerator planGenerator;
+
+    /** When present, searches run on its threads rather than on the HTTP worker thread. */
+    @Setter @InjectParam
+    public RoutingExecutor routingExecutor;
     
     // We inject info about the incoming request so we can include the incoming query 
     // parameters in the outgoing response. This is a TriMet requirement.
@@ -67,7 +76,7 @@ public class Planner extends RoutingResource {
     interface OneArgFunc<T,U> {
         public T call(U arg);
     }
-    private Response wrapGenerate(OneArgFunc<TripPlan, RoutingRequest> func) {
+    private Response wrapGenerate(final OneArgFunc<TripPlan, RoutingRequest> func) {
 
         /*
          * TODO: add Lang / Locale parameter, and thus get localized content (Messages & more...)
@@ -80,20 +89,40 @@ public class Planner extends RoutingResource {
         // create response object, containing a copy of all request parameters
         Response response = new Response(uriInfo);
         RoutingRequest request = null;
+        /* Handed over by the routing thread once it is done with it, since a search abandoned at
+         * its deadline may still be writing to its debug output. */
+        final AtomicReference<Debug> debug = new AtomicReference<Debug>();
         try {
             // fill in request from query parameters via shared superclass method
             request = super.buildRequest();
-            TripPlan plan = func.call(request);
+            final RoutingRequest routingRequest = request;
+            /* The thread that routes creates the routing context, so it also destroys it. The
+             * caller may stop waiting for it before it has even been created. */
+            Callable<TripPlan> routing = new Callable<TripPlan>() {
+                public TripPlan call() {
+                    try {
+                        return func.call(routingRequest);
+                    } finally {
+                        if (routingRequest.rctx != null) {
+                            debug.set(routingRequest.rctx.debug);
+                            routingRequest.cleanup(); // TODO verify that this is being done on Analyst web services
+                        }
+                    }
+                }};
+            TripPlan plan;
+            if (routingExecutor != null) {
+                plan = routingExecutor.execute(request, routing);
+            } else {
+                plan = routing.call();
+            }
             response.setPlan(plan);
         } catch (Exception e) {
             PlannerError error = new PlannerError(e);
             e.printStackTrace();
             response.setError(error);
         } finally {
-            if (request != null) {
-                response.debug = request.rctx.debug;
-                request.cleanup(); // TODO verify that this is being done on Analyst web services
-            }       
+            // not set if the request was rejected, or did not complete before its deadline
+            response.debug = debug.get();
         }
         return response;
     }
@@ -107,6 +136,21 @@ public class Planner extends RoutingResource {
             }});
     }
 
+    /**
+     * Same as the main plan resource, but always returns JSON, which is written to the client one
+     * itinerary at a time. Combine with showWalkSteps=false, showElevation=false or
+     * showLegGeometry=false to leave out the most expensive sections of each itinerary.
+     */
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamingOutput getItinerariesStreaming() throws JSONException {
+        return new PlanJsonWriter(wrapGenerate(new OneArgFunc<TripPlan, RoutingRequest>() {
+            public TripPlan call(RoutingRequest request) {
+                return planGenerator.generate(request);
+            }}));
+    }
+
     @GET
     @Path("/first")
     @Produces( { MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
@@ -59,6 +59,11 @@ public class Response {
     // same order for the elements in the JS or XML serialized response. The traditional order
     // is request params, followed by plan, followed by errors.
 
+    /** Not public, so that it does not show up as a second property in serialized responses. */
+    HashMap<String, String> getRequestParameters() {
+        return requestParameters;
+    }
+
     /** The actual trip plan. */
     public TripPlan getPlan() {
         return plan;
@@ -0,0 +1,180 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws.analyst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opentripplanner.analyst.core.IsochroneBuilder;
+import org.opentripplanner.analyst.request.BatchSearchService;
+import org.opentripplanner.analyst.request.SPTCache;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.model.json_serialization.SerializerUtils;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.jersey.api.core.InjectParam;
+
+/**
+ * Isochrones or accessibility for many origins in one call, for comparing candidate sites.
+ *
+ * Every fromPlace parameter is an origin; all other routing parameters are shared. The origins
+ * are linked together and searched in parallel on the bounded pool of the BatchSearchService, and
+ * the results are streamed back as a JSON object with a "results" array, each element written as
+ * soon as the search for its origin completes:
+ *
+ * {"index": 0, "origin": "45.52,-122.68", "isochrones": {GeoJSON feature collection}}
+ * {"index": 1, "origin": "45.51,-122.66", "counts": {"900": 12, "1800": 57}}
+ * {"index": 2, "origin": "45.50,-122.70", "error": "..."}
+ *
+ * As with /iso/bands, isochrones are traced on the cached time surfaces. Counts are the numbers of
+ * transit stops reachable within each cutoff, the opportunities that every graph has.
+ */
+@Path("/iso/batch")
+public class BatchIsochrone extends RoutingResource {
+
+    public static final String OUTPUT_ISOCHRONES = "ISOCHRONES";
+
+    public static final String OUTPUT_COUNTS = "COUNTS";
+
+    private static final ObjectMapper mapper = SerializerUtils.getMapper();
+
+    @InjectParam
+    private BatchSearchService batchSearchService;
+
+    @InjectParam
+    private SPTCache sptCache;
+
+    /** The isochrone travel times in minutes; may be repeated, within the limits of IsoChrone */
+    @QueryParam("cutoffMinutes")
+    List<Integer> cutoffMinutes;
+
+    /** ISOCHRONES or COUNTS */
+    @QueryParam("output") @DefaultValue(OUTPUT_ISOCHRONES)
+    String output;
+
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response getBatch() throws Exception {
+        if (fromPlace == null || fromPlace.isEmpty()) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("At least one fromPlace is required.").build());
+        }
+        if (fromPlace.size() > batchSearchService.getMaxOrigins()) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("At most " + batchSearchService.getMaxOrigins()
+                            + " origins are allowed.").build());
+        }
+        if (!output.equals(OUTPUT_ISOCHRONES) && !output.equals(OUTPUT_COUNTS)) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("Unknown output " + output).build());
+        }
+        final int[] cutoffs = IsoChrone.cutoffSeconds(cutoffMinutes);
+        final List<RoutingRequest> requests = new ArrayList<RoutingRequest>();
+        for (int i = 0; i < fromPlace.size(); i++) {
+            RoutingRequest request = buildRequest(i);
+            IsoChrone.limitSearch(request, cutoffs);
+            requests.add(request);
+        }
+        final boolean counts = output.equals(OUTPUT_COUNTS);
+
+        StreamingOutput streamingOutput = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                final JsonGenerator gen = mapper.getJsonFactory().createJsonGenerator(out,
+                        JsonEncoding.UTF8);
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("results");
+                batchSearchService.execute(requests,
+                        new BatchSearchService.OriginTask<Object>() {
+                            @Override
+                            public Object compute(RoutingRequest request) throws Exception {
+                                if (counts)
+                                    return countStops(sptCache.get(request), cutoffs);
+                                return IsoChrone.toGeoJson(IsochroneBuilder.build(
+                                        sptCache.getSurface(request), cutoffs), cutoffs);
+                            }
+                        }, new BatchSearchService.ResultHandler<Object>() {
+                            @Override
+                            public void handle(int index, Object result, Exception error)
+                                    throws IOException {
+                                gen.writeStartObject();
+                                gen.writeNumberField("index", index);
+                                gen.writeStringField("origin", fromPlace.get(index));
+                                if (error != null) {
+                                    gen.writeStringField("error", error.toString());
+                                } else if (counts) {
+                                    gen.writeObjectField("counts", result);
+                                } else {
+                                    gen.writeFieldName("isochrones");
+                                    gen.writeRawValue((String) result);
+                                }
+                                gen.writeEndObject();
+                                gen.flush();
+                            }
+                        });
+                gen.writeEndArray();
+                gen.writeEndObject();
+                gen.close();
+            }
+        };
+        return Response.ok(streamingOutput).build();
+    }
+
+    /** @return the number of transit stops reached within each cutoff, keyed on the cutoff */
+    private static Map<Integer, Integer> countStops(ShortestPathTree spt, int[] cutoffs) {
+        Map<Vertex, Long> stopTimes = new HashMap<Vertex, Long>();
+        for (State s : spt.getAllStates()) {
+            if (!(s.getVertex() instanceof TransitStop))
+                continue;
+            Long t = stopTimes.get(s.getVertex());
+            if (t == null || s.getActiveTime() < t)
+                stopTimes.put(s.getVertex(), s.getActiveTime());
+        }
+        int[] n = new int[cutoffs.length];
+        for (long t : stopTimes.values()) {
+            for (int i = 0; i < cutoffs.length; i++) {
+                if (t <= cutoffs[i])
+                    n[i]++;
+            }
+        }
+        Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < cutoffs.length; i++) {
+            counts.put(cutoffs[i], n[i]);
+        }
+        return counts;
+    }
+}
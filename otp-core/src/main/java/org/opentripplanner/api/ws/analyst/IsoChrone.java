@@ -1,7 +1,9 @@
 package org.opentripplanner.api.ws.analyst;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -21,9 +23,18 @@ import javax.ws.rs.core.Response.Status;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.aspectj.weaver.tools.ISupportsMessageContext;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.referencing.GeodeticCalculator;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opensphere.geometry.algorithm.ConcaveHull;
 import org.opentripplanner.analyst.core.GeometryIndex;
+import org.opentripplanner.analyst.core.IsochroneBuilder;
+import org.opentripplanner.analyst.core.TimeSurface;
+import org.opentripplanner.analyst.request.SPTCache;
 import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.common.geometry.DirectionUtils;
 import org.opentripplanner.common.geometry.DistanceLibrary;
@@ -52,6 +63,7 @@ import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
 
@@ -83,6 +95,29 @@ public class IsoChrone extends RoutingResource {
     @Autowired
     private GeometryIndex index;
 
+    @Autowired
+    private SPTCache sptCache;
+
+    /** The isochrones returned by the bands method when no cutoffs are given */
+    private static final int[] DEFAULT_CUTOFF_MINUTES = { 15, 30, 45, 60 };
+
+    /** The maximum number of isochrones in one request */
+    public static final int MAX_CUTOFFS = 12;
+
+    /** The greatest isochrone travel time, which bounds the search and the time surface */
+    public static final int MAX_CUTOFF_MINUTES = 240;
+
+    private static final SimpleFeatureType bandSchema = makeBandSchema();
+
+    private static SimpleFeatureType makeBandSchema() {
+        SimpleFeatureTypeBuilder tbuilder = new SimpleFeatureTypeBuilder();
+        tbuilder.setName("isochrones");
+        tbuilder.setCRS(DefaultGeographicCRS.WGS84);
+        tbuilder.add("Geometry", MultiPolygon.class);
+        tbuilder.add("Time", Integer.class);
+        return tbuilder.buildFeatureType();
+    }
+
     /** Walkspeed between user indicated position and road 3000 m/h = 0.83333 m/sec */
     public double offRoadWalkspeed = 0.8333;
 
@@ -476,6 +511,99 @@ public class IsoChrone extends RoutingResource {
         return sw.toString();
     }
 
+    /**
+     * Calculates nested isochrones for several travel times at once. Instead of processing the
+     * edges of the SPT and computing hulls, the travel times are rasterized onto a grid (the same
+     * time surface that is used to render analyst tiles, which is cached per origin and departure
+     * time) and the contours of all cutoffs are extracted from it with marching squares.
+     * <p>
+     * An example request may look like this:
+     * localhost:8080/otp-rest-servlet/ws/iso/bands?fromPlace=51.04,-114.04&time=2012-06-06T08:00:00
+     * &mode=WALK,TRANSIT&cutoffMinutes=15&cutoffMinutes=30&cutoffMinutes=45
+     *
+     * @param cutoffMinutes the travel times of the isochrones, in minutes; may be repeated up to
+     *        MAX_CUTOFFS times, each at most MAX_CUTOFF_MINUTES.
+     * @return a GeoJSON feature collection with one MultiPolygon feature per cutoff, from the
+     *         largest to the smallest, each with its travel time in seconds as the Time property.
+     */
+    @GET
+    @Path("/bands")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public String getIsochroneBands(
+            @QueryParam("cutoffMinutes") List<Integer> cutoffMinutes) throws Exception {
+
+        int[] cutoffs = cutoffSeconds(cutoffMinutes);
+        RoutingRequest sptRequest = buildRequest(0);
+        limitSearch(sptRequest, cutoffs);
+
+        TimeSurface surface = sptCache.getSurface(sptRequest);
+        MultiPolygon[] isochrones = IsochroneBuilder.build(surface, cutoffs);
+
+        return toGeoJson(isochrones, cutoffs);
+    }
+
+    /**
+     * @param cutoffMinutes isochrone travel times in minutes, or null or empty for the defaults
+     * @return the cutoffs in seconds, in increasing order
+     * @throws WebApplicationException if there are more than MAX_CUTOFFS cutoffs, or one is not
+     *         positive or greater than MAX_CUTOFF_MINUTES
+     */
+    static int[] cutoffSeconds(List<Integer> cutoffMinutes) {
+        int[] cutoffs;
+        if (cutoffMinutes == null || cutoffMinutes.isEmpty()) {
+            cutoffs = DEFAULT_CUTOFF_MINUTES.clone();
+        } else {
+            if (cutoffMinutes.size() > MAX_CUTOFFS) {
+                throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                        .entity("At most " + MAX_CUTOFFS + " isochrone cutoffs are allowed.")
+                        .build());
+            }
+            cutoffs = new int[cutoffMinutes.size()];
+            for (int i = 0; i < cutoffs.length; i++) {
+                cutoffs[i] = cutoffMinutes.get(i);
+            }
+        }
+        Arrays.sort(cutoffs);
+        if (cutoffs[0] <= 0) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("Isochrone cutoffs must be positive.").build());
+        }
+        if (cutoffs[cutoffs.length - 1] > MAX_CUTOFF_MINUTES) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity("Isochrone cutoffs must be at most " + MAX_CUTOFF_MINUTES
+                            + " minutes.").build());
+        }
+        for (int i = 0; i < cutoffs.length; i++) {
+            cutoffs[i] *= 60;
+        }
+        return cutoffs;
+    }
+
+    /**
+     * Make the given request a one-to-many search up to the greatest cutoff. The limit is rounded
+     * up to whole hours, so that requests for different cutoffs from the same origin and time
+     * share one cached SPT and time surface.
+     */
+    static void limitSearch(RoutingRequest sptRequest, int[] cutoffs) {
+        sptRequest.batch = true;
+        long hours = (cutoffs[cutoffs.length - 1] + 3599) / 3600;
+        sptRequest.worstTime = sptRequest.dateTime + (sptRequest.arriveBy ? -hours : hours) * 3600;
+    }
+
+    /** @return the isochrones as a GeoJSON feature collection, from the largest to the smallest */
+    static String toGeoJson(MultiPolygon[] isochrones, int[] cutoffs) throws IOException {
+        DefaultFeatureCollection featureCollection = new DefaultFeatureCollection(null, bandSchema);
+        SimpleFeatureBuilder fbuilder = new SimpleFeatureBuilder(bandSchema);
+        for (int i = cutoffs.length - 1; i >= 0; i--) {
+            fbuilder.add(isochrones[i]);
+            fbuilder.add(cutoffs[i]);
+            featureCollection.add(fbuilder.buildFeature(null));
+        }
+        StringWriter writer = new StringWriter();
+        new FeatureJSON().writeFeatureCollection(featureCollection, writer);
+        return writer.toString();
+    }
+
     /**
      * Creates a circle shape, using the JTS buffer algorithm. The method is used when there is no street found within the given traveltime, e.g. when
      * the pointer is placed on a field or in the woods.<br>
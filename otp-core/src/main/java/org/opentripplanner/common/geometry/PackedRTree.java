@@ -0,0 +1,246 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.geometry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.SpatialIndex;
+
+/**
+ * A static R-tree packed along a Hilbert curve, with all bounding boxes in one primitive array.
+ *
+ * Items are inserted with their envelopes, then the tree is built once: items are sorted by the
+ * Hilbert index of the center of their envelope, and every group of nodeSize consecutive boxes of
+ * one level becomes a node of the next level. Since the Hilbert order keeps nearby items together,
+ * this gives compact nodes at all levels without re-sorting, and the children of a node are found
+ * by arithmetic rather than through pointers. After building, the tree is immutable and can be
+ * queried concurrently; queries through an ItemVisitor allocate nothing.
+ *
+ * The tree only contains primitive arrays and the items, so it is cheap to build, compact in memory
+ * and serializable along with the items.
+ *
+ * @param <T> the type of the indexed items
+ */
+public class PackedRTree<T> implements SpatialIndex, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    /** The size of the Hilbert grid the centers of the items are mapped to */
+    private static final int HILBERT_SIZE = 1 << 15;
+
+    private final int nodeSize;
+
+    /** The number of items, which are the first boxes */
+    private int nItems = 0;
+
+    /** minX, minY, maxX, maxY of the items in packed order, then of the nodes level by level */
+    private double[] boxes = new double[4 * 64];
+
+    /** The items, in packed order once the tree is built */
+    private Object[] items = new Object[64];
+
+    /** The index of the first box of each level, and the number of boxes as the last element */
+    private volatile int[] levelStart;
+
+    public PackedRTree() {
+        this(DEFAULT_NODE_SIZE);
+    }
+
+    public PackedRTree(int nodeSize) {
+        if (nodeSize < 2)
+            throw new IllegalArgumentException("node size must be at least 2");
+        this.nodeSize = nodeSize;
+    }
+
+    /**
+     * Add an item; items can only be added before the tree is built.
+     */
+    @Override
+    public void insert(Envelope env, Object item) {
+        insert(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(), item);
+    }
+
+    public void insert(double minX, double minY, double maxX, double maxY, Object item) {
+        if (levelStart != null)
+            throw new IllegalStateException("cannot insert items into a built tree");
+        if (nItems == items.length) {
+            items = Arrays.copyOf(items, nItems * 2);
+            boxes = Arrays.copyOf(boxes, nItems * 8);
+        }
+        int b = nItems * 4;
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = maxX;
+        boxes[b + 3] = maxY;
+        items[nItems++] = item;
+    }
+
+    /** Removal is not supported: the tree is immutable once built. */
+    @Override
+    public boolean remove(Envelope env, Object item) {
+        throw new UnsupportedOperationException("a packed R-tree is immutable");
+    }
+
+    public int size() {
+        return nItems;
+    }
+
+    /**
+     * Sort the items and build the nodes. Called by the first query if it has not been called
+     * before; no items can be inserted afterwards.
+     */
+    public synchronized void build() {
+        if (levelStart != null)
+            return;
+
+        // count the boxes of each level
+        List<Integer> starts = new ArrayList<Integer>();
+        int nBoxes = 0;
+        int count = nItems;
+        do {
+            starts.add(nBoxes);
+            nBoxes += count;
+            count = (count + nodeSize - 1) / nodeSize;
+        } while (nBoxes - starts.get(starts.size() - 1) > 1);
+        int[] levelStart = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            levelStart[i] = starts.get(i);
+        }
+        levelStart[starts.size()] = nBoxes;
+
+        // sort the items along the Hilbert curve
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < nItems; i++) {
+            minX = Math.min(minX, boxes[4 * i]);
+            minY = Math.min(minY, boxes[4 * i + 1]);
+            maxX = Math.max(maxX, boxes[4 * i + 2]);
+            maxY = Math.max(maxY, boxes[4 * i + 3]);
+        }
+        double scaleX = (HILBERT_SIZE - 1) / Math.max(maxX - minX, Double.MIN_VALUE);
+        double scaleY = (HILBERT_SIZE - 1) / Math.max(maxY - minY, Double.MIN_VALUE);
+        long[] keys = new long[nItems];
+        for (int i = 0; i < nItems; i++) {
+            double cx = (boxes[4 * i] + boxes[4 * i + 2]) / 2;
+            double cy = (boxes[4 * i + 1] + boxes[4 * i + 3]) / 2;
+            int h = hilbert((int) ((cx - minX) * scaleX), (int) ((cy - minY) * scaleY));
+            keys[i] = ((long) h << 32) | i;
+        }
+        Arrays.sort(keys);
+        double[] packed = new double[4 * nBoxes];
+        Object[] packedItems = new Object[nItems];
+        for (int i = 0; i < nItems; i++) {
+            int from = (int) keys[i];
+            System.arraycopy(boxes, 4 * from, packed, 4 * i, 4);
+            packedItems[i] = items[from];
+        }
+
+        // each node covers up to nodeSize consecutive boxes of the level below
+        for (int level = 1; level < levelStart.length - 1; level++) {
+            for (int node = levelStart[level]; node < levelStart[level + 1]; node++) {
+                int child = levelStart[level - 1] + (node - levelStart[level]) * nodeSize;
+                int end = Math.min(child + nodeSize, levelStart[level]);
+                double nMinX = Double.POSITIVE_INFINITY, nMinY = Double.POSITIVE_INFINITY;
+                double nMaxX = Double.NEGATIVE_INFINITY, nMaxY = Double.NEGATIVE_INFINITY;
+                for (; child < end; child++) {
+                    nMinX = Math.min(nMinX, packed[4 * child]);
+                    nMinY = Math.min(nMinY, packed[4 * child + 1]);
+                    nMaxX = Math.max(nMaxX, packed[4 * child + 2]);
+                    nMaxY = Math.max(nMaxY, packed[4 * child + 3]);
+                }
+                packed[4 * node] = nMinX;
+                packed[4 * node + 1] = nMinY;
+                packed[4 * node + 2] = nMaxX;
+                packed[4 * node + 3] = nMaxY;
+            }
+        }
+        this.boxes = packed;
+        this.items = packedItems;
+        this.levelStart = levelStart;
+    }
+
+    /** @return the items whose envelopes intersect the given envelope */
+    @Override
+    public List<T> query(Envelope env) {
+        final List<T> result = new ArrayList<T>();
+        query(env, new ItemVisitor() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void visitItem(Object item) {
+                result.add((T) item);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void query(Envelope env, ItemVisitor visitor) {
+        query(env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY(), visitor);
+    }
+
+    /** Visit the items whose envelopes intersect the given bounds, without allocating. */
+    public void query(double minX, double minY, double maxX, double maxY, ItemVisitor visitor) {
+        if (levelStart == null)
+            build();
+        if (nItems == 0)
+            return;
+        int top = levelStart.length - 2;
+        search(top, levelStart[top], levelStart[top + 1], minX, minY, maxX, maxY, visitor);
+    }
+
+    private void search(int level, int from, int to, double minX, double minY, double maxX,
+            double maxY, ItemVisitor visitor) {
+        for (int box = from; box < to; box++) {
+            int b = 4 * box;
+            if (boxes[b] > maxX || boxes[b + 1] > maxY || boxes[b + 2] < minX
+                    || boxes[b + 3] < minY)
+                continue;
+            if (level == 0) {
+                visitor.visitItem(items[box]);
+            } else {
+                int child = levelStart[level - 1] + (box - levelStart[level]) * nodeSize;
+                int end = Math.min(child + nodeSize, levelStart[level]);
+                search(level - 1, child, end, minX, minY, maxX, maxY, visitor);
+            }
+        }
+    }
+
+    /** @return the distance of (x, y) along a Hilbert curve filling a HILBERT_SIZE square */
+    static int hilbert(int x, int y) {
+        int d = 0;
+        for (int s = HILBERT_SIZE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = HILBERT_SIZE - 1 - x;
+                    y = HILBERT_SIZE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
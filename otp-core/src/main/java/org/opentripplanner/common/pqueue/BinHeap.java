@@ -123,6 +123,16 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
     	size=0;
     } 
 
+    /** Empties the queue, dropping the references to its elements but keeping its capacity. */
+    public void clear() {
+        Arrays.fill(elem, 1, size + 1, null);
+        size = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
     @Override
     public void insert(T e, double p) {
         int i;
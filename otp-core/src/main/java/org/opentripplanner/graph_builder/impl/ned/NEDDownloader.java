@@ -33,6 +33,11 @@ import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -83,6 +88,12 @@ public class NEDDownloader implements NEDTileSource {
 
     private double _lonXStep = 0.16;
 
+    /**
+     * The number of tiles downloaded at once. Keep this small: the USGS servers give weird errors
+     * when they are overloaded.
+     */
+    private int downloadThreads = 3;
+
     @Override
     public void setGraph(Graph graph) {
         this.graph = graph;
@@ -93,9 +104,14 @@ public class NEDDownloader implements NEDTileSource {
         this.cacheDirectory = cacheDirectory;
     }
 
+    public void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
     private File getPathToNEDArchive(String key) {
         if (!cacheDirectory.exists()) {
-            if (!cacheDirectory.mkdirs()) {
+            // another download thread may have created it in the meantime
+            if (!cacheDirectory.mkdirs() && !cacheDirectory.isDirectory()) {
                 throw new RuntimeException("Failed to create cache directory for NED at " + cacheDirectory);
             }
         }
@@ -106,7 +122,8 @@ public class NEDDownloader implements NEDTileSource {
 
     private File getPathToNEDTile(String key) {
         if (!cacheDirectory.exists()) {
-            if (!cacheDirectory.mkdirs()) {
+            // another download thread may have created it in the meantime
+            if (!cacheDirectory.mkdirs() && !cacheDirectory.isDirectory()) {
                 throw new RuntimeException("Failed to create cache directory for NED at " + cacheDirectory);
             }
         }
@@ -325,47 +342,81 @@ public class NEDDownloader implements NEDTileSource {
     public List<File> getNEDTiles() {
         log.info("Downloading NED elevation data.");
         List<URL> urls = getDownloadURLsCached();
-        List<File> files = new ArrayList<File>();
+        List<Callable<File>> tasks = new ArrayList<Callable<File>>(urls.size());
         int tileCount = 0;
-        TILE: for (URL url : urls) {
-            String tileProgress = String.format("Tile %d/%d", ++tileCount, urls.size());
-            String key = getKey(url);
-            File tile = getPathToNEDTile(key);
-            if (tile.exists()) {
-                files.add(tile);
-                log.debug("{} found in NED cache, not downloading: {}", tileProgress, tile);
-                continue;
+        for (final URL url : urls) {
+            final String tileProgress = String.format("Tile %d/%d", ++tileCount, urls.size());
+            tasks.add(new Callable<File>() {
+                @Override
+                public File call() {
+                    return getNEDTile(url, tileProgress);
+                }
+            });
+        }
+        // Most of a download is spent waiting for the server to prepare the tile, so several
+        // tiles are requested at once. The tiles are returned in URL order regardless.
+        List<File> files = new ArrayList<File>();
+        ExecutorService threadPool = Executors.newFixedThreadPool(Math.max(downloadThreads, 1));
+        try {
+            for (Future<File> future : threadPool.invokeAll(tasks)) {
+                File tile = future.get();
+                if (tile != null) {
+                    files.add(tile);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            REQUEST: for (int req_attempt = 0; req_attempt < 5; ++req_attempt) {
-                log.info("{} not in NED cache, requesting download: {}", tileProgress, tile);
-                try {
-                    sleep(3000);
-                    String token = initiateDownload(url);
-                    DOWNLOAD: for (int dl_attempt = 0; dl_attempt < 20; ++dl_attempt) {
-                        log.info("Waiting to check if tile is ready for download (try {}).", dl_attempt + 1);
-                        sleep(30000);
-                        if (downloadReady(token)) {
-                            downloadFile(url, token);
-                            try {
-                                files.add(unzipFile(url));
-                                continue TILE;
-                            } catch (NotAZipFileException e) {
-                                log.error("Received corrupted zip file. Retrying with same token.");
-                                continue DOWNLOAD;
-                            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while downloading NED tiles", e);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        return files;
+    }
+
+    /**
+     * Returns the cached tile for the given URL, downloading it first if necessary.
+     * 
+     * @return the tile, or null if it could not be downloaded
+     */
+    private File getNEDTile(URL url, String tileProgress) {
+        String key = getKey(url);
+        File tile = getPathToNEDTile(key);
+        if (tile.exists()) {
+            log.debug("{} found in NED cache, not downloading: {}", tileProgress, tile);
+            return tile;
+        }
+        REQUEST: for (int req_attempt = 0; req_attempt < 5; ++req_attempt) {
+            log.info("{} not in NED cache, requesting download: {}", tileProgress, tile);
+            try {
+                sleep(3000);
+                String token = initiateDownload(url);
+                DOWNLOAD: for (int dl_attempt = 0; dl_attempt < 20; ++dl_attempt) {
+                    log.info("Waiting to check if tile is ready for download (try {}).", dl_attempt + 1);
+                    sleep(30000);
+                    if (downloadReady(token)) {
+                        downloadFile(url, token);
+                        try {
+                            return unzipFile(url);
+                        } catch (NotAZipFileException e) {
+                            log.error("Received corrupted zip file. Retrying with same token.");
+                            continue DOWNLOAD;
                         }
                     }
-                    log.info("Giving up on slow download attempt {} and retrying.", req_attempt);
-                } catch (NoDownloadIDException e) {
-                    log.debug("Download ID unrecognized by server, retrying.");
-                    continue REQUEST;
-                } catch (Exception e) {
-                    throw new RuntimeException("Error getting data from USGS Download Server while downloading", e);
                 }
+                log.info("Giving up on slow download attempt {} and retrying.", req_attempt);
+            } catch (NoDownloadIDException e) {
+                log.debug("Download ID unrecognized by server, retrying.");
+                continue REQUEST;
+            } catch (Exception e) {
+                throw new RuntimeException("Error getting data from USGS Download Server while downloading", e);
             }
-            log.error("Unable to download a NED tile after 5 requests.");
         }
-        return files;
+        log.error("Unable to download a NED tile after 5 requests.");
+        return null;
     }
 
     private List<URL> getDownloadURLsCached() {
@@ -505,7 +556,8 @@ public class NEDDownloader implements NEDTileSource {
 
     /*
      * We periodically need to pause to keep from overloading the USGS's servers. This is not just a
-     * matter of politeness -- they'll give weird errors if we don't.
+     * matter of politeness -- they'll give weird errors if we don't. An interrupt, such as the
+     * download pool being shut down, aborts the download.
      */
     private static void sleep(int millis) {
         long now = System.currentTimeMillis();
@@ -514,7 +566,8 @@ public class NEDDownloader implements NEDTileSource {
             try {
                 Thread.sleep(remaining);
             } catch (InterruptedException e) {
-                // it's all good
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while downloading NED tiles", e);
             }
         }
     }
@@ -17,8 +17,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.InterpolationBilinear;
 
@@ -60,7 +65,11 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
 
     private NEDGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
+    /**
+     * The coverage to sample, one per thread: GeoTools interpolators are not safe for concurrent
+     * use.
+     */
+    private ThreadLocal<Coverage> coverage;
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -68,6 +77,12 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
      */
     private double distanceBetweenSamplesM = 10;
 
+    /**
+     * The number of threads used to sample elevations. Coverages other than a GridCoverage2D or a
+     * UnifiedGridCoverage are always sampled on a single thread.
+     */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
     private DistanceLibrary distanceLibrary = SphericalDistanceLibrary.getInstance();
 
     public NEDGraphBuilderImpl() { /* This makes me a "bean" */ };
@@ -92,40 +107,120 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
         distanceBetweenSamplesM = distance;
     }
 
+    public void setThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
-        Coverage gridCov = gridCoverageFactory.getGridCoverage();
+        final Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
         // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
         // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
         // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
-        log.info("setting street elevation profiles from NED data...");
-        List<EdgeWithElevation> edgesWithElevation = new ArrayList<EdgeWithElevation>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        coverage = new ThreadLocal<Coverage>() {
+            @Override
+            protected Coverage initialValue() {
+                return (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
+                        (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+            }
+        };
+        boolean threadSafe = gridCov instanceof GridCoverage2D
+                || gridCov instanceof UnifiedGridCoverage;
+        int threads = threadSafe ? Math.max(nThreads, 1) : 1;
+        log.info("setting street elevation profiles from NED data in {} threads...", threads);
+
+        List<EdgeWithElevation> edges = new ArrayList<EdgeWithElevation>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof EdgeWithElevation) {
-                    EdgeWithElevation edgeWithElevation = (EdgeWithElevation) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0)
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
+                    edges.add((EdgeWithElevation) ee);
                 }
             }
         }
+        List<List<EdgeWithElevation>> flattened = processEdges(edges, threads);
+
+        // Annotations are recorded in edge order, however the work was split between threads.
+        for (List<EdgeWithElevation> chunk : flattened) {
+            for (EdgeWithElevation ee : chunk) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
+            }
+        }
+        List<EdgeWithElevation> edgesWithElevation = new ArrayList<EdgeWithElevation>();
+        for (EdgeWithElevation ee : edges) {
+            if (ee.getElevationProfile() != null && !ee.isElevationFlattened()) {
+                edgesWithElevation.add(ee);
+            }
+        }
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Samples elevation profiles for the given edges, splitting them into contiguous chunks that
+     * are processed in parallel. Each edge is touched by only one thread.
+     * 
+     * @return for each chunk, in order, the edges whose profiles were flattened
+     */
+    private List<List<EdgeWithElevation>> processEdges(List<EdgeWithElevation> edges, int threads) {
+        final int nTotal = edges.size();
+        final AtomicInteger nProcessed = new AtomicInteger();
+        // several chunks per thread, so that one slow region does not hold up the others
+        int chunkSize = Math.max(nTotal / (threads * 8), 1000);
+        List<Callable<List<EdgeWithElevation>>> tasks = new ArrayList<Callable<List<EdgeWithElevation>>>();
+        for (int start = 0; start < nTotal; start += chunkSize) {
+            final List<EdgeWithElevation> chunk = edges.subList(start,
+                    Math.min(start + chunkSize, nTotal));
+            tasks.add(new Callable<List<EdgeWithElevation>>() {
+                @Override
+                public List<EdgeWithElevation> call() {
+                    List<EdgeWithElevation> flattened = new ArrayList<EdgeWithElevation>();
+                    ElevationSampler sampler = new ElevationSampler(coverage.get());
+                    for (EdgeWithElevation ee : chunk) {
+                        if (processEdge(ee, sampler)) {
+                            flattened.add(ee);
+                        }
+                        int n = nProcessed.incrementAndGet();
+                        if (n % 50000 == 0)
+                            log.info("set elevation on {}/{} edges", n, nTotal);
+                    }
+                    return flattened;
+                }
+            });
+        }
+
+        List<List<EdgeWithElevation>> results = new ArrayList<List<EdgeWithElevation>>(tasks.size());
+        if (threads == 1) {
+            for (Callable<List<EdgeWithElevation>> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<List<EdgeWithElevation>> future : threadPool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while sampling elevations", e);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        return results;
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public EdgeWithElevation backEdge;
@@ -324,17 +419,16 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
      * Processes a single {@link Street} edge, creating and assigning the elevation profile.
      * 
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @param sampler the calling thread's elevation sampler
+     * @return true if the elevation profile was flattened
      */
-    private void processEdge(Graph graph, EdgeWithElevation ee) {
+    private boolean processEdge(EdgeWithElevation ee, ElevationSampler sampler) {
         if (ee.getElevationProfile() != null) {
-            return; /* already set up */
+            return false; /* already set up */
         }
         Geometry g = ee.getGeometry();
         Coordinate[] coords = g.getCoordinates();
 
-        List<Coordinate> coordList = new LinkedList<Coordinate>();
-
         // calculate the total edge length in meters
         double edgeLenM = 0;
         for (int i = 0; i < coords.length - 1; i++) {
@@ -342,31 +436,43 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
                     coords[i + 1].x);
         }
 
-        // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
-
-        // loop for edge-internal samples
+        // count the edge-internal samples, avoiding final-segment samples less than half the
+        // distance between samples
+        int nInternal = 0;
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
-            // avoid final-segment samples less than half the distance between samples:
             if (edgeLenM - x < distanceBetweenSamplesM / 2) {
                 break;
             }
+            nInternal++;
+        }
+
+        // write the samples straight into the packed (distance, elevation, NaN) triples that back
+        // the profile
+        double[] packed = new double[(nInternal + 2) * 3];
+        int p = 0;
 
+        // initial sample (x = 0)
+        packed[p++] = 0;
+        packed[p++] = sampler.getElevation(coords[0].x, coords[0].y);
+        packed[p++] = Double.NaN;
+
+        // edge-internal samples
+        double x = distanceBetweenSamplesM;
+        for (int i = 0; i < nInternal; i++, x += distanceBetweenSamplesM) {
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            packed[p++] = x;
+            packed[p++] = sampler.getElevation(internal.x, internal.y);
+            packed[p++] = Double.NaN;
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
-
-        // construct the PCS
-        Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
+        Coordinate last = coords[coords.length - 1];
+        packed[p++] = edgeLenM;
+        packed[p++] = sampler.getElevation(last.x, last.y);
+        packed[p++] = Double.NaN;
 
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(packed, 3);
+        return ee.setElevationProfile(elevPCS, false);
     }
 
     /**
@@ -415,30 +521,37 @@ public class NEDGraphBuilderImpl implements GraphBuilder {
     }
 
     /**
-     * Method for retrieving the elevation at a given Coordinate.
-     * 
-     * @param c the coordinate (NAD83)
-     * @return elevation in meters
+     * Samples one thread's coverage, reusing the query position and result buffer between samples.
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
-    }
+    private static class ElevationSampler {
 
-    /**
-     * Method for retrieving the elevation at a given (x, y) pair.
-     * 
-     * @param x the query longitude (NAD83)
-     * @param y the query latitude (NAD83)
-     * @return elevation in meters
-     */
-    private double getElevation(double x, double y) {
-        double values[] = new double[1];
-        try {
-            coverage.evaluate(new DirectPosition2D(x, y), values);
-        } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            // skip this for now
+        private final Coverage coverage;
+
+        private final DirectPosition2D position = new DirectPosition2D();
+
+        private final double[] values = new double[1];
+
+        ElevationSampler(Coverage coverage) {
+            this.coverage = coverage;
+        }
+
+        /**
+         * Method for retrieving the elevation at a given (x, y) pair.
+         * 
+         * @param x the query longitude (NAD83)
+         * @param y the query latitude (NAD83)
+         * @return elevation in meters
+         */
+        double getElevation(double x, double y) {
+            values[0] = 0;
+            position.setLocation(x, y);
+            try {
+                coverage.evaluate(position, values);
+            } catch (org.opengis.coverage.PointOutsideCoverageException e) {
+                // skip this for now
+            }
+            return values[0];
         }
-        return values[0];
     }
 
     @Override
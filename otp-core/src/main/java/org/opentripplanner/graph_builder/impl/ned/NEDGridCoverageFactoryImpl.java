@@ -19,10 +19,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.media.jai.InterpolationBilinear;
-
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.Interpolator2D;
 import org.opengis.coverage.Coverage;
 import org.opentripplanner.graph_builder.services.ned.NEDGridCoverageFactory;
 import org.opentripplanner.graph_builder.services.ned.NEDTileSource;
@@ -128,8 +125,8 @@ public class NEDGridCoverageFactoryImpl implements NEDGridCoverageFactory {
             for (File path : paths) {
                 GeotiffGridCoverageFactoryImpl factory = new GeotiffGridCoverageFactoryImpl();
                 factory.setPath(path);
-                GridCoverage2D regionCoverage = Interpolator2D.create(factory.getGridCoverage(),
-                        new InterpolationBilinear());
+                // UnifiedGridCoverage applies a bilinear interpolator per sampling thread
+                GridCoverage2D regionCoverage = factory.getGridCoverage();
                 if (coverage == null) {
                     coverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
                 } else {
@@ -13,11 +13,16 @@
 
 package org.opentripplanner.graph_builder.impl.ned;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.media.jai.InterpolationBilinear;
+
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -40,14 +45,22 @@ public class UnifiedGridCoverage extends AbstractCoverage {
 
     private static Logger log = LoggerFactory.getLogger(UnifiedGridCoverage.class);
     
-    private ArrayList<Coverage> regions;
+    /** The uninterpolated region coverages, shared between threads. */
+    private ArrayList<GridCoverage2D> sources;
+
+    /**
+     * Bilinear interpolators over the region coverages. GeoTools interpolators are not safe for
+     * concurrent use, so each thread sampling this coverage gets its own set, see getRegions().
+     */
+    private transient ThreadLocal<List<Coverage>> regions = new ThreadLocal<List<Coverage>>();
 
     private List<VerticalDatum> datums;
 
-    protected UnifiedGridCoverage(CharSequence name, Coverage coverage, List<VerticalDatum> datums) {
+    protected UnifiedGridCoverage(CharSequence name, GridCoverage2D coverage,
+            List<VerticalDatum> datums) {
         super(name, coverage);
-        regions = new ArrayList<Coverage>();
-        regions.add(coverage);
+        sources = new ArrayList<GridCoverage2D>();
+        sources.add(coverage);
         this.datums = datums;
     }
 
@@ -61,7 +74,7 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     public double[] evaluate(DirectPosition point, double[] values)
             throws PointOutsideCoverageException, CannotEvaluateException {
 
-        for (Coverage region : regions) {
+        for (Coverage region : getRegions()) {
             // GeneralEnvelope has a contains method, OpenGIS Envelope does not
             GeneralEnvelope env = ((GeneralEnvelope)region.getEnvelope());
             // avoid incurring exception construction overhead when there are many regions
@@ -93,16 +106,41 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     
     @Override
     public int getNumSampleDimensions() {
-        return regions.get(0).getNumSampleDimensions();
+        return sources.get(0).getNumSampleDimensions();
     }
 
     @Override
     public SampleDimension getSampleDimension(int index) throws IndexOutOfBoundsException {
-        return regions.get(0).getSampleDimension(index);
+        return sources.get(0).getSampleDimension(index);
     }
 
+    /**
+     * Adds a region to this coverage. Regions must all be added before the coverage is sampled
+     * from more than one thread.
+     */
     public void add(GridCoverage2D regionCoverage) {
-        regions.add(regionCoverage);
+        sources.add(regionCoverage);
+    }
+
+    /**
+     * @return the interpolators of the calling thread. Regions are only ever added, so a set made
+     *         for fewer regions than there are now is made again, whichever thread added them.
+     */
+    private List<Coverage> getRegions() {
+        List<Coverage> interpolated = regions.get();
+        if (interpolated == null || interpolated.size() != sources.size()) {
+            interpolated = new ArrayList<Coverage>(sources.size());
+            for (GridCoverage2D source : sources) {
+                interpolated.add(Interpolator2D.create(source, new InterpolationBilinear()));
+            }
+            regions.set(interpolated);
+        }
+        return interpolated;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        regions = new ThreadLocal<List<Coverage>>();
     }
 
 }
@@ -20,9 +20,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lombok.Setter;
 
@@ -193,6 +199,13 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
     @Setter
     private boolean staticBikeRental = false;
 
+    /**
+     * Number of threads used to compute the visibility graphs of areas. The edges are always created in the same order, so the resulting graph
+     * does not depend on this setting; 1 computes everything on the calling thread.
+     */
+    @Setter
+    private int areaThreads = Runtime.getRuntime().availableProcessors();
+
     public List<String> provides() {
         return Arrays.asList("streets", "turns");
     }
@@ -863,67 +876,100 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
         final int MAX_AREA_NODES = 500;
 
+        /**
+         * The visibility graph computed for one ring of an area group. Computing it does not touch the graph, so the rings of all area groups can
+         * be processed in parallel; the edges are then created from these results sequentially, in area group order, so that the graph is
+         * identical to the one a single-threaded build would produce.
+         */
+        private class RingVisibility {
+            Ring ring;
+
+            /** Nodes linked to ways or shared between areas, from which the area's edges are reachable. */
+            Set<OSMNode> startingNodes = new LinkedHashSet<OSMNode>();
+
+            /** The points corresponding to concave or hole vertices or those linked to ways. */
+            List<OSMNode> visibilityNodes = new ArrayList<OSMNode>();
+
+            /** visible[i][j] is true when the segment between visibility nodes i and j lies within the ring. */
+            boolean[][] visible;
+
+            /** Why no visibility graph could be built for this ring, or null if it was built. */
+            String warning;
+        }
+
         private void buildAreas() {
             LOG.info("Building visibility graphs for areas");
 
             List<AreaGroup> areaGroups = groupAreas(_areas);
-            for (AreaGroup group : areaGroups) {
-                buildAreasForGroup(group);
+            if (areaThreads <= 1) {
+                for (AreaGroup group : areaGroups) {
+                    buildAreasForGroup(group, computeVisibility(group));
+                }
+                return;
+            }
+            // Area groups share no nodes or rings, so their visibility graphs can be computed independently.
+            LOG.info("Computing visibility graphs for {} area groups in {} threads", areaGroups.size(),
+                    areaThreads);
+            ExecutorService threadPool = Executors.newFixedThreadPool(areaThreads);
+            try {
+                List<Future<List<RingVisibility>>> results = new ArrayList<Future<List<RingVisibility>>>(
+                        areaGroups.size());
+                for (final AreaGroup group : areaGroups) {
+                    results.add(threadPool.submit(new Callable<List<RingVisibility>>() {
+                        @Override
+                        public List<RingVisibility> call() {
+                            return computeVisibility(group);
+                        }
+                    }));
+                }
+                // Edges are created in group order, whatever order the visibility computations finish in.
+                for (int g = 0; g < areaGroups.size(); ++g) {
+                    List<RingVisibility> visibility;
+                    try {
+                        visibility = results.get(g).get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        throw new RuntimeException(e.getCause());
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("Interrupted while building areas", e);
+                    }
+                    results.set(g, null); // release the visibility graph once it has been applied
+                    buildAreasForGroup(areaGroups.get(g), visibility);
+                }
+            } finally {
+                threadPool.shutdownNow();
             }
         }
 
         /**
-         * Theoretically, it is not correct to build the visibility graph on the joined polygon of areas with different levels of bike safety. That's
-         * because in the optimal path, you might end up changing direction at area boundaries. The problem is known as "weighted planar
-         * subdivisions", and the best known algorithm is O(N^3). That's not much worse than general visibility graph construction, but it would have
-         * to be done at runtime to account for the differences in bike safety preferences. Ted Chiang's "Story Of Your Life" describes how a very
-         * similar problem in optics gives rise to Snell's Law. It is the second-best story about a law of physics that I know of (Chiang's
-         * "Exhalation" is the first).
-         * 
-         * Anyway, since we're not going to run an O(N^3) algorithm at runtime just to give people who don't understand Snell's Law weird paths that
-         * they can complain about, this should be just fine.
-         * 
-         * @param group
+         * Computes the visibility graph of each outermost ring of an area group. This only reads OSM data and may be called from any thread.
          */
-        private void buildAreasForGroup(AreaGroup group) {
-            Set<OSMNode> startingNodes = new HashSet<OSMNode>();
-            Set<Vertex> startingVertices = new HashSet<Vertex>();
-            Set<Edge> edges = new HashSet<Edge>();
-
-            // create polygon and accumulate nodes for area
+        private List<RingVisibility> computeVisibility(AreaGroup group) {
+            List<RingVisibility> out = new ArrayList<RingVisibility>(group.outermostRings.size());
             for (Ring ring : group.outermostRings) {
+                RingVisibility result = new RingVisibility();
+                result.ring = ring;
+                out.add(result);
 
-                AreaEdgeList edgeList = new AreaEdgeList();
-                // the points corresponding to concave or hole vertices
-                // or those linked to ways
                 ArrayList<VLPoint> visibilityPoints = new ArrayList<VLPoint>();
                 ArrayList<OSMNode> visibilityNodes = new ArrayList<OSMNode>();
-                HashSet<P2<OSMNode>> alreadyAddedEdges = new HashSet<P2<OSMNode>>();
                 // we need to accumulate visibility points from all contained areas
                 // inside this ring, but only for shared nodes; we don't care about
                 // convexity, which we'll handle for the grouped area only.
-
-                // we also want to fill in the edges of this area anyway, because we can,
-                // and to avoid the numerical problems that they tend to cause
                 for (Area area : group.areas) {
                     if (!ring.toJtsPolygon().contains(area.toJTSMultiPolygon())) {
                         continue;
                     }
-
                     for (Ring outerRing : area.outermostRings) {
-                        for (int i = 0; i < outerRing.nodes.size(); ++i) {
-                            OSMNode node = outerRing.nodes.get(i);
-                            createEdgesForRingSegment(edges, edgeList, area, outerRing, i,
-                                    alreadyAddedEdges);
-                            addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
+                        for (OSMNode node : outerRing.nodes) {
+                            addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
                                     visibilityNodes, node);
                         }
                         for (Ring innerRing : outerRing.holes) {
-                            for (int j = 0; j < innerRing.nodes.size(); ++j) {
-                                OSMNode node = innerRing.nodes.get(j);
-                                createEdgesForRingSegment(edges, edgeList, area, innerRing, j,
-                                        alreadyAddedEdges);
-                                addtoVisibilityAndStartSets(startingNodes, visibilityPoints,
+                            for (OSMNode node : innerRing.nodes) {
+                                addtoVisibilityAndStartSets(result.startingNodes, visibilityPoints,
                                         visibilityNodes, node);
                             }
                         }
@@ -949,20 +995,92 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
                     nodes.addAll(holeNodes);
                     polygons.add(hole);
                 }
+                result.visibilityNodes = visibilityNodes;
 
                 Environment areaEnv = new Environment(polygons);
 
                 // FIXME: temporary hard limit on size of
                 // areas to prevent way explosion
                 if (visibilityPoints.size() > MAX_AREA_NODES) {
-                    LOG.warn("Area " + group.getSomeOSMObject() + " is too complicated ("
-                            + visibilityPoints.size() + " > " + MAX_AREA_NODES);
+                    result.warning = "Area " + group.getSomeOSMObject() + " is too complicated ("
+                            + visibilityPoints.size() + " > " + MAX_AREA_NODES;
                     continue;
                 }
 
                 if (!areaEnv.is_valid(VISIBILITY_EPSILON)) {
-                    LOG.warn("Area " + group.getSomeOSMObject()
-                            + " is not epsilon-valid (epsilon = " + VISIBILITY_EPSILON + ")");
+                    result.warning = "Area " + group.getSomeOSMObject()
+                            + " is not epsilon-valid (epsilon = " + VISIBILITY_EPSILON + ")";
+                    continue;
+                }
+
+                GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
+                int n = visibilityNodes.size();
+                result.visible = new boolean[n][n];
+                for (int i = 0; i < n; ++i) {
+                    VisibilityPolygon visibilityPolygon = new VisibilityPolygon(
+                            visibilityPoints.get(i), areaEnv, VISIBILITY_EPSILON);
+                    Polygon poly = toJTSPolygon(visibilityPolygon);
+                    Coordinate start = getCoordinate(visibilityNodes.get(i));
+                    for (int j = 0; j < n; ++j) {
+                        Coordinate[] coordinates = new Coordinate[] { start,
+                                getCoordinate(visibilityNodes.get(j)) };
+                        LineString line = geometryFactory.createLineString(coordinates);
+                        result.visible[i][j] = poly.contains(line);
+                    }
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Theoretically, it is not correct to build the visibility graph on the joined polygon of areas with different levels of bike safety. That's
+         * because in the optimal path, you might end up changing direction at area boundaries. The problem is known as "weighted planar
+         * subdivisions", and the best known algorithm is O(N^3). That's not much worse than general visibility graph construction, but it would have
+         * to be done at runtime to account for the differences in bike safety preferences. Ted Chiang's "Story Of Your Life" describes how a very
+         * similar problem in optics gives rise to Snell's Law. It is the second-best story about a law of physics that I know of (Chiang's
+         * "Exhalation" is the first).
+         * 
+         * Anyway, since we're not going to run an O(N^3) algorithm at runtime just to give people who don't understand Snell's Law weird paths that
+         * they can complain about, this should be just fine.
+         * 
+         * @param group
+         * @param visibility the visibility graphs of the group's outermost rings, from {@link #computeVisibility(AreaGroup)}
+         */
+        private void buildAreasForGroup(AreaGroup group, List<RingVisibility> visibility) {
+            Set<OSMNode> startingNodes = new HashSet<OSMNode>();
+            Set<Vertex> startingVertices = new HashSet<Vertex>();
+            Set<Edge> edges = new HashSet<Edge>();
+
+            for (RingVisibility ringVisibility : visibility) {
+                Ring ring = ringVisibility.ring;
+
+                AreaEdgeList edgeList = new AreaEdgeList();
+                HashSet<P2<OSMNode>> alreadyAddedEdges = new HashSet<P2<OSMNode>>();
+
+                // we also want to fill in the edges of this area anyway, because we can,
+                // and to avoid the numerical problems that they tend to cause
+                for (Area area : group.areas) {
+                    if (!ring.toJtsPolygon().contains(area.toJTSMultiPolygon())) {
+                        continue;
+                    }
+
+                    for (Ring outerRing : area.outermostRings) {
+                        for (int i = 0; i < outerRing.nodes.size(); ++i) {
+                            createEdgesForRingSegment(edges, edgeList, area, outerRing, i,
+                                    alreadyAddedEdges);
+                        }
+                        for (Ring innerRing : outerRing.holes) {
+                            for (int j = 0; j < innerRing.nodes.size(); ++j) {
+                                createEdgesForRingSegment(edges, edgeList, area, innerRing, j,
+                                        alreadyAddedEdges);
+                            }
+                        }
+                    }
+                }
+                startingNodes.addAll(ringVisibility.startingNodes);
+
+                if (ringVisibility.warning != null) {
+                    LOG.warn(ringVisibility.warning);
                     continue;
                 }
 
@@ -972,11 +1090,9 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
 
                 OSMWithTags areaEntity = group.getSomeOSMObject();
 
+                List<OSMNode> visibilityNodes = ringVisibility.visibilityNodes;
                 for (int i = 0; i < visibilityNodes.size(); ++i) {
                     OSMNode nodeI = visibilityNodes.get(i);
-                    VisibilityPolygon visibilityPolygon = new VisibilityPolygon(
-                            visibilityPoints.get(i), areaEnv, VISIBILITY_EPSILON);
-                    Polygon poly = toJTSPolygon(visibilityPolygon);
                     for (int j = 0; j < visibilityNodes.size(); ++j) {
                         OSMNode nodeJ = visibilityNodes.get(j);
                         P2<OSMNode> nodePair = new P2<OSMNode>(nodeI, nodeJ);
@@ -986,11 +1102,7 @@ public class OpenStreetMapGraphBuilderImpl implements GraphBuilder {
                         IntersectionVertex startEndpoint = getVertexForOsmNode(nodeI, areaEntity);
                         IntersectionVertex endEndpoint = getVertexForOsmNode(nodeJ, areaEntity);
 
-                        Coordinate[] coordinates = new Coordinate[] {
-                                startEndpoint.getCoordinate(), endEndpoint.getCoordinate() };
-                        GeometryFactory geometryFactory = GeometryUtils.getGeometryFactory();
-                        LineString line = geometryFactory.createLineString(coordinates);
-                        if (poly.contains(line)) {
+                        if (ringVisibility.visible[i][j]) {
 
                             createSegments(nodeI, nodeJ, startEndpoint, endEndpoint, group.areas,
                                     edgeList, edges);
@@ -20,13 +20,13 @@ import lombok.Setter;
 
 import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
-import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchWorkspace;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
@@ -98,6 +98,9 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
         RoutingContext rctx = options.getRoutingContext();
         long abortTime = DateUtils.absoluteTimeout(relTimeout);
+        if (options.deadline > 0) {
+            abortTime = Math.min(abortTime, options.deadline);
+        }
 
         // null checks on origin and destination vertices are already performed in setRoutingContext
         // options.rctx.check();
@@ -118,11 +121,23 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         // size = O(sqrt(|V|)) << |V|. For reference, a random, undirected search
         // on a uniform 2d grid will examine roughly sqrt(|V|) vertices before
         // reaching its target. 
-        OTPPriorityQueueFactory qFactory = BinHeap.FACTORY;
         int initialSize = rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        OTPPriorityQueue<State> pq = qFactory.create(initialSize);
-        pq.insert(initialState, 0);
+        // The queue of the thread's workspace is reused, keeping the capacity it has grown to.
+        SearchWorkspace workspace = SearchWorkspace.forGraph(rctx.graph);
+        BinHeap<State> pq = workspace.acquireQueue(initialSize);
+        try {
+            pq.insert(initialState, 0);
+            return runSearch(options, rctx, abortTime, terminationStrategy, spt, heuristic, pq);
+        } finally {
+            workspace.releaseQueue(pq);
+        }
+    }
+
+    /** The core of the A* algorithm, run from the initial state already in the queue. */
+    private ShortestPathTree runSearch(RoutingRequest options, RoutingContext rctx,
+            long abortTime, SearchTerminationStrategy terminationStrategy, ShortestPathTree spt,
+            RemainingWeightHeuristic heuristic, OTPPriorityQueue<State> pq) {
 
 //        options = options.clone();
 //        /** max walk distance cannot be less than distances to nearest transit stops */
@@ -153,6 +168,12 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 storeMemory();
                 return null; // throw timeout exception
             }
+            // A concurrent search whose result is no longer needed is cancelled by interruption.
+            if (Thread.currentThread().isInterrupted()) {
+                LOG.debug("Search interrupted. origin={} target={}", rctx.origin, rctx.target);
+                storeMemory();
+                return null;
+            }
 
             // get the lowest-weight state in the queue
             State u = pq.extract_min();
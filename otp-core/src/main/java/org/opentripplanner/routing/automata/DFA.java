@@ -180,6 +180,11 @@ public class DFA extends NFA {
         return table[initState][terminal];
     }
 
+    /** @return the number of terminal symbols, the width of the transition table */
+    public int getTerminalCount() {
+        return table.length == 0 ? 0 : table[0].length;
+    }
+
     public boolean accepts(int state) {
         if (state == AutomatonState.REJECT)
             return false;
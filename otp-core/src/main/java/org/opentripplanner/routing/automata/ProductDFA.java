@@ -0,0 +1,137 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The product of several DFAs, which runs them in parallel as a single DFA. A terminal of the
+ * product is a tuple of terminals of the components, encoded as one int by summing the values of
+ * encodeTerminal for each component. A state of the product is a tuple of component states; only
+ * the tuples reachable from the start are numbered, in a flat transition table. A product state
+ * is rejected as soon as any component rejects, and accepted when all components accept.
+ *
+ * Parsing a path with the product takes one table lookup per step, and one int per parse state,
+ * however many DFAs are combined.
+ */
+public class ProductDFA {
+
+    /** The number of terminals of each component DFA */
+    private final int[] widths;
+
+    /** The value of terminal 1 of each component in encoded terminals */
+    private final int[] multipliers;
+
+    /** The number of encoded terminals, the product of the widths */
+    private final int nTerminals;
+
+    /** The next state for each state and encoded terminal, at state * nTerminals + terminal */
+    private final int[] table;
+
+    private final boolean[] accepting;
+
+    public ProductDFA(DFA... dfas) {
+        int n = dfas.length;
+        widths = new int[n];
+        multipliers = new int[n];
+        int nTerminals = 1;
+        for (int i = 0; i < n; i++) {
+            widths[i] = dfas[i].getTerminalCount();
+            multipliers[i] = nTerminals;
+            nTerminals *= widths[i];
+        }
+        this.nTerminals = nTerminals;
+
+        // number the reachable tuples of component states breadth-first, starting at START
+        Map<List<Integer>, Integer> numbers = new HashMap<List<Integer>, Integer>();
+        List<int[]> tuples = new ArrayList<int[]>();
+        int[] start = new int[n];
+        Arrays.fill(start, AutomatonState.START);
+        numbers.put(asList(start), 0);
+        tuples.add(start);
+        List<Integer> transitions = new ArrayList<Integer>();
+        for (int s = 0; s < tuples.size(); s++) {
+            int[] from = tuples.get(s);
+            for (int terminal = 0; terminal < nTerminals; terminal++) {
+                int[] to = new int[n];
+                boolean rejected = false;
+                for (int i = 0; i < n && !rejected; i++) {
+                    int t = terminal / multipliers[i] % widths[i];
+                    to[i] = dfas[i].transition(from[i], t);
+                    rejected = to[i] == AutomatonState.REJECT;
+                }
+                if (rejected) {
+                    transitions.add(AutomatonState.REJECT);
+                    continue;
+                }
+                List<Integer> key = asList(to);
+                Integer number = numbers.get(key);
+                if (number == null) {
+                    number = tuples.size();
+                    numbers.put(key, number);
+                    tuples.add(to);
+                }
+                transitions.add(number);
+            }
+        }
+        table = new int[transitions.size()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = transitions.get(i);
+        }
+        accepting = new boolean[tuples.size()];
+        for (int s = 0; s < tuples.size(); s++) {
+            boolean accept = true;
+            for (int i = 0; i < n && accept; i++) {
+                accept = dfas[i].accepts(tuples.get(s)[i]);
+            }
+            accepting[s] = accept;
+        }
+    }
+
+    private static List<Integer> asList(int[] tuple) {
+        List<Integer> list = new ArrayList<Integer>(tuple.length);
+        for (int i : tuple)
+            list.add(i);
+        return list;
+    }
+
+    /**
+     * @return the contribution of the given terminal of the given component to an encoded
+     *         terminal, or -1 if that component has no transition on it at all
+     */
+    public int encodeTerminal(int component, int terminal) {
+        if (terminal < 0 || terminal >= widths[component])
+            return -1;
+        return terminal * multipliers[component];
+    }
+
+    /** @return the next state, or REJECT. Rejected states stay rejected. */
+    public int transition(int state, int terminal) {
+        if (state < 0)
+            return AutomatonState.REJECT;
+        return table[state * nTerminals + terminal];
+    }
+
+    public boolean accepts(int state) {
+        return state >= 0 && accepting[state];
+    }
+
+    public int getStateCount() {
+        return accepting.length;
+    }
+}
@@ -46,6 +46,11 @@ public class FareRuleSet implements Serializable {
         routes.add(route);
     }
 
+    /** @return the routes this rule set is restricted to, or an empty set if it applies to all */
+    public Set<AgencyAndId> getRoutes() {
+        return routes;
+    }
+
     public boolean matches(String startZone, String endZone, Set<String> zonesVisited,
             Set<AgencyAndId> routesVisited) {
         //check for matching origin/destination, if this ruleset has any origin/destination restrictions
@@ -14,13 +14,10 @@
 package org.opentripplanner.routing.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.api.ws.Debug;
 import org.opentripplanner.common.geometry.DistanceLibrary;
@@ -29,8 +26,11 @@ import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.automata.ProductDFA;
 import org.opentripplanner.routing.edgetype.PartialPlainStreetEdge;
 import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetCostTable;
+import org.opentripplanner.routing.edgetype.StreetCostTables;
 import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.error.TransitTimesException;
@@ -40,6 +40,7 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.DefaultRemainingWeightHeuristicFactoryImpl;
 import org.opentripplanner.routing.location.StreetLocation;
+import org.opentripplanner.routing.patch.PatchOverlay;
 import org.opentripplanner.routing.pathparser.PathParser;
 import org.opentripplanner.routing.services.OnBoardDepartService;
 import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
@@ -91,8 +92,6 @@ public class RoutingContext implements Cloneable {
     // public final Calendar calendar;
     public final CalendarService calendarService;
 
-    public final Map<AgencyAndId, Set<ServiceDate>> serviceDatesByServiceId = new HashMap<AgencyAndId, Set<ServiceDate>>();
-
     public RemainingWeightHeuristic remainingWeightHeuristic;
 
     public final TransferTable transferTable;
@@ -100,6 +99,9 @@ public class RoutingContext implements Cloneable {
     /** The timetableSnapshot is a {@link TimetableResolver} for looking up real-time updates. */
     public final TimetableResolver timetableSnapshot; 
 
+    /** The patches in effect on the graph when this search started. */
+    public final PatchOverlay patchOverlay;
+
     /**
      * Cache lists of which transit services run on which midnight-to-midnight periods. This ties a TraverseOptions to a particular start time for the
      * duration of a search so the same options cannot be used for multiple searches concurrently. To do so this cache would need to be moved into
@@ -117,11 +119,29 @@ public class RoutingContext implements Cloneable {
 
     public PathParser[] pathParsers = new PathParser[] {};
 
+    /** The product automaton of the pathParsers, and the array it was built for */
+    private ProductDFA pathParserDFA;
+
+    private PathParser[] pathParserDFAParsers;
+
     public Vertex startingStop;
 
     /** An object that accumulates profiling and debugging info for inclusion in the response. */
     public Debug debug = new Debug();
 
+    private static final int N_MODES = TraverseMode.values().length;
+
+    /**
+     * The street cost tables used by this search, by mode, for the request and then for its bike
+     * walking options; resolved on first use, and null where the profile has no table.
+     */
+    private StreetCostTable[] streetCostTables = new StreetCostTable[2 * N_MODES];
+
+    private boolean[] streetCostTablesResolved = new boolean[2 * N_MODES];
+
+    /** The time and weight of the street edge being traversed, when it is not in a cost table */
+    private double[] streetCost = new double[2];
+
 
     /* CONSTRUCTORS */
 
@@ -227,6 +247,8 @@ public class RoutingContext implements Cloneable {
         else {
             timetableSnapshot = null;
         }
+        // likewise for patches, which are replaced as a whole by the patch service
+        patchOverlay = graph.getPatchOverlay();
         calendarService = graph.getCalendarService();
         setServiceDays();
 
@@ -313,6 +335,7 @@ public class RoutingContext implements Cloneable {
             LOG.debug("Destination vertex inbound edges {}", this.target.getIncoming());
             LOG.debug("Destination vertex outbound edges {}", this.target.getOutgoing());
         }
+        this.debug.finishedSetup();
     }
 
     /* INSTANCE METHODS */
@@ -362,11 +385,14 @@ public class RoutingContext implements Cloneable {
         // This should be a valid way to find yesterday and tomorrow,
         // since DST changes more than one hour after midnight in US/EU.
         // But is this true everywhere?
+        // ServiceDays are computed once per graph and shared by all requests, see ServiceDayCache.
+        ServiceDayCache cache = ServiceDayCache.forGraph(graph);
         for (String agency : graph.getAgencyIds()) {
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time - SEC_IN_DAY,
+            addIfNotExists(this.serviceDays, cache.getServiceDay(graph, time - SEC_IN_DAY,
                     calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(graph, time + SEC_IN_DAY,
+            addIfNotExists(this.serviceDays, cache.getServiceDay(graph, time,
+                    calendarService, agency));
+            addIfNotExists(this.serviceDays, cache.getServiceDay(graph, time + SEC_IN_DAY,
                     calendarService, agency));
         }
     }
@@ -397,6 +423,73 @@ public class RoutingContext implements Cloneable {
         return true;
     }
 
+    /**
+     * Make a shallow copy of this routing context for a search on the given request that runs
+     * concurrently with other searches sharing the same endpoints. The copy has its own heuristic
+     * and debug output, which are not thread safe; everything else, including the temporary edges,
+     * is shared. Only the original context should be destroyed.
+     */
+    public RoutingContext forConcurrentSearch(RoutingRequest routingRequest) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = routingRequest;
+            if (routingRequest.batch)
+                copy.remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
+            else
+                copy.remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(routingRequest);
+            copy.debug = new Debug();
+            copy.streetCostTables = new StreetCostTable[2 * N_MODES];
+            copy.streetCostTablesResolved = new boolean[2 * N_MODES];
+            copy.streetCost = new double[2];
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since we implement Cloneable */
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the precomputed street costs for the given options and mode, or null if there are
+     *         none. Only the request of this context and its bike walking options have tables.
+     */
+    public StreetCostTable getStreetCostTable(RoutingRequest options, TraverseMode mode) {
+        if (mode == null)
+            return null;
+        int i;
+        if (options == opt)
+            i = mode.ordinal();
+        else if (options == opt.bikeWalkingOptions)
+            i = N_MODES + mode.ordinal();
+        else
+            return null;
+        if (!streetCostTablesResolved[i]) {
+            streetCostTables[i] = StreetCostTables.forGraph(graph).get(graph, options, mode);
+            streetCostTablesResolved[i] = true;
+        }
+        return streetCostTables[i];
+    }
+
+    /**
+     * @return an array of length 2 that street edges compute their costs into, to avoid allocating
+     *         one per traversal. It is only valid until the next traversal of this search.
+     */
+    public double[] getStreetCostBuffer() {
+        return streetCost;
+    }
+
+    /**
+     * @return the product automaton of the current pathParsers, which are replaced in several
+     *         places during a search, so it is looked up again whenever the array changes
+     */
+    public ProductDFA getPathParserDFA() {
+        PathParser[] parsers = pathParsers;
+        if (pathParserDFA == null || pathParserDFAParsers != parsers) {
+            pathParserDFA = PathParser.product(parsers);
+            pathParserDFAParsers = parsers;
+        }
+        return pathParserDFA;
+    }
+
     /**
      * Tear down this routing context, removing any temporary edges.
      * 
@@ -124,6 +124,15 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** Whether the planner should return intermediate stops lists for transit legs. */
     public boolean showIntermediateStops = false;
 
+    /** Whether the planner should return turn-by-turn walk steps for street legs. */
+    public boolean showWalkSteps = true;
+
+    /** Whether the planner should return elevation profiles along the walk steps. */
+    public boolean showElevation = true;
+
+    /** Whether the planner should return the encoded geometry of each leg. */
+    public boolean showLegGeometry = true;
+
     /** max walk/bike speed along streets, in meters per second */
     private double walkSpeed;
 
@@ -294,6 +303,13 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** when true, do not use goal direction or stop at the target, build a full SPT */
     public boolean batch = false;
 
+    /**
+     * The absolute time in milliseconds after which all searches for this request are abandoned,
+     * or 0 if there is no deadline. It is checked in addition to the per-search timeouts of the
+     * path service.
+     */
+    public long deadline = 0;
+
     /**
      * Whether or not bike rental availability information will be used to plan bike rental trips
      */
@@ -0,0 +1,85 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * Scratch space that is reused by all searches on one graph in one thread, to avoid rebuilding
+ * the same structures for every request.
+ *
+ * It lends out a priority queue whose grown capacity is kept between searches. Workspaces are
+ * only referenced weakly from their graph, so they disappear along with an evicted graph.
+ */
+public class SearchWorkspace {
+
+    /** Queues grown beyond this capacity are not kept, to bound the memory held per thread. */
+    private static final int MAX_QUEUE_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<Map<Graph, SearchWorkspace>> workspaces =
+            new ThreadLocal<Map<Graph, SearchWorkspace>>() {
+                @Override
+                protected Map<Graph, SearchWorkspace> initialValue() {
+                    return new WeakHashMap<Graph, SearchWorkspace>();
+                }
+            };
+
+    private BinHeap<State> queue;
+
+    private boolean queueInUse = false;
+
+    /**
+     * @return the workspace of the current thread for the given graph.
+     */
+    public static SearchWorkspace forGraph(Graph graph) {
+        Map<Graph, SearchWorkspace> map = workspaces.get();
+        SearchWorkspace workspace = map.get(graph);
+        if (workspace == null) {
+            workspace = new SearchWorkspace();
+            map.put(graph, workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * Borrow the priority queue of this workspace, or a new one if it is already in use by an
+     * enclosing search. It must be given back with releaseQueue when the search is done.
+     */
+    public BinHeap<State> acquireQueue(int initialCapacity) {
+        if (queueInUse) {
+            return new BinHeap<State>(initialCapacity);
+        }
+        queueInUse = true;
+        if (queue == null) {
+            queue = new BinHeap<State>(initialCapacity);
+        }
+        return queue;
+    }
+
+    public void releaseQueue(BinHeap<State> released) {
+        if (released != queue) {
+            return;
+        }
+        // do not keep the states of the finished search reachable
+        queue.clear();
+        if (queue.getCapacity() > MAX_QUEUE_CAPACITY) {
+            queue = null;
+        }
+        queueInUse = false;
+    }
+}
@@ -37,18 +37,27 @@ public class ServiceDay implements Serializable {
 
     protected long midnight;
     protected ServiceDate serviceDate;
-    protected BitSet serviceIdsRunning;
+
+    /**
+     * The numbers (from the ServiceIdToNumberService) of the services running on this day. It is
+     * never modified after construction, so ServiceDays can be shared between requests and threads.
+     */
+    protected final BitSet serviceIdsRunning;
     
     /* 
      * make a ServiceDay including the given time's day's starting second and a set of 
      * serviceIds running on that day.
      */
     public ServiceDay(Graph graph, long time, CalendarService cs, String agencyId) {
-        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
-        GregorianCalendar calendar = new GregorianCalendar(timeZone);
-        calendar.setTime(new Date(time * 1000));
+        this(graph, getServiceDate(time, cs.getTimeZoneForAgencyId(agencyId)), cs,
+                cs.getTimeZoneForAgencyId(agencyId));
+    }
 
-        serviceDate = new ServiceDate(calendar);
+    /* 
+     * make a ServiceDay for the given service date in the given time zone.
+     */
+    public ServiceDay(Graph graph, ServiceDate serviceDate, CalendarService cs, TimeZone timeZone) {
+        this.serviceDate = serviceDate;
         Date d = serviceDate.getAsDate(timeZone);
         this.midnight = d.getTime() / 1000;
         serviceIdsRunning = new BitSet(cs.getServiceIds().size());
@@ -62,8 +71,19 @@ public class ServiceDay implements Serializable {
         }
     }
 
+    /**
+     * Return the service date containing the given time (in seconds since the epoch) in the given
+     * time zone.
+     */
+    public static ServiceDate getServiceDate(long time, TimeZone timeZone) {
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.setTime(new Date(time * 1000));
+        return new ServiceDate(calendar);
+    }
+
     /* 
-     * Does the given serviceId run on this ServiceDay?
+     * Does the given serviceId run on this ServiceDay? This is a single bit test, as it is done at
+     * every transit boarding.
      */
     public boolean serviceIdRunning(int serviceId) {
         return this.serviceIdsRunning.get(serviceId);
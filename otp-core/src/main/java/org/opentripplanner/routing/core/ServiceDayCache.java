@@ -0,0 +1,109 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.common.model.T2;
+import org.opentripplanner.routing.graph.Graph;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The ServiceDays of one graph, shared by all threads. A ServiceDay is immutable once constructed,
+ * so the bit set of services running on a date only has to be computed from the CalendarService
+ * once per graph, rather than once per request or per thread.
+ *
+ * The caches are only referenced weakly from their graph. Each one holds the ServiceDays of a single
+ * CalendarService, and is replaced as a whole when the graph gets another one, so that no thread
+ * ever gets a ServiceDay computed from a different CalendarService than the one it asked with.
+ */
+public class ServiceDayCache {
+
+    /** The number of ServiceDays kept per graph, about two months for a few time zones. */
+    private static final int MAX_SERVICE_DAYS = 256;
+
+    private static final Map<Graph, ServiceDayCache> cachesByGraph =
+            Collections.synchronizedMap(new WeakHashMap<Graph, ServiceDayCache>());
+
+    private volatile ServiceDays serviceDays = new ServiceDays(null);
+
+    /** @return the shared ServiceDay cache of the given graph */
+    public static ServiceDayCache forGraph(Graph graph) {
+        synchronized (cachesByGraph) {
+            ServiceDayCache cache = cachesByGraph.get(graph);
+            if (cache == null) {
+                cache = new ServiceDayCache();
+                cachesByGraph.put(graph, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return the ServiceDay containing the given time in the time zone of the given agency.
+     */
+    public ServiceDay getServiceDay(Graph graph, long time, CalendarService cs, String agencyId) {
+        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
+        return getServiceDay(graph, ServiceDay.getServiceDate(time, timeZone), cs, timeZone);
+    }
+
+    /**
+     * @return the ServiceDay of the given service date in the given time zone, computed from the
+     *         given calendar service if it is not cached yet
+     */
+    public ServiceDay getServiceDay(final Graph graph, final ServiceDate serviceDate,
+            final CalendarService cs, final TimeZone timeZone) {
+        ServiceDays days = serviceDays;
+        if (days.calendarService != cs) {
+            synchronized (this) {
+                if (serviceDays.calendarService != cs)
+                    serviceDays = new ServiceDays(cs);
+                days = serviceDays;
+            }
+        }
+        T2<String, ServiceDate> key = new T2<String, ServiceDate>(timeZone.getID(), serviceDate);
+        try {
+            return days.cache.get(key, new Callable<ServiceDay>() {
+                @Override
+                public ServiceDay call() {
+                    return new ServiceDay(graph, serviceDate, cs, timeZone);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** The ServiceDays computed from one calendar service */
+    private static class ServiceDays {
+
+        final CalendarService calendarService;
+
+        final Cache<T2<String, ServiceDate>, ServiceDay> cache = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SERVICE_DAYS).build();
+
+        ServiceDays(CalendarService calendarService) {
+            this.calendarService = calendarService;
+        }
+    }
+}
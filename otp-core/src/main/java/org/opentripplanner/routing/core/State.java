@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.core;
 
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 
@@ -56,6 +55,15 @@ public class State implements Cloneable {
     // allow traverse result chaining (multiple results)
     protected State next;
 
+    // the mode that was used to traverse the backEdge
+    protected TraverseMode backMode;
+
+    protected boolean backWalkingBike;
+
+    // the alerts of the backEdge; held here rather than in StateData so that they do not cause it
+    // to be copied before and after every notated edge
+    protected Set<Alert> backAlerts;
+
     /* StateData contains data which is unlikely to change as often */
     public StateData stateData;
 
@@ -64,8 +72,8 @@ public class State implements Cloneable {
     // we should DEFINITELY rename this variable and the associated methods.
     protected double walkDistance;
 
-    // track the states of all path parsers -- probably changes frequently
-    protected int[] pathParserStates;
+    // the state of all path parsers at once, in the product automaton of the routing context
+    protected int pathParserState = AutomatonState.START;
     
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
@@ -115,10 +123,6 @@ public class State implements Cloneable {
         this.stateData.usingRentedBike = false;
         this.walkDistance = 0;
         this.time = timeSeconds * 1000;
-        if (options.rctx != null) {
-            this.pathParserStates = new int[options.rctx.pathParsers.length];
-            Arrays.fill(this.pathParserStates, AutomatonState.START);
-        }
         stateData.routeSequence = new AgencyAndId[0];
     }
 
@@ -352,15 +356,15 @@ public class State implements Cloneable {
     }
     
     public TraverseMode getBackMode () {
-        return stateData.backMode;
+        return backMode;
     }
     
     public boolean isBackWalkingBike () {
-        return stateData.backWalkingBike;
+        return backWalkingBike;
     }
 
     public Set<Alert> getBackAlerts () {
-        return stateData.notes;
+        return backAlerts;
     }
     
     /**
@@ -549,20 +553,16 @@ public class State implements Cloneable {
     }
     
     public boolean allPathParsersAccept() {
-    	PathParser[] parsers = this.stateData.opt.rctx.pathParsers;
-    	for (int i = 0; i < parsers.length; i++)
-    		if ( ! parsers[i].accepts(pathParserStates[i]))
-    			return false;
-    	return true;
+    	return this.stateData.opt.rctx.getPathParserDFA().accepts(pathParserState);
 	}
     		
+	/** @return the state of all path parsers, in the product automaton of the routing context */
+	public int getPathParserState() {
+		return pathParserState;
+	}
+
 	public String getPathParserStates() {
-		StringBuilder sb = new StringBuilder();
-		sb.append("( ");
-		for (int i : pathParserStates)
-			sb.append(String.format("%02d ", i));
-		sb.append(")");
-		return sb.toString();
+		return String.format("( %02d )", pathParserState);
 	}
 
     /** @return the last TripPattern used in this path (which is set when leaving the vehicle). */
@@ -723,8 +723,7 @@ public class State implements Cloneable {
                         + reversed.stateData.initialWaitTime + ", should be " + newInitialWaitTime);
 
             // copy the path parser states so this path is not thrown out going forward
-//            reversed.pathParserStates = 
-//                    Arrays.copyOf(this.pathParserStates, this.pathParserStates.length, newLength);
+//            reversed.pathParserState = this.pathParserState;
             
             // copy things that didn't get copied
             reversed.initializeFieldsFrom(this);
@@ -760,6 +759,9 @@ public class State implements Cloneable {
         this.stateData.initialWaitTime = currentStateData.initialWaitTime;
         // this will get re-set on the next alight (or board in a reverse search)
         this.stateData.lastNextArrivalDelta = -1;
+        this.backMode = o.backMode;
+        this.backWalkingBike = o.backWalkingBike;
+        this.backAlerts = o.backAlerts;
     }
 
     public boolean getReverseOptimizing () {
@@ -21,12 +21,16 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.trippattern.TripTimes;
-import org.opentripplanner.routing.patch.Alert;
 
 /**
  * StateData contains the components of search state that are unlikely to be changed as often as
  * time or weight. This avoids frequent duplication, which should have a positive impact on both
  * time and space use during searches.
+ * 
+ * A StateData is shared by all the states of a path until one of its fields changes, typically
+ * when boarding or alighting. Anything describing the back edge of a single state (its mode,
+ * alerts...) belongs in State instead, or it would force a copy of all these fields at every
+ * traversal where it changes.
  */
 public class StateData implements Cloneable {
 
@@ -83,22 +87,6 @@ public class StateData implements Cloneable {
      * that could have been taken. It is used to determine if a path needs reverse-optimization.
      */
     protected int lastNextArrivalDelta;
-    
-    /**
-     * This is a list of notes that should be applied to this state.
-     * This means that we clone StateData before and after a notated edge, but notated edges
-     * are rare enough this likely doesn't matter.
-     * 
-     * @author mattwigway
-     */
-    protected Set<Alert> notes = null;
-    
-    /**
-     * The mode that was used to traverse the backEdge
-     */
-    protected TraverseMode backMode;
-
-    protected boolean backWalkingBike;
 
     public Set<String> bikeRentalNetworks;
 
@@ -23,6 +23,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.automata.AutomatonState;
+import org.opentripplanner.routing.automata.ProductDFA;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
@@ -151,11 +152,8 @@ public class StateEditor {
         if ( ! parsePath(this.child))
         	return null;
         
-        // copy the notes if need be, keeping in mind they may both be null
-        if (this.notes != child.stateData.notes) {
-            cloneStateDataAsNeeded();
-            child.stateData.notes = this.notes;
-        }
+        // alerts only apply to the back edge, so they are never inherited from the parent
+        child.backAlerts = this.notes;
         
         spawned = true;
         return child;
@@ -301,19 +299,11 @@ public class StateEditor {
     }
     
     public void setBackMode(TraverseMode mode) {
-        if (mode == child.stateData.backMode)
-            return;
-        
-        cloneStateDataAsNeeded();
-        child.stateData.backMode = mode;
+        child.backMode = mode;
     }
 
     public void setBackWalkingBike (boolean walkingBike) {
-        if (walkingBike == child.stateData.backWalkingBike)
-            return;
-        
-        cloneStateDataAsNeeded();
-        child.stateData.backWalkingBike = walkingBike;
+        child.backWalkingBike = walkingBike;
     }
 
     /** 
@@ -492,7 +482,10 @@ public class StateEditor {
      * @return false if a patch blocked traversal
      */
     private boolean applyPatches() {
-        List<Patch> patches = child.backEdge.getPatches();
+        RoutingContext rctx = child.getContext();
+        if (rctx == null || rctx.patchOverlay.isEmpty())
+            return true;
+        List<Patch> patches = rctx.patchOverlay.getPatches(child.backEdge);
         boolean display = false, active = false;
 
         if (patches != null) {
@@ -526,35 +519,29 @@ public class StateEditor {
             child.stateData = child.stateData.clone();
     }
 
-    /** return true if all PathParsers advanced to a state other than REJECT */
+    /**
+     * Advance all PathParsers at once, with a single transition of their product automaton.
+     * @return true if all PathParsers advanced to a state other than REJECT
+     */
     public boolean parsePath(State state) {
-        if (state.stateData.opt.rctx == null)
+        RoutingContext rctx = state.stateData.opt.rctx;
+        if (rctx == null)
             return true; // a lot of tests don't set a routing context
-        PathParser[] parsers = state.stateData.opt.rctx.pathParsers;
-        int[] parserStates = state.pathParserStates;
-        boolean accept = true;
-        boolean modified = false;
-        int i = 0;
-        for (PathParser parser : parsers) {
-            int terminal = parser.terminalFor(state);
-            int oldState = parserStates[i];
-            int newState = parser.transition(oldState, terminal);
-            if (newState != oldState) {
-                if (!modified) {
-                    // clone the state array so only the new state will see modifications
-                    parserStates = parserStates.clone();
-                    modified = true;
-                }
-                parserStates[i] = newState;
-                if (newState == AutomatonState.REJECT)
-                    accept = false;
+        PathParser[] parsers = rctx.pathParsers;
+        if (parsers.length == 0)
+            return true;
+        ProductDFA dfa = rctx.getPathParserDFA();
+        int terminal = 0;
+        for (int i = 0; i < parsers.length; i++) {
+            int t = dfa.encodeTerminal(i, parsers[i].terminalFor(state));
+            if (t < 0) {
+                state.pathParserState = AutomatonState.REJECT;
+                return false;
             }
-            i++;
+            terminal += t;
         }
-        if (modified)
-            state.pathParserStates = parserStates;
-
-        return accept;
+        state.pathParserState = dfa.transition(state.pathParserState, terminal);
+        return state.pathParserState != AutomatonState.REJECT;
     }
 
     public void alightTransit() {
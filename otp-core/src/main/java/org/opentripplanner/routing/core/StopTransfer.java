@@ -3,7 +3,7 @@ package org.opentripplanner.routing.core;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.onebusaway.gtfs.model.Trip;
@@ -44,7 +44,7 @@ public class StopTransfer implements Serializable {
     /**
      * List with specific transfers for this transfer between two stops.
      */
-    private final List<SpecificTransfer> specificTransfers = new LinkedList<SpecificTransfer>();
+    private final List<SpecificTransfer> specificTransfers = new ArrayList<SpecificTransfer>(1);
     
     /**
      * Default constructor
@@ -77,7 +77,9 @@ public class StopTransfer implements Serializable {
         
         // Pick the matching specific transfer with the highest specificity
         int maxFoundSpecificity = SpecificTransfer.MIN_SPECIFICITY - 1;
-        for (SpecificTransfer specificTransfer : specificTransfers) {
+        // indexed loop, as this is called at every transfer-aware boarding
+        for (int i = 0; i < specificTransfers.size(); i++) {
+            SpecificTransfer specificTransfer = specificTransfers.get(i);
             int specificity = specificTransfer.getSpecificity(); 
             if (specificity > maxFoundSpecificity) {
                 if (specificTransfer.matches(fromTrip, toTrip)) {
@@ -17,8 +17,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
@@ -32,6 +36,11 @@ import org.opentripplanner.common.model.P2;
  * See https://developers.google.com/transit/gtfs/reference#transfers_fields
  * and https://support.google.com/transitpartners/answer/2450962 (heading Route-to-route
  * and trip-to-trip transfers) for more details about the specifications.
+ * 
+ * Lookups go through an index built from the table the first time it is used after a change, in
+ * which stops are numbered and the transfers from each stop are sorted by the number of the stop
+ * they lead to. The stops of a lookup and their parent stations are resolved to these numbers
+ * once per stop, so looking up a transfer on the boarding path does not allocate.
  * @see StopTransfer, SpecificTransfer
  */
 public class TransferTable implements Serializable {
@@ -47,6 +56,9 @@ public class TransferTable implements Serializable {
      * Preferred transfers (or timed transfers, which are preferred as well) are present if true
      */
     protected boolean preferredTransfers = false;
+
+    /** The index used for lookups, or null if the table has changed since it was built */
+    private transient volatile Index index;
     
     public boolean hasPreferredTransfers() {
         return preferredTransfers;
@@ -79,73 +91,150 @@ public class TransferTable implements Serializable {
             fromTrip = toTrip;
             toTrip = tempTrip;
         }
+
+        Index index = getIndex();
+        int[] from = index.resolve(fromStop);
+        if (from[0] < 0 && from[1] < 0) {
+            // neither the stop nor its parent has any transfers
+            return StopTransfer.UNKNOWN_TRANSFER;
+        }
+        int[] to = index.resolve(toStop);
         
         // Get transfer time between the two stops
-        int transferTime = getTransferTime(fromStop.getId(), toStop.getId(), fromTrip, toTrip);
+        int transferTime = index.getTransferTime(from[0], to[0], fromTrip, toTrip);
         
-        // Check parents of stops if no transfer was found
+        // Check parents of stops if no transfer was found: parent of from stop, parent of to
+        // stop, then parents of both stops
         if (transferTime == StopTransfer.UNKNOWN_TRANSFER) {
-            // Find parent ids
-            AgencyAndId fromStopParentId = null;
-            AgencyAndId toStopParentId = null;
-            if (fromStop.getParentStation() != null 
-                    && !fromStop.getParentStation().isEmpty()) {
-                // From stop has a parent
-                fromStopParentId = new AgencyAndId(fromStop.getId().getAgencyId(), fromStop.getParentStation());
-            }
-            if (toStop.getParentStation() != null 
-                    && !toStop.getParentStation().isEmpty()) {
-                // To stop has a parent
-                toStopParentId = new AgencyAndId(toStop.getId().getAgencyId(), toStop.getParentStation());
-            }
-            
-            // Check parent of from stop if no transfer was found
-            if (fromStopParentId != null) {
-                transferTime = getTransferTime(fromStopParentId, toStop.getId(), fromTrip, toTrip);
-            }
+            transferTime = index.getTransferTime(from[1], to[0], fromTrip, toTrip);
+        }
+        if (transferTime == StopTransfer.UNKNOWN_TRANSFER) {
+            transferTime = index.getTransferTime(from[0], to[1], fromTrip, toTrip);
+        }
+        if (transferTime == StopTransfer.UNKNOWN_TRANSFER) {
+            transferTime = index.getTransferTime(from[1], to[1], fromTrip, toTrip);
+        }
+        
+        return transferTime;
+    }
 
-            // Check parent of to stop if still no transfer was found
-            if (transferTime == StopTransfer.UNKNOWN_TRANSFER
-                    && toStopParentId != null) {
-                transferTime = getTransferTime(fromStop.getId(), toStopParentId, fromTrip, toTrip);
-            }
+    /**
+     * Build the lookup index now rather than on the first lookup, and resolve the given stops and
+     * their parent stations in it. Called when the graph is indexed, with all its stops.
+     */
+    public void index(Iterable<Stop> stops) {
+        Index index = getIndex();
+        for (Stop stop : stops) {
+            index.resolve(stop);
+        }
+    }
 
-            // Check parents of both stops if still no transfer was found
-            if (transferTime == StopTransfer.UNKNOWN_TRANSFER
-                    && fromStopParentId != null
-                    && toStopParentId != null) {
-                transferTime = getTransferTime(fromStopParentId, toStopParentId, fromTrip, toTrip);
+    private Index getIndex() {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = new Index(table);
+                    this.index = index;
+                }
             }
         }
-        
-        return transferTime;
+        return index;
     }
-    
+
     /**
-     * Get the transfer time that should be used when transferring from a trip to another trip.
-     * Note that this function does not check whether another specific transfer exists with the
-     * same specificity, what is forbidden by the specifications.    
-     * @param fromStopId is the id of the arriving stop
-     * @param toStopId is the id of the departing stop
-     * @param fromTrip is the arriving trip
-     * @param toTrip is the departing trip
-     * @return the transfer time in seconds. May contain special (negative) values which meaning
-     *   can be found in the StopTransfer.*_TRANSFER constants. If no transfer is found,
-     *   StopTransfer.UNKNOWN_TRANSFER is returned.
+     * The transfers of the table by stop number. Transfers from stop number i lead to the stops
+     * toStops[i], in increasing order, and are described by transfers[i].
      */
-    private int getTransferTime(AgencyAndId fromStopId, AgencyAndId toStopId, Trip fromTrip, Trip toTrip) {
-        checkNotNull(fromStopId);
-        checkNotNull(toStopId);
-        
-        // Define transfer time to return
-        int transferTime = StopTransfer.UNKNOWN_TRANSFER; 
-        // Lookup transfer between two stops
-        StopTransfer stopTransfer = table.get(new P2<AgencyAndId>(fromStopId, toStopId));
-        if (stopTransfer != null) {
+    private static class Index {
+
+        private static final int[] NO_STOPS = new int[0];
+
+        private final Map<AgencyAndId, Integer> stopNumbers = new HashMap<AgencyAndId, Integer>();
+
+        private final int[][] toStops;
+
+        private final StopTransfer[][] transfers;
+
+        /** The numbers of the stops looked up so far and of their parent stations, by stop id */
+        private final Map<AgencyAndId, int[]> resolved = new ConcurrentHashMap<AgencyAndId, int[]>();
+
+        Index(Map<P2<AgencyAndId>, StopTransfer> table) {
+            for (P2<AgencyAndId> pair : table.keySet()) {
+                number(pair.getFirst());
+                number(pair.getSecond());
+            }
+            int nStops = stopNumbers.size();
+            int[] counts = new int[nStops];
+            for (P2<AgencyAndId> pair : table.keySet()) {
+                counts[stopNumbers.get(pair.getFirst())]++;
+            }
+            // pack the destination number and the position in the table to sort them together
+            long[][] keys = new long[nStops][];
+            List<StopTransfer> values = new ArrayList<StopTransfer>(table.size());
+            for (Entry<P2<AgencyAndId>, StopTransfer> entry : table.entrySet()) {
+                int from = stopNumbers.get(entry.getKey().getFirst());
+                int to = stopNumbers.get(entry.getKey().getSecond());
+                if (keys[from] == null)
+                    keys[from] = new long[counts[from]];
+                keys[from][--counts[from]] = ((long) to << 32) | values.size();
+                values.add(entry.getValue());
+            }
+            toStops = new int[nStops][];
+            transfers = new StopTransfer[nStops][];
+            for (int from = 0; from < nStops; from++) {
+                long[] k = keys[from];
+                if (k == null) {
+                    toStops[from] = NO_STOPS;
+                    transfers[from] = new StopTransfer[0];
+                    continue;
+                }
+                Arrays.sort(k);
+                toStops[from] = new int[k.length];
+                transfers[from] = new StopTransfer[k.length];
+                for (int i = 0; i < k.length; i++) {
+                    toStops[from][i] = (int) (k[i] >>> 32);
+                    transfers[from][i] = values.get((int) k[i]);
+                }
+            }
+        }
+
+        private void number(AgencyAndId stopId) {
+            if (!stopNumbers.containsKey(stopId))
+                stopNumbers.put(stopId, stopNumbers.size());
+        }
+
+        /** @return the number of the stop and of its parent station, -1 if not in the table */
+        int[] resolve(Stop stop) {
+            int[] numbers = resolved.get(stop.getId());
+            if (numbers == null) {
+                Integer number = stopNumbers.get(stop.getId());
+                Integer parentNumber = null;
+                if (stop.getParentStation() != null && !stop.getParentStation().isEmpty()) {
+                    parentNumber = stopNumbers.get(new AgencyAndId(stop.getId().getAgencyId(),
+                            stop.getParentStation()));
+                }
+                numbers = new int[] { number == null ? -1 : number,
+                        parentNumber == null ? -1 : parentNumber };
+                resolved.put(stop.getId(), numbers);
+            }
+            return numbers;
+        }
+
+        /**
+         * @return the transfer time between the stops with the given numbers, or UNKNOWN_TRANSFER
+         *         if either is -1 or there is no transfer between them
+         */
+        int getTransferTime(int from, int to, Trip fromTrip, Trip toTrip) {
+            if (from < 0 || to < 0)
+                return StopTransfer.UNKNOWN_TRANSFER;
+            int i = Arrays.binarySearch(toStops[from], to);
+            if (i < 0)
+                return StopTransfer.UNKNOWN_TRANSFER;
             // Lookup correct transfer time between two stops and two trips
-            transferTime = stopTransfer.getTransferTime(fromTrip, toTrip);
+            return transfers[from][i].getTransferTime(fromTrip, toTrip);
         }
-        return transferTime;
     }
     
     /**
@@ -183,6 +272,9 @@ public class TransferTable implements Serializable {
         // Create and add a specific transfer to the stop transfer
         SpecificTransfer specificTransfer = new SpecificTransfer(fromRoute, toRoute, fromTrip, toTrip, transferTime);
         stopTransfer.addSpecificTransfer(specificTransfer);
+
+        // the index will be rebuilt on the next lookup
+        index = null;
     }
     
     /**
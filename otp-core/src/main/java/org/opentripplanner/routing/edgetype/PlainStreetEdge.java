@@ -27,6 +27,7 @@ import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.DirectionUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
@@ -257,7 +258,25 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         backWalkingBike &= TraverseMode.WALK.equals(backMode);
         walkingBike &= TraverseMode.WALK.equals(traverseMode);
 
-        if (!canTraverse(options, traverseMode)) {
+        double time, weight;
+        RoutingContext rctx = s0.getContext();
+        StreetCostTable costTable = rctx == null ? null : rctx.getStreetCostTable(options,
+                traverseMode);
+        int costIndex = costTable == null ? -1 : costTable.indexOf(this);
+        if (costIndex >= 0) {
+            time = costTable.getTime(costIndex);
+            weight = costTable.getWeight(costIndex);
+        } else {
+            double[] cost = rctx == null ? new double[2] : rctx.getStreetCostBuffer();
+            if (computeCost(options, traverseMode, cost)) {
+                time = cost[0];
+                weight = cost[1];
+            } else {
+                time = Double.NaN;
+                weight = Double.NaN;
+            }
+        }
+        if (Double.isNaN(time)) {
             if (traverseMode == TraverseMode.BICYCLE) {
                 // try walking bike since you can't ride here
                 return doTraverse(s0, options.getBikeWalkingOptions(),
@@ -268,73 +287,7 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
 
         // Automobiles have variable speeds depending on the edge type
         double speed = calculateSpeed(options, traverseMode);
-        
-        double time = length / speed;
-        double weight;
-        // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
-        if (options.wheelchairAccessible) {
-            weight = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
-        } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
-            time = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
-            switch (options.optimize) {
-            case SAFE:
-                weight = elevationProfileSegment.getBicycleSafetyEffectiveLength() / speed;
-                break;
-            case GREENWAYS:
-                weight = elevationProfileSegment.getBicycleSafetyEffectiveLength() / speed;
-                if (elevationProfileSegment.getBicycleSafetyEffectiveLength() / length <= GREENWAY_SAFETY_FACTOR) {
-                    // greenways are treated as even safer than they really are
-                    weight *= 0.66;
-                }
-                break;
-            case FLAT:
-                /* see notes in StreetVertex on speed overhead */
-                weight = length / speed + elevationProfileSegment.getSlopeWorkCost();
-                break;
-            case QUICK:
-                weight = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
-                break;
-            case TRIANGLE:
-                double quick = elevationProfileSegment.getSlopeSpeedEffectiveLength();
-                double safety = elevationProfileSegment.getBicycleSafetyEffectiveLength();
-                double slope = elevationProfileSegment.getSlopeWorkCost();
-                weight = quick * options.getTriangleTimeFactor() + slope
-                        * options.getTriangleSlopeFactor() + safety
-                        * options.getTriangleSafetyFactor();
-                weight /= speed;
-                break;
-            default:
-                weight = length / speed;
-            }
-        } else {
-            if (walkingBike) {
-                // take slopes into account when walking bikes
-                time = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
-            }
-            weight = time;
-            if (traverseMode.equals(TraverseMode.WALK)) {
-                // take slopes into account when walking
-                double costs = ElevationUtils.getWalkCostsForSlope(length, elevationProfileSegment.getMaxSlope());
-                // as the cost walkspeed is assumed to be for 4.8km/h (= 1.333 m/sec) we need to adjust
-                // for the walkspeed set by the user
-                double elevationUtilsSpeed = 4.0 / 3.0;
-                weight = costs * (elevationUtilsSpeed / speed);
-                time = weight; //treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
-                /*
-                // debug code
-                if(weight > 100){
-                    double timeflat = length / speed;
-                    System.out.format("line length: %.1f m, slope: %.3f ---> slope costs: %.1f , weight: %.1f , time (flat):  %.1f %n", length, elevationProfileSegment.getMaxSlope(), costs, weight, timeflat);
-                }
-                */
-            }
-        }
-        if (isStairs()) {
-            weight *= options.stairsReluctance;
-        } else {
-            weight *= options.walkReluctance;
-        }
-        
+
         StateEditor s1 = s0.edit(this);
         s1.setBackMode(traverseMode);
         s1.setBackWalkingBike(walkingBike);
@@ -415,6 +368,89 @@ public class PlainStreetEdge extends StreetEdge implements Cloneable {
         return s1.makeState();
     }
 
+    /**
+     * Compute the time in seconds and the weight of traversing this edge with the given options
+     * and mode, not counting turns. This is what StreetCostTable precomputes.
+     * 
+     * @param result receives the time and the weight, in that order
+     * @return false if this edge cannot be traversed with the given options and mode
+     */
+    boolean computeCost(RoutingRequest options, TraverseMode traverseMode, double[] result) {
+        if (!canTraverse(options, traverseMode))
+            return false;
+        boolean walkingBike = options.isWalkingBike() && TraverseMode.WALK.equals(traverseMode);
+        double speed = calculateSpeed(options, traverseMode);
+
+        double time = length / speed;
+        double weight;
+        // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
+        if (options.wheelchairAccessible) {
+            weight = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
+        } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
+            time = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
+            switch (options.optimize) {
+            case SAFE:
+                weight = elevationProfileSegment.getBicycleSafetyEffectiveLength() / speed;
+                break;
+            case GREENWAYS:
+                weight = elevationProfileSegment.getBicycleSafetyEffectiveLength() / speed;
+                if (elevationProfileSegment.getBicycleSafetyEffectiveLength() / length <= GREENWAY_SAFETY_FACTOR) {
+                    // greenways are treated as even safer than they really are
+                    weight *= 0.66;
+                }
+                break;
+            case FLAT:
+                /* see notes in StreetVertex on speed overhead */
+                weight = length / speed + elevationProfileSegment.getSlopeWorkCost();
+                break;
+            case QUICK:
+                weight = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
+                break;
+            case TRIANGLE:
+                double quick = elevationProfileSegment.getSlopeSpeedEffectiveLength();
+                double safety = elevationProfileSegment.getBicycleSafetyEffectiveLength();
+                double slope = elevationProfileSegment.getSlopeWorkCost();
+                weight = quick * options.getTriangleTimeFactor() + slope
+                        * options.getTriangleSlopeFactor() + safety
+                        * options.getTriangleSafetyFactor();
+                weight /= speed;
+                break;
+            default:
+                weight = length / speed;
+            }
+        } else {
+            if (walkingBike) {
+                // take slopes into account when walking bikes
+                time = elevationProfileSegment.getSlopeSpeedEffectiveLength() / speed;
+            }
+            weight = time;
+            if (traverseMode.equals(TraverseMode.WALK)) {
+                // take slopes into account when walking
+                double costs = ElevationUtils.getWalkCostsForSlope(length, elevationProfileSegment.getMaxSlope());
+                // as the cost walkspeed is assumed to be for 4.8km/h (= 1.333 m/sec) we need to adjust
+                // for the walkspeed set by the user
+                double elevationUtilsSpeed = 4.0 / 3.0;
+                weight = costs * (elevationUtilsSpeed / speed);
+                time = weight; //treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
+                /*
+                // debug code
+                if(weight > 100){
+                    double timeflat = length / speed;
+                    System.out.format("line length: %.1f m, slope: %.3f ---> slope costs: %.1f , weight: %.1f , time (flat):  %.1f %n", length, elevationProfileSegment.getMaxSlope(), costs, weight, timeflat);
+                }
+                */
+            }
+        }
+        if (isStairs()) {
+            weight *= options.stairsReluctance;
+        } else {
+            weight *= options.walkReluctance;
+        }
+        result[0] = time;
+        result[1] = weight;
+        return true;
+    }
+
     /**
      * Calculate the average automobile traversal speed of this segment, given
      * the RoutingRequest, and return it in meters per second.
@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * The time and weight of traversing every street edge of a graph under one cost profile, before
+ * turn costs, computed once so that PlainStreetEdge.doTraverse reduces to an array lookup.
+ *
+ * Rows are indexed by edge id. Edges created after the edge index of the graph, such as the
+ * temporary edges of a request, are not in the table and are costed as before.
+ */
+public class StreetCostTable {
+
+    /**
+     * The edge each row was computed for, to detect edges whose ids were reused. All the tables
+     * of a graph share it, see StreetCostTables.
+     */
+    private final PlainStreetEdge[] edges;
+
+    /** NaN if the edge cannot be traversed under this profile */
+    private final double[] times;
+
+    private final double[] weights;
+
+    /**
+     * Compute the costs of the given street edges, indexed by id, for the given options and mode.
+     */
+    StreetCostTable(PlainStreetEdge[] edges, RoutingRequest options, TraverseMode mode) {
+        this.edges = edges;
+        times = new double[edges.length];
+        weights = new double[edges.length];
+        Arrays.fill(times, Double.NaN);
+        double[] cost = new double[2];
+        for (int id = 0; id < edges.length; id++) {
+            if (edges[id] != null && edges[id].computeCost(options, mode, cost)) {
+                times[id] = cost[0];
+                weights[id] = cost[1];
+            }
+        }
+    }
+
+    /** @return the permanent street edges of the graph, indexed by id */
+    static PlainStreetEdge[] indexEdges(Graph graph) {
+        int maxId = -1;
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof PlainStreetEdge && !e.isPartial())
+                    maxId = Math.max(maxId, e.getId());
+            }
+        }
+        PlainStreetEdge[] edges = new PlainStreetEdge[maxId + 1];
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof PlainStreetEdge && !e.isPartial() && e.getId() >= 0)
+                    edges[e.getId()] = (PlainStreetEdge) e;
+            }
+        }
+        return edges;
+    }
+
+    /** @return the row of the given edge, or -1 if it is not in this table */
+    int indexOf(PlainStreetEdge edge) {
+        int id = edge.getId();
+        if (id < 0 || id >= edges.length || edges[id] != edge)
+            return -1;
+        return id;
+    }
+
+    /** @return the traversal time in seconds, or NaN if the edge cannot be traversed */
+    double getTime(int index) {
+        return times[index];
+    }
+
+    double getWeight(int index) {
+        return weights[index];
+    }
+
+    public int size() {
+        return edges.length;
+    }
+}
@@ -0,0 +1,146 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The street cost tables of one graph, by cost profile. A profile is everything in a
+ * RoutingRequest that the base cost of a street edge depends on: the mode, speed, reluctances,
+ * optimization and wheelchair settings.
+ *
+ * Compiling a table takes one pass over the graph, which is only worth it for profiles that many
+ * requests share, such as the defaults of each mode. A table is therefore only compiled once a
+ * profile has been requested a few times, and only the most recently used tables are kept.
+ * Requests with other profiles cost the edges on the fly.
+ *
+ * The costs of the street edges of a loaded graph never change: patches only attach alerts, and
+ * a rebuilt or reloaded graph is a new Graph with new tables. Tables are therefore never
+ * invalidated.
+ */
+public class StreetCostTables {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetCostTables.class);
+
+    /** The number of requests for a profile after which its table is compiled */
+    private static final int COMPILE_THRESHOLD = 3;
+
+    /** The number of tables kept per graph */
+    private static final int MAX_TABLES = 8;
+
+    private static final Map<Graph, StreetCostTables> tablesByGraph =
+            Collections.synchronizedMap(new WeakHashMap<Graph, StreetCostTables>());
+
+    /** Tables can be turned off for a graph, to measure their benefit or rule them out. */
+    private volatile boolean enabled = true;
+
+    /** The permanent street edges of the graph by id, shared by all its tables */
+    private PlainStreetEdge[] edgeIndex;
+
+    private final Cache<List<Object>, StreetCostTable> tables = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TABLES).build();
+
+    private final Cache<List<Object>, AtomicInteger> requestCounts = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TABLES * 16).build();
+
+    /** @return the cost tables of the given graph, which are only referenced weakly from it */
+    public static StreetCostTables forGraph(Graph graph) {
+        synchronized (tablesByGraph) {
+            StreetCostTables tables = tablesByGraph.get(graph);
+            if (tables == null) {
+                tables = new StreetCostTables();
+                tablesByGraph.put(graph, tables);
+            }
+            return tables;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the table for the profile of the given options and mode, or null if the profile has
+     *         not been requested often enough to be compiled yet
+     */
+    public StreetCostTable get(final Graph graph, final RoutingRequest options,
+            final TraverseMode mode) {
+        if (!enabled)
+            return null;
+        final List<Object> profile = profile(options, mode);
+        StreetCostTable table = tables.getIfPresent(profile);
+        if (table != null)
+            return table;
+        try {
+            AtomicInteger count = requestCounts.get(profile, new Callable<AtomicInteger>() {
+                @Override
+                public AtomicInteger call() {
+                    return new AtomicInteger();
+                }
+            });
+            if (count.incrementAndGet() < COMPILE_THRESHOLD)
+                return null;
+            return tables.get(profile, new Callable<StreetCostTable>() {
+                @Override
+                public StreetCostTable call() {
+                    long t0 = System.currentTimeMillis();
+                    StreetCostTable table = new StreetCostTable(getEdgeIndex(graph), options,
+                            mode);
+                    LOG.debug("compiled street costs of {} edges for {} in {} msec",
+                            table.size(), profile, System.currentTimeMillis() - t0);
+                    return table;
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private synchronized PlainStreetEdge[] getEdgeIndex(Graph graph) {
+        if (edgeIndex == null)
+            edgeIndex = StreetCostTable.indexEdges(graph);
+        return edgeIndex;
+    }
+
+    private static List<Object> profile(RoutingRequest options, TraverseMode mode) {
+        boolean triangle = mode == TraverseMode.BICYCLE
+                && options.optimize == OptimizeType.TRIANGLE;
+        return Arrays.<Object> asList(mode, options.getSpeed(mode),
+                mode == TraverseMode.BICYCLE ? options.optimize : null,
+                options.isWalkingBike() && mode == TraverseMode.WALK,
+                options.wheelchairAccessible,
+                options.wheelchairAccessible ? options.maxSlope : null,
+                options.walkReluctance, options.stairsReluctance,
+                triangle ? options.triangleTimeFactor : null,
+                triangle ? options.triangleSlopeFactor : null,
+                triangle ? options.triangleSafetyFactor : null);
+    }
+}
@@ -26,6 +26,7 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.gtfs.BikeAccess;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.trippattern.CanceledTripTimes;
@@ -58,6 +59,12 @@ public class Timetable implements Serializable {
      */
     private static final int INDEX_THRESHOLD = 16;
 
+    /** Bit in the trip flag columns: the trip is wheelchair accessible. */
+    private static final byte TRIP_WHEELCHAIR_ACCESSIBLE = 1;
+
+    /** Bit in the trip flag columns: bicycles are allowed on the trip. */
+    private static final byte TRIP_BIKES_ALLOWED = 2;
+
     private final TableTripPattern pattern;
     
     /** 
@@ -81,6 +88,24 @@ public class Timetable implements Serializable {
     private transient TripTimes[][] arrivalsIndex = null;
     private transient TripTimes[][] departuresIndex = null;
 
+    /**
+     * The columnar layout of the indexes, which lets getNextTrip find a trip without touching the
+     * TripTimes it rejects. departureTimes[hop][i] is the departure time at that hop of the i-th
+     * trip of the departures index for that hop (arrivals likewise), and the flag columns hold the
+     * per-trip TRIP_* bits in the order of each index array. Null whenever the indexes are null, or
+     * after an update until the timetable is finished again.
+     * 
+     * The time columns copy the times of the TripTimes, one int per trip and hop for departures
+     * and as many again for arrivals. An arrival column that holds the same times in the same
+     * order as the departure column of the next hop (no dwell time at that stop) is that same
+     * array, so a pattern without dwell times costs about one extra copy of its times rather
+     * than two.
+     */
+    private transient int[][] departureTimes = null;
+    private transient int[][] arrivalTimes = null;
+    private transient byte[][] departureFlags = null;
+    private transient byte[][] arrivalFlags = null;
+
     /** For each hop, the best running time. This serves to provide lower bounds on traversal time. */
     private transient int bestRunningTimes[];
     
@@ -152,7 +177,80 @@ public class Timetable implements Serializable {
             //LOG.debug("Reusing departures index where arrivals index is identical.");
             arrivalsIndex = departuresIndex;
         }
+        indexColumns();
+    }
+
+    /**
+     * Copy the times and trip flags of the sorted indexes into primitive arrays. The flag columns
+     * share the structure of the indexes, so FIFO compression carries over to them.
+     */
+    private void indexColumns() {
+        int nHops = pattern.getHopCount();
+        int[][] departureTimes = new int[nHops][];
+        int[][] arrivalTimes = new int[nHops][];
+        for (int hop = 0; hop < nHops; hop++) {
+            TripTimes[] departures = departuresIndex[departuresIndex.length == 1 ? 0 : hop];
+            departureTimes[hop] = new int[departures.length];
+            for (int i = 0; i < departures.length; i++) {
+                departureTimes[hop][i] = departures[i].getDepartureTime(hop);
+            }
+        }
+        for (int hop = 0; hop < nHops; hop++) {
+            TripTimes[] arrivals = arrivalsIndex[arrivalsIndex.length == 1 ? 0 : hop];
+            if (hop + 1 < nHops && arrivalsMatchNextDepartures(arrivals, hop,
+                    departureTimes[hop + 1])) {
+                arrivalTimes[hop] = departureTimes[hop + 1];
+                continue;
+            }
+            arrivalTimes[hop] = new int[arrivals.length];
+            for (int i = 0; i < arrivals.length; i++) {
+                arrivalTimes[hop][i] = arrivals[i].getArrivalTime(hop);
+            }
+        }
+        byte[][] departureFlags = tripFlags(departuresIndex);
+        this.arrivalFlags = arrivalsIndex == departuresIndex ? departureFlags
+                : tripFlags(arrivalsIndex);
+        this.departureFlags = departureFlags;
+        this.departureTimes = departureTimes;
+        this.arrivalTimes = arrivalTimes;
+    }
+
+    /**
+     * @return whether the trips of the arrivals index at this hop arrive at the times of the
+     *         departure column of the next hop, so that the two columns can be one array
+     */
+    private static boolean arrivalsMatchNextDepartures(TripTimes[] arrivals, int hop,
+            int[] nextDepartureTimes) {
+        if (arrivals.length != nextDepartureTimes.length)
+            return false;
+        for (int i = 0; i < arrivals.length; i++) {
+            if (arrivals[i].getArrivalTime(hop) != nextDepartureTimes[i])
+                return false;
+        }
+        return true;
     }
+
+    private static byte[][] tripFlags(TripTimes[][] index) {
+        byte[][] flags = new byte[index.length][];
+        for (int hop = 0; hop < index.length; hop++) {
+            if (hop > 0 && index[hop] == index[hop - 1]) {
+                flags[hop] = flags[hop - 1];
+                continue;
+            }
+            flags[hop] = new byte[index[hop].length];
+            for (int i = 0; i < index[hop].length; i++) {
+                Trip trip = index[hop][i].getTrip();
+                byte f = 0;
+                if (trip.getWheelchairAccessible() == 1)
+                    f |= TRIP_WHEELCHAIR_ACCESSIBLE;
+                if (BikeAccess.fromTrip(trip) == BikeAccess.ALLOWED)
+                    f |= TRIP_BIKES_ALLOWED;
+                flags[hop][i] = f;
+            }
+        }
+        return flags;
+    }
+
     
     /** 
      * Get the next (previous) trip that departs (arrives) from the specified stop 
@@ -173,7 +271,36 @@ public class Timetable implements Serializable {
         int index;
         TripTimes[][] tableIndex = boarding ? departuresIndex : arrivalsIndex;
         Stop currentStop = pattern.getStop(stopIndex);
-        if (tableIndex != null) {
+        // read the columns once, as an update may clear them
+        int[][] timeColumns = boarding ? departureTimes : arrivalTimes;
+        byte[][] flagColumns = boarding ? departureFlags : arrivalFlags;
+        if (tableIndex != null && timeColumns != null && flagColumns != null) {
+            int hop = boarding ? stopIndex : stopIndex - 1;
+            int row = tableIndex.length == 1 ? 0 : hop;
+            TripTimes[] sorted = tableIndex[row];
+            int[] times = timeColumns[hop];
+            byte[] flags = flagColumns[row];
+            // trips lacking any of these flags are skipped without looking at their TripTimes
+            int required = (state0.getOptions().wheelchairAccessible ? TRIP_WHEELCHAIR_ACCESSIBLE
+                    : 0) | (haveBicycle ? TRIP_BIKES_ALLOWED : 0);
+            if (boarding) {
+                for (index = firstAtOrAfter(times, time); index < times.length; index++) {
+                    if ((flags[index] & required) == required && sorted[index].tripAcceptable(
+                            state0, currentStop, sd, haveBicycle, stopIndex, boarding)) {
+                        bestTrip = sorted[index];
+                        break;
+                    }
+                }
+            } else {
+                for (index = firstAfter(times, time) - 1; index >= 0; index--) {
+                    if ((flags[index] & required) == required && sorted[index].tripAcceptable(
+                            state0, currentStop, sd, haveBicycle, stopIndex, boarding)) {
+                        bestTrip = sorted[index];
+                        break;
+                    }
+                }
+            }
+        } else if (tableIndex != null) {
             TripTimes[] sorted;
             // this timetable has been indexed, use binary search
             if (tableIndex.length == 1) // for optimized FIFO patterns
@@ -224,6 +351,25 @@ public class Timetable implements Serializable {
         }
         return bestTrip;
     }
+
+    /** @return the index of the first element of the sorted array that is at least key */
+    private static int firstAtOrAfter(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** @return the index of the first element of the sorted array that is greater than key */
+    private static int firstAfter(int[] sorted, int key) {
+        return firstAtOrAfter(sorted, key == Integer.MAX_VALUE ? key : key + 1);
+    }
     
     /** Gets the departure time for a given hop on a given trip */
     public int getDepartureTime(int hop, int trip) {
@@ -285,8 +431,20 @@ public class Timetable implements Serializable {
         } else {
             arrivalsIndex = null;
             departuresIndex = null;
+            clearColumns();
         }
     }
+
+    /**
+     * Drop the columns, so that getNextTrip searches the TripTimes of the indexes until the
+     * timetable is finished again.
+     */
+    void clearColumns() {
+        departureTimes = null;
+        arrivalTimes = null;
+        departureFlags = null;
+        arrivalFlags = null;
+    }
     
     public class DeparturesIterator implements Iterator<Integer> {
 
@@ -405,6 +563,8 @@ public class Timetable implements Serializable {
             }
             // Update succeeded, save the new TripTimes back into this Timetable.
             this.tripTimes.set(tripIndex, newTimes);
+            // the columns hold copies of the old times, the indexes refer to the TripTimes
+            clearColumns();
             return true;
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
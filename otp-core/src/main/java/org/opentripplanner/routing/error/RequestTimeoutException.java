@@ -0,0 +1,24 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.error;
+
+/**
+ * Indicates that a routing request could not be completed before its deadline, either because it
+ * waited too long for a routing thread or because the search itself took too long.
+ */
+public class RequestTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+}
@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.Getter;
@@ -47,6 +48,7 @@ import lombok.Setter;
 import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
@@ -60,9 +62,11 @@ import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TableTripPattern;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.patch.PatchOverlay;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.vertextype.PatternArriveVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
@@ -97,6 +101,12 @@ public class Graph implements Serializable {
 
     private GraphBundle bundle;
 
+    /**
+     * Identifies the contents of this graph across processes. It is assigned when the graph is
+     * saved and stored in the graph file, so that every server loading the same file sees it.
+     */
+    private String buildId = null;
+
     /* vertex index by name is reconstructed from edges */
     private transient Map<String, Vertex> vertices;
     
@@ -145,6 +155,12 @@ public class Graph implements Serializable {
     @Setter
     private transient GraphUpdaterManager updaterManager = null;
 
+    /**
+     * The patches in effect on this graph. It is replaced as a whole whenever patches are applied
+     * or expired, and each search captures it once in its RoutingContext.
+     */
+    private transient volatile PatchOverlay patchOverlay = null;
+
     public Graph(Graph basedOn) {
         this();
         this.bundle = basedOn.getBundle();
@@ -349,6 +365,16 @@ public class Graph implements Serializable {
         return bundle;
     }
 
+    /**
+     * @return the id assigned to this graph when it was last saved, or a random id if it has never
+     *         been saved, which is then only known to this process.
+     */
+    public synchronized String getBuildId() {
+        if (buildId == null)
+            buildId = UUID.randomUUID().toString();
+        return buildId;
+    }
+
     public void setBundle(GraphBundle bundle) {
         this.bundle = bundle;
     }
@@ -493,6 +519,13 @@ public class Graph implements Serializable {
         for (TableTripPattern ttp : tableTripPatterns) {
             if (ttp != null) ttp.finish(); // skip frequency-based patterns with no table (null)
         }
+        if (transferTable != null) {
+            List<Stop> stops = new ArrayList<Stop>();
+            for (TransitStop ts : IterableLibrary.filter(this.getVertices(), TransitStop.class)) {
+                stops.add(ts.getStop());
+            }
+            transferTable.index(stops);
+        }
     }
     
     /**
@@ -606,6 +639,9 @@ public class Graph implements Serializable {
         }
         LOG.debug("Assigning vertex/edge ID numbers...");
         this.rebuildVertexAndEdgeIndices();
+        synchronized (this) {
+            this.buildId = UUID.randomUUID().toString();
+        }
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
@@ -748,4 +784,14 @@ public class Graph implements Serializable {
         }
     }
 
-}
\ No newline at end of file
+    /** @return the patches in effect on this graph, never null */
+    public PatchOverlay getPatchOverlay() {
+        PatchOverlay overlay = patchOverlay;
+        return overlay == null ? PatchOverlay.EMPTY : overlay;
+    }
+
+    /** Publish a new set of patches, which will be seen by searches started from now on. */
+    public void setPatchOverlay(PatchOverlay patchOverlay) {
+        this.patchOverlay = patchOverlay;
+    }
+}
@@ -155,6 +155,32 @@ public class CandidateEdge {
                         edge, score, heading, directionDifference, nearestPointOnEdge);
     }
 
+    /**
+     * The distance between a point and a coordinate sequence, in the same units as the distance of
+     * a CandidateEdge, computed without allocating so that far away edges can be rejected before
+     * constructing a CandidateEdge for them.
+     * 
+     * @param xscale the cosine of the latitude of the point
+     */
+    public static double distance(CoordinateSequence coordSeq, double px, double py,
+            double xscale) {
+        double bestDist2 = Double.POSITIVE_INFINITY;
+        int n = coordSeq.size();
+        for (int seg = 0; seg < n - 1; seg++) {
+            double x0 = coordSeq.getX(seg);
+            double y0 = coordSeq.getY(seg);
+            double x1 = coordSeq.getX(seg + 1);
+            double y1 = coordSeq.getY(seg + 1);
+            double frac = GeometryUtils.segmentFraction(x0, y0, x1, y1, px, py, xscale);
+            double dx = (x0 + frac * (x1 - x0) - px) * xscale;
+            double dy = y0 + frac * (y1 - y0) - py;
+            double dist2 = dx * dx + dy * dy;
+            if (dist2 < bestDist2)
+                bestDist2 = dist2;
+        }
+        return Math.sqrt(bestDist2);
+    }
+
     /* PRIVATE METHODS */
 
     /** Initializes this.nearestPointOnEdge and other distance-related variables. */
@@ -14,16 +14,23 @@
 package org.opentripplanner.routing.impl;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Currency;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.FareAttribute;
 import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.model.T2;
 import org.opentripplanner.routing.core.Fare;
 import org.opentripplanner.routing.core.FareRuleSet;
 import org.opentripplanner.routing.core.State;
@@ -36,6 +43,10 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 /** A set of edges on a single route, with associated information for calculating fares */
 class Ride {
     
@@ -118,6 +129,22 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
 
     protected HashMap<AgencyAndId, FareAttribute> fareAttributes;
 
+    /** The number of ride sequence fares remembered, see calculateCost */
+    private static final int MAX_CACHED_FARES = 10000;
+
+    /**
+     * By feed id and route, the fares that can apply to a ride sequence including that route, in
+     * increasing order of price. Filled on demand, as this service is serialized with the graph.
+     */
+    private transient volatile ConcurrentMap<T2<String, AgencyAndId>, FareAttribute[]> candidates;
+
+    /**
+     * The best fare of each ride sequence computed so far. All itineraries of a request, and of
+     * the requests that follow, mostly share their ride sequences, whose fares are then only
+     * computed once.
+     */
+    private transient volatile Cache<List<Object>, Float> fareCache;
+
     public DefaultFareServiceImpl(HashMap<AgencyAndId, FareRuleSet>   fareRules,
                                   HashMap<AgencyAndId, FareAttribute> fareAttributes) {
         this.fareRules = fareRules;
@@ -234,18 +261,22 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
             transfersUsed += 1;
         }
         
-        FareAttribute bestAttribute = null;
-        float bestFare = Float.POSITIVE_INFINITY;
         long tripTime = lastRideStartTime - startTime;
         long journeyTime = lastRideEndTime - startTime;
-        // find the best fare that matches this set of rides
-        for (AgencyAndId fareId : fareAttributes.keySet()) {
-        	// fares also don't really have an agency id, they will have the per-feed default id
-            if ( ! fareId.getAgencyId().equals(feedId))
-                continue;
-            FareRuleSet ruleSet = fareRules.get(fareId);
+        // the fare only depends on these, whatever the rides
+        List<Object> key = Arrays.<Object> asList(feedId, startZone, endZone, zones, routes,
+                transfersUsed, tripTime, journeyTime);
+        Float cached = getFareCache().getIfPresent(key);
+        if (cached != null)
+            return cached;
+
+        FareAttribute bestAttribute = null;
+        float bestFare = Float.POSITIVE_INFINITY;
+        // find the cheapest fare that matches this set of rides, among those that can apply to
+        // its first route
+        for (FareAttribute attribute : getCandidates(feedId, firstRide.route)) {
+            FareRuleSet ruleSet = fareRules.get(attribute.getId());
             if (ruleSet == null || ruleSet.matches(startZone, endZone, zones, routes)) {
-                FareAttribute attribute = fareAttributes.get(fareId);
                 if (attribute.isTransfersSet() && attribute.getTransfers() < transfersUsed) {
                     continue;
                 }
@@ -259,11 +290,10 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
                     journeyTime > attribute.getJourneyDuration()) {
                     continue;
                 }
-                float newFare = attribute.getPrice();
-                if (newFare < bestFare) {
-                    bestAttribute = attribute;
-                    bestFare = newFare;
-                }
+                // candidates are sorted by price, so this is the best one
+                bestAttribute = attribute;
+                bestFare = attribute.getPrice();
+                break;
             }
         }
         LOG.debug("{} best for {}", bestAttribute, rides);
@@ -273,8 +303,70 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
             else
                 LOG.warn("No fare for a ride sequence: {}", rides);
         }
+        getFareCache().put(key, bestFare);
         return bestFare;
 
     }
 
+    /**
+     * A lower bound on the fare of any itinerary riding the given route of the given feed: the
+     * ride must be covered by some fare that allows the route. A fare-aware search can keep the
+     * largest bound over the routes boarded so far as an admissible estimate of the final fare.
+     * 
+     * @return the cheapest fare that can apply to the route, or infinity if there is none
+     */
+    public float getFareLowerBound(String feedId, AgencyAndId route) {
+        FareAttribute[] fares = getCandidates(feedId, route);
+        return fares.length == 0 ? Float.POSITIVE_INFINITY : fares[0].getPrice();
+    }
+
+    /**
+     * @return the fares of the feed that are not restricted to routes other than the given one,
+     *         cheapest first
+     */
+    private FareAttribute[] getCandidates(String feedId, AgencyAndId route) {
+        ConcurrentMap<T2<String, AgencyAndId>, FareAttribute[]> candidates = this.candidates;
+        if (candidates == null) {
+            candidates = new ConcurrentHashMap<T2<String, AgencyAndId>, FareAttribute[]>();
+            this.candidates = candidates;
+        }
+        T2<String, AgencyAndId> key = new T2<String, AgencyAndId>(feedId, route);
+        FareAttribute[] result = candidates.get(key);
+        if (result == null) {
+            List<FareAttribute> fares = new ArrayList<FareAttribute>();
+            for (FareAttribute attribute : fareAttributes.values()) {
+                // fares also don't really have an agency id, they will have the per-feed default id
+                if (!attribute.getId().getAgencyId().equals(feedId))
+                    continue;
+                FareRuleSet ruleSet = fareRules.get(attribute.getId());
+                if (ruleSet == null || ruleSet.getRoutes().isEmpty()
+                        || ruleSet.getRoutes().contains(route))
+                    fares.add(attribute);
+            }
+            Collections.sort(fares, new Comparator<FareAttribute>() {
+                @Override
+                public int compare(FareAttribute a, FareAttribute b) {
+                    return Float.compare(a.getPrice(), b.getPrice());
+                }
+            });
+            result = fares.toArray(new FareAttribute[fares.size()]);
+            candidates.put(key, result);
+        }
+        return result;
+    }
+
+    /** @return the hits and misses of the ride sequence fares remembered by calculateCost */
+    public CacheStats getFareCacheStats() {
+        return getFareCache().stats();
+    }
+
+    private Cache<List<Object>, Float> getFareCache() {
+        Cache<List<Object>, Float> cache = fareCache;
+        if (cache == null) {
+            cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_FARES).recordStats().build();
+            fareCache = cache;
+        }
+        return cache;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Setter;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
+import org.opentripplanner.routing.core.Fare;
+import org.opentripplanner.routing.core.Fare.FareType;
+import org.opentripplanner.routing.core.Money;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.pathparser.BasicPathParser;
+import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.services.FareService;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.PathService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ParetoShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Returns the Pareto set of itineraries on travel time, number of transfers, walk distance and
+ * fare, found by a single A* search over a ParetoShortestPathTree rather than the repeated
+ * searches with decreasing timeouts of MultiObjectivePathServiceImpl.
+ *
+ * The labels of the search compare weight, time, walk distance and boardings. Fares are only
+ * known for complete paths, so they are compared when the itineraries are extracted: an itinerary
+ * is returned unless another one is no worse on all four criteria and better on one.
+ *
+ * The search stops when the queue is empty, when maxPaths complete paths have been found, or when
+ * the states coming out of the queue weigh more than maxRelativeWeight times the best complete
+ * path. Like any A* search, it is abandoned after timeout seconds; the complete paths found by
+ * then are still returned.
+ *
+ * The complete paths share one bag of at most maxLabels labels, so maxPaths may not exceed
+ * maxLabels.
+ */
+public class ParetoPathServiceImpl implements PathService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParetoPathServiceImpl.class);
+
+    @Autowired public GraphService graphService;
+
+    /** The maximum number of labels kept per vertex */
+    @Setter
+    private int maxLabels = ParetoShortestPathTree.DEFAULT_MAX_LABELS;
+
+    /** The relative slack on weight, time and walk distance within which labels dominate */
+    @Setter
+    private double epsilon = ParetoShortestPathTree.DEFAULT_EPSILON;
+
+    @Setter
+    private double maxRelativeWeight = 1.5;
+
+    /** Seconds after which the search is abandoned, or 0 for no timeout */
+    @Setter
+    private double timeout = 4;
+
+    @Setter
+    private int maxPaths = 8;
+
+    @Setter
+    private TraverseVisitor traverseVisitor;
+
+    @Override
+    public List<GraphPath> getPaths(RoutingRequest options) {
+
+        if (options.rctx == null) {
+            options.setRoutingContext(graphService.getGraph(options.getRouterId()));
+            options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                    new NoThruTrafficPathParser() };
+        }
+
+        if (maxPaths > maxLabels)
+            throw new IllegalStateException("Cannot find " + maxPaths
+                    + " paths with room for only " + maxLabels + " labels per vertex.");
+
+        // Keep hold of the tree, which A* does not return when it times out
+        final ParetoShortestPathTree[] tree = new ParetoShortestPathTree[1];
+        GenericAStar aStar = new GenericAStar();
+        aStar.setShortestPathTreeFactory(new ShortestPathTreeFactory() {
+            @Override
+            public ShortestPathTree create(RoutingRequest request) {
+                return tree[0] = new ParetoShortestPathTree(request, maxLabels, epsilon);
+            }
+        });
+        aStar.setTraverseVisitor(traverseVisitor);
+        ShortestPathTree spt = aStar.getShortestPathTree(options, timeout,
+                new SearchTerminationStrategy() {
+                    @Override
+                    public boolean shouldSearchContinue(Vertex origin, Vertex target,
+                            State current, ShortestPathTree tree, RoutingRequest request) {
+                        ParetoShortestPathTree pareto = (ParetoShortestPathTree) tree;
+                        return pareto.getTargetCount() < maxPaths && current.getWeight()
+                                <= pareto.getBestTargetWeight() * maxRelativeWeight;
+                    }
+                });
+        if (spt == null && !options.rctx.debug.timedOut)
+            return null; // interrupted
+
+        ParetoShortestPathTree pareto = tree[0];
+        if (spt == null)
+            LOG.debug("timeout with {} paths", pareto.getTargetCount());
+        LOG.debug("{} labels pruned by complete paths, {} evicted from full bags",
+                pareto.getTargetPrunedCount(), pareto.getEvictedCount());
+        List<GraphPath> paths = new ArrayList<GraphPath>();
+        for (State s : pareto.getTargetStates()) {
+            paths.add(new GraphPath(s, true));
+        }
+        if (!paths.isEmpty())
+            options.rctx.debug.foundPath();
+        return paretoSet(paths, options.rctx.graph.getService(FareService.class));
+    }
+
+    /**
+     * @return the given paths, in the same order, without those that another path dominates on
+     *         duration, transfers, walk distance and fare
+     */
+    private List<GraphPath> paretoSet(List<GraphPath> paths, FareService fareService) {
+        int n = paths.size();
+        double[][] criteria = new double[n][];
+        for (int i = 0; i < n; i++) {
+            GraphPath path = paths.get(i);
+            criteria[i] = new double[] { path.getDuration(),
+                    path.states.getLast().getNumBoardings(), path.getWalkDistance(),
+                    fareCents(path, fareService) };
+        }
+        List<GraphPath> result = new ArrayList<GraphPath>(n);
+        PATH: for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (j != i && dominates(criteria[j], criteria[i], j < i))
+                    continue PATH;
+            }
+            result.add(paths.get(i));
+        }
+        return result;
+    }
+
+    /** @return true if a is no worse than b on every criterion, and better on one or first */
+    private static boolean dominates(double[] a, double[] b, boolean first) {
+        boolean better = first;
+        for (int k = 0; k < a.length; k++) {
+            if (a[k] > b[k])
+                return false;
+            if (a[k] < b[k])
+                better = true;
+        }
+        return better;
+    }
+
+    private static double fareCents(GraphPath path, FareService fareService) {
+        if (fareService == null)
+            return 0;
+        Fare fare = fareService.getCost(path);
+        if (fare == null)
+            return 0;
+        Money money = fare.getFare(FareType.regular);
+        return money == null ? 0 : money.getCents();
+    }
+}
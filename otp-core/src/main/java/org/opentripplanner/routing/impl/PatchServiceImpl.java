@@ -26,6 +26,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.patch.AlertPatch;
 import org.opentripplanner.routing.patch.Patch;
+import org.opentripplanner.routing.patch.PatchOverlay;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PatchService;
 import org.opentripplanner.util.MapUtils;
@@ -77,14 +78,90 @@ public class PatchServiceImpl implements PatchService {
 
     @Override
     public synchronized void apply(Patch patch) {
+        synchronized (getGraph()) {
+            PatchOverlay.Builder overlay = edit();
+            apply(patch, overlay);
+            publish(overlay);
+        }
+    }
+
+    @Override
+    public synchronized void expire(Set<String> purge) {
+        synchronized (getGraph()) {
+            PatchOverlay.Builder overlay = edit();
+            expire(purge, overlay);
+            publish(overlay);
+        }
+    }
+
+    @Override
+    public synchronized void expireAll() {
+        synchronized (getGraph()) {
+            PatchOverlay.Builder overlay = edit();
+            for (Patch patch : patches.values()) {
+                expire(patch, overlay);
+            }
+            patches.clear();
+            publish(overlay);
+        }
+    }
+
+    @Override
+    public synchronized void expireAllExcept(Set<String> retain) {
+        synchronized (getGraph()) {
+            PatchOverlay.Builder overlay = edit();
+            ArrayList<String> toRemove = new ArrayList<String>();
+
+            for (Entry<String, Patch> entry : patches.entrySet()) {
+                final String key = entry.getKey();
+                if (!retain.contains(key)) {
+                    toRemove.add(key);
+                    expire(entry.getValue(), overlay);
+                }
+            }
+            patches.keySet().removeAll(toRemove);
+            publish(overlay);
+        }
+    }
+
+    @Override
+    public synchronized void update(Set<String> purge, Collection<Patch> apply) {
+        synchronized (getGraph()) {
+            PatchOverlay.Builder overlay = edit();
+            expire(purge, overlay);
+            for (Patch patch : apply) {
+                apply(patch, overlay);
+            }
+            publish(overlay);
+        }
+    }
+
+    private Graph getGraph() {
         if (graph == null)
             graph = graphService.getGraph();
+        return graph;
+    }
+
+    /**
+     * Start a new version of the patch overlay of the graph. The lock of the graph must be held
+     * until the new version is published, as AbstractPatch.apply and remove do, so that no other
+     * version is published in between and then overwritten.
+     */
+    private PatchOverlay.Builder edit() {
+        return graph.getPatchOverlay().edit();
+    }
+
+    /** Make the changes visible to the searches started from now on, all at once. */
+    private void publish(PatchOverlay.Builder overlay) {
+        graph.setPatchOverlay(overlay.build());
+    }
 
+    private void apply(Patch patch, PatchOverlay.Builder overlay) {
         if (patches.containsKey(patch.getId())) {
-            expire(patches.get(patch.getId()));
+            expire(patches.get(patch.getId()), overlay);
         }
 
-        patch.apply(graph);
+        patch.apply(graph, overlay);
         patches.put(patch.getId(), patch);
         if (patch instanceof AlertPatch) {
             AlertPatch alertPatch = (AlertPatch) patch;
@@ -97,46 +174,19 @@ public class PatchServiceImpl implements PatchService {
                 MapUtils.addToMapList(patchesByRoute, route, patch);
             }
         }
-
     }
 
-    @Override
-    public void expire(Set<String> purge) {
+    private void expire(Set<String> purge, PatchOverlay.Builder overlay) {
         for (String patchId : purge) {
             if (patches.containsKey(patchId)) {
-                expire(patches.get(patchId));
+                expire(patches.get(patchId), overlay);
             }
         }
 
         patches.keySet().removeAll(purge);
     }
 
-    @Override
-    public void expireAll() {
-        for (Patch patch : patches.values()) {
-            expire(patch);
-        }
-        patches.clear();
-    }
-
-    @Override
-    public void expireAllExcept(Set<String> retain) {
-        ArrayList<String> toRemove = new ArrayList<String>();
-
-        for (Entry<String, Patch> entry : patches.entrySet()) {
-            final String key = entry.getKey();
-            if (!retain.contains(key)) {
-                toRemove.add(key);
-                expire(entry.getValue());
-            }
-        }
-        patches.keySet().removeAll(toRemove);
-    }
-
-    private void expire(Patch patch) {
-        if (graph == null)
-            graph = graphService.getGraph();
-
+    private void expire(Patch patch, PatchOverlay.Builder overlay) {
         if (patch instanceof AlertPatch) {
             AlertPatch alertPatch = (AlertPatch) patch;
             AgencyAndId stop = alertPatch.getStop();
@@ -149,6 +199,6 @@ public class PatchServiceImpl implements PatchService {
             }
         }
 
-        patch.remove(graph);
+        patch.remove(graph, overlay);
     }
 }
@@ -15,9 +15,25 @@ package org.opentripplanner.routing.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Setter;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -49,6 +65,15 @@ public class RetryingPathServiceImpl implements PathService {
 
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
+
+    /**
+     * Search for additional itineraries (beyond the first one) concurrently. The searches of all
+     * requests and all instances run on one shared pool of one thread per processor, so the
+     * number of search threads does not grow with the number of routing threads.
+     */
+    @Setter private boolean concurrent = true;
+
+    private static ExecutorService threadPool;
     
     /** Give up on searching for itineraries after this many seconds have elapsed. */
     public void setTimeout (double seconds) {
@@ -101,7 +126,9 @@ public class RetryingPathServiceImpl implements PathService {
         double initialMaxWalk = maxWalk;
         long maxTime = options.isArriveBy() ? 0 : Long.MAX_VALUE;
         RoutingRequest currOptions;
-        while (paths.size() < options.numItineraries) {
+        // Once the first path is found, the remaining searches can be run concurrently.
+        boolean concurrent = this.concurrent && options.numItineraries > 1;
+        while (paths.size() < options.numItineraries && !(concurrent && !paths.isEmpty())) {
             currOptions = optionQueue.poll();
             if (currOptions == null) {
                 LOG.debug("Ran out of options to try.");
@@ -181,6 +208,10 @@ public class RetryingPathServiceImpl implements PathService {
             }
             LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
         }
+        if (concurrent && !paths.isEmpty() && paths.size() < options.numItineraries) {
+            findPathsConcurrently(options, paths, optionQueue, maxWalk, initialMaxWalk,
+                    searchBeginTime);
+        }
         if (paths.size() == 0) {
             return null;
         }
@@ -189,6 +220,222 @@ public class RetryingPathServiceImpl implements PathService {
         return paths;
     }
 
+    /**
+     * Search for additional itineraries by running the searches in the option queue concurrently.
+     * 
+     * Each search is submitted with all the trips of its parent's path banned, as the sequential
+     * search does. When a path has several trips, searches banning only one of them are submitted
+     * as well: these are less constrained, so they never find a worse path than the search banning
+     * all of them, and they provide the concurrency, since the sequential searches form a chain.
+     * 
+     * Results are accepted in the order the searches were submitted, whatever the order in which
+     * they complete, so that unless the multiPathTimeout elapses the itineraries returned do not
+     * depend on thread scheduling. They may differ from those of the sequential search, which
+     * submits fewer searches and accepts their results in another order. Once enough itineraries
+     * are found the searches still running are cancelled. When the multiPathTimeout elapses, only
+     * the results of the searches already complete are accepted.
+     * 
+     * The searches share the routing context of the request, including its temporary edges, so
+     * this method only returns once none of them is running anymore.
+     */
+    private void findPathsConcurrently(RoutingRequest options, List<GraphPath> paths,
+            Queue<RoutingRequest> optionQueue, double maxWalk, double initialMaxWalk,
+            long searchBeginTime) {
+
+        long abortTime = multiPathTimeout > 0 ? searchBeginTime + (long) (multiPathTimeout * 1000)
+                : Long.MAX_VALUE;
+        if (options.deadline > 0) {
+            abortTime = Math.min(abortTime, options.deadline);
+        }
+        ExecutorService pool = getThreadPool();
+        // the searches not accepted yet, in submission order
+        Map<Future<List<GraphPath>>, Search> running =
+                new LinkedHashMap<Future<List<GraphPath>>, Search>();
+        // all searches, to wait for those cancelled
+        List<Search> searches = new ArrayList<Search>();
+        Set<RoutingRequest> submitted = new HashSet<RoutingRequest>();
+
+        for (RoutingRequest queued : optionQueue) {
+            queued.setMaxWalkDistance(maxWalk);
+            submitSearch(pool, running, searches, submitted, queued, abortTime);
+        }
+        boolean timedOut = false;
+        try {
+            while (paths.size() < options.numItineraries && !running.isEmpty()) {
+                Future<List<GraphPath>> future = running.keySet().iterator().next();
+                RoutingRequest currOptions = running.remove(future).options;
+                List<GraphPath> somePaths;
+                try {
+                    somePaths = getResult(future, timedOut ? 0 : abortTime);
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    if (!timedOut) {
+                        LOG.debug("Multipath timeout, {} searches still running.", running.size());
+                        timedOut = true;
+                    }
+                    continue;
+                }
+                if (somePaths == null) {
+                    // this search failed, the others go on
+                    continue;
+                }
+                if (somePaths.isEmpty()) {
+                    // try again doubling maxwalk
+                    double walk = currOptions.getMaxWalkDistance();
+                    if (timedOut || walk > initialMaxWalk * MAX_WALK_MULTIPLE
+                            || walk >= Double.MAX_VALUE)
+                        continue;
+                    RoutingRequest newOptions = currOptions.clone();
+                    newOptions.setMaxWalkDistance(walk * 2);
+                    LOG.debug("Doubled walk distance to {}", walk * 2);
+                    submitSearch(pool, running, searches, submitted, newOptions, abortTime);
+                    continue;
+                }
+                for (GraphPath path : somePaths) {
+                    if (paths.contains(path))
+                        continue;
+                    paths.add(path);
+                    options.rctx.debug.foundPath();
+                    if (timedOut)
+                        continue;
+                    LOG.debug("New trips: {}", path.getTrips());
+                    RoutingRequest newOptions = currOptions.clone();
+                    for (AgencyAndId trip : path.getTrips()) {
+                        newOptions.banTrip(trip);
+                    }
+                    submitSearch(pool, running, searches, submitted, newOptions, abortTime);
+                    if (path.getTrips().size() > 1) {
+                        for (AgencyAndId trip : path.getTrips()) {
+                            newOptions = currOptions.clone();
+                            newOptions.banTrip(trip);
+                            submitSearch(pool, running, searches, submitted, newOptions, abortTime);
+                        }
+                    }
+                }
+                LOG.debug("{} / {} itineraries", paths.size(), options.numItineraries);
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while searching for additional itineraries.");
+            Thread.currentThread().interrupt();
+        } finally {
+            // cancel the surplus searches, the A* loop checks for interruption
+            for (Future<List<GraphPath>> future : running.keySet()) {
+                future.cancel(true);
+            }
+            for (Search search : searches) {
+                search.awaitStopped();
+            }
+        }
+        if (timedOut) {
+            LOG.warn("Multipath timeout. {} paths found, elapsed time {} sec", paths.size(),
+                    (System.currentTimeMillis() - searchBeginTime) / 1000.0);
+        }
+    }
+
+    private void submitSearch(ExecutorService pool,
+            Map<Future<List<GraphPath>>, Search> running, List<Search> searches,
+            Set<RoutingRequest> submitted, RoutingRequest subOptions, long abortTime) {
+        if (!submitted.add(subOptions))
+            return;
+        // each concurrent search needs its own heuristic, the rest of the context is shared
+        subOptions.rctx = subOptions.rctx.forConcurrentSearch(subOptions);
+        Search search = new Search(subOptions, abortTime);
+        searches.add(search);
+        running.put(pool.submit(search), search);
+    }
+
+    /** One concurrent search, which can be waited for even once its future is cancelled. */
+    private class Search implements Callable<List<GraphPath>> {
+
+        final RoutingRequest options;
+
+        final long abortTime;
+
+        /** Set by whichever comes first, the search starting or waiting for it to stop */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        Search(RoutingRequest options, long abortTime) {
+            this.options = options;
+            this.abortTime = abortTime;
+        }
+
+        @Override
+        public List<GraphPath> call() {
+            if (!claimed.compareAndSet(false, true))
+                return null; // cancelled before it started
+            try {
+                double timeout = abortTime == Long.MAX_VALUE ? 0
+                        : (abortTime - System.currentTimeMillis()) / 1000.0;
+                if (abortTime != Long.MAX_VALUE && timeout <= 0)
+                    return null;
+                long subsearchBeginTime = System.currentTimeMillis();
+                ShortestPathTree spt = sptService.getShortestPathTree(options, timeout);
+                LOG.debug("END CONCURRENT SUBSEARCH ({} msec)",
+                        System.currentTimeMillis() - subsearchBeginTime);
+                return spt == null ? null : spt.getPaths();
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * Wait until this search has completed, or make sure it never starts. The wait is not
+         * interrupted, since the caller may not release the routing context before it returns.
+         */
+        void awaitStopped() {
+            if (claimed.compareAndSet(false, true))
+                return;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a search until the given time at most.
+     * 
+     * @return the paths it found, or null if it failed
+     * @throws TimeoutException if it is still running at the given time
+     */
+    private static List<GraphPath> getResult(Future<List<GraphPath>> future, long abortTime)
+            throws InterruptedException, TimeoutException {
+        try {
+            if (abortTime == Long.MAX_VALUE)
+                return future.get();
+            return future.get(Math.max(0, abortTime - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService getThreadPool() {
+        if (threadPool == null) {
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            threadPool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "itinerary-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return threadPool;
+    }
+
     public GraphService getGraphService() {
         return graphService;
     }
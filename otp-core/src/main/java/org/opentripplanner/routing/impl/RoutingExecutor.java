@@ -0,0 +1,179 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.RequestTimeoutException;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs routing requests on a dedicated, bounded pool of threads rather than on the HTTP worker
+ * threads, so that the number of concurrent searches is limited independently of the number of
+ * open connections.
+ *
+ * Admission control: at most maxQueued requests wait for a routing thread; further requests are
+ * rejected immediately with a RejectedExecutionException instead of piling up. Every request gets
+ * a deadline when it is submitted, which is stored in RoutingRequest.deadline and checked by the
+ * searches themselves, so time spent waiting in the queue counts against it. When the calling
+ * thread stops waiting, because the deadline has passed or because it was interrupted, the search
+ * is cancelled by interrupting its routing thread.
+ *
+ * The longest queue wait (routingQueueWait, in milliseconds) and the number of rejected and
+ * timed out requests (routingRejected, routingTimedOut) are reported to the monitoring store.
+ *
+ * The executor is not a component: it is only used where it is declared, in application-context.xml
+ * for servlet deployments and by OTPConfigurator for the standalone server.
+ */
+public class RoutingExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingExecutor.class);
+
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /** Time given to a search past its deadline to notice it and return its own result. */
+    private static final long GRACE_MILLIS = 500;
+
+    private final ThreadPoolExecutor threadPool;
+
+    /** The time in seconds a request may take, including the time it waits for a thread. */
+    @Getter
+    private final double timeoutSeconds;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /** One routing thread per processor, and as many waiting requests per thread. */
+    public RoutingExecutor() {
+        this(Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors(), 30);
+    }
+
+    /**
+     * @param nThreads the number of requests routed at the same time
+     * @param maxQueued the number of requests that may wait for a routing thread
+     * @param timeoutSeconds the time a request may take, or 0 for no limit
+     */
+    public RoutingExecutor(int nThreads, int maxQueued, double timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "routing");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        LOG.info("Routing on {} threads, at most {} requests waiting, timeout {} sec",
+                nThreads, maxQueued, timeoutSeconds);
+    }
+
+    /**
+     * Run the given task for the given request on a routing thread, and wait for its result.
+     *
+     * @throws RejectedExecutionException if too many requests are already waiting
+     * @throws RequestTimeoutException if the request does not complete before its deadline
+     */
+    public <T> T execute(RoutingRequest request, final Callable<T> task) {
+        final long submitTime = System.currentTimeMillis();
+        if (timeoutSeconds > 0) {
+            long deadline = submitTime + (long) (timeoutSeconds * 1000);
+            if (request.deadline == 0 || deadline < request.deadline) {
+                request.deadline = deadline;
+            }
+        }
+        final long deadline = request.deadline;
+
+        Future<T> future;
+        try {
+            future = threadPool.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    store.setLongMax("routingQueueWait", start - submitTime);
+                    if (deadline > 0 && start > deadline) {
+                        // the caller has given up already, do not start a search in vain
+                        throw new RequestTimeoutException();
+                    }
+                    return task.call();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            store.setLong("routingRejected", rejectedCount.incrementAndGet());
+            LOG.warn("Rejected routing request, {} requests already waiting",
+                    threadPool.getQueue().size());
+            throw e;
+        }
+
+        try {
+            if (deadline > 0) {
+                long wait = deadline + GRACE_MILLIS - System.currentTimeMillis();
+                return future.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+            } else {
+                return future.get();
+            }
+        } catch (TimeoutException e) {
+            store.setLong("routingTimedOut", timedOutCount.incrementAndGet());
+            throw new RequestTimeoutException();
+        } catch (InterruptedException e) {
+            // the request thread is being shut down, or the client went away
+            Thread.currentThread().interrupt();
+            throw new RequestTimeoutException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            // no-op if the search has completed, otherwise interrupts it
+            future.cancel(true);
+        }
+    }
+
+    /** @return the number of requests rejected because too many were waiting */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /** @return the number of requests that did not complete before their deadline */
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    /** @return the number of requests currently waiting for a routing thread */
+    public int getQueuedCount() {
+        return threadPool.getQueue().size();
+    }
+
+    public void shutdown() {
+        threadPool.shutdownNow();
+    }
+}
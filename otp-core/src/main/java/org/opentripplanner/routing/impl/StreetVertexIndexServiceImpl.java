@@ -28,6 +28,7 @@ import lombok.Setter;
 
 import org.opentripplanner.common.IterableLibrary;
 import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.PackedRTree;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -46,12 +47,12 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.ItemVisitor;
 import com.vividsolutions.jts.index.SpatialIndex;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
 /**
  * Indexes all edges and transit vertices of the graph spatially. Has a variety of query methods used during network linking and trip planning.
@@ -66,13 +67,13 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
     protected Graph graph;
 
     /**
-     * Contains only instances of {@link StreetEdge}
+     * Contains only instances of {@link StreetEdge}. A PackedRTree unless set up as modifiable.
      */
     protected SpatialIndex edgeTree;
 
-    protected STRtree transitStopTree;
+    protected PackedRTree<Vertex> transitStopTree;
 
-    protected STRtree intersectionTree;
+    protected PackedRTree<Vertex> intersectionTree;
 
     @Getter
     @Setter
@@ -112,15 +113,15 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
     }
 
     public void setup() {
-        edgeTree = new STRtree();
+        edgeTree = new PackedRTree<StreetEdge>();
         postSetup();
-        ((STRtree) edgeTree).build();
+        ((PackedRTree<?>) edgeTree).build();
     }
 
     private void postSetup() {
 
-        transitStopTree = new STRtree();
-        intersectionTree = new STRtree();
+        transitStopTree = new PackedRTree<Vertex>();
+        intersectionTree = new PackedRTree<Vertex>();
 
         for (Vertex gv : graph.getVertices()) {
             Vertex v = gv;
@@ -148,6 +149,7 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
             }
         }
         transitStopTree.build();
+        intersectionTree.build();
     }
 
     /**
@@ -155,7 +157,6 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
      * 
      * @param distance in meters
      */
-    @SuppressWarnings("unchecked")
     public List<Vertex> getLocalTransitStops(Coordinate c, double distance) {
         Envelope env = new Envelope(c);
         env.expandBy(SphericalDistanceLibrary.metersToDegrees(distance));
@@ -299,7 +300,6 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public Collection<Vertex> getVerticesForEnvelope(Envelope envelope) {
         return intersectionTree.query(envelope);
     }
@@ -310,68 +310,38 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public CandidateEdgeBundle getClosestEdges(GenericLocation location,
             TraversalRequirements reqs, List<Edge> extraEdges, Collection<Edge> preferredEdges,
             boolean possibleTransitLinksOnly) {
         Coordinate coordinate = location.getCoordinate();
         Envelope envelope = new Envelope(coordinate);
 
-        // Collect the extra StreetEdges to consider.
-        Iterable<StreetEdge> extraStreets = IterableLibrary.filter(graph.getTemporaryEdges(),
-                StreetEdge.class);
-        if (extraEdges != null) {
-            extraStreets = Iterables.concat(IterableLibrary.filter(extraEdges, StreetEdge.class),
-                    extraStreets);
-        }
-
         double envelopeGrowthAmount = 0.001; // ~= 100 meters
-        double radius = 0;
         CandidateEdgeBundle candidateEdges = new CandidateEdgeBundle();
+        CandidateCollector collector = new CandidateCollector(location, reqs, preferredEdges,
+                candidateEdges);
         while (candidateEdges.size() == 0) {
             // expand envelope -- assumes many close searches and occasional far ones
             envelope.expandBy(envelopeGrowthAmount);
-            radius += envelopeGrowthAmount;
-            if (radius > MAX_DISTANCE_FROM_STREET) {
+            collector.radius += envelopeGrowthAmount;
+            if (collector.radius > MAX_DISTANCE_FROM_STREET) {
                 return candidateEdges; // empty list
             }
 
-            Iterable<StreetEdge> nearbyEdges = edgeTree.query(envelope);
-            if (nearbyEdges != null) {
-                nearbyEdges = Iterables.concat(nearbyEdges, extraStreets);
-            }
-
             // oh. This is part of the problem: we're not linking to one-way
             // streets, even though that is a perfectly reasonable thing to do.
             // we need to handle that using bundles.
-            for (StreetEdge e : nearbyEdges) {
-                // Ignore invalid edges.
-                if (e == null || e.getFromVertex() == null) {
-                    continue;
-                }
-
-                // Ignore those edges we can't traverse. canBeTraversed checks internally if 
-                // walking a bike is possible on this StreetEdge.
-                if (!reqs.canBeTraversed(e)) {
-                    continue;
-                }
+            edgeTree.query(envelope, collector);
 
-                // Compute preference value
-                double preferrence = 1;
-                if (preferredEdges != null && preferredEdges.contains(e)) {
-                    preferrence = 3.0;
-                }
-
-                TraverseModeSet modes = reqs.getModes();
-                CandidateEdge ce = new CandidateEdge(e, location, preferrence, modes);
-
-                // Even if an edge is outside the query envelope, bounding boxes can
-                // still intersect. In this case, distance to the edge is greater
-                // than the query envelope size.
-                if (ce.getDistance() < radius) {
-                    candidateEdges.add(ce);
+            // also consider the extra StreetEdges
+            if (extraEdges != null) {
+                for (Edge e : extraEdges) {
+                    collector.visitItem(e);
                 }
             }
+            for (Edge e : graph.getTemporaryEdges()) {
+                collector.visitItem(e);
+            }
         }
 
         Collection<CandidateEdgeBundle> bundles = candidateEdges.binByDistanceAndAngle();
@@ -391,6 +361,75 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         return best;
     }
 
+    /**
+     * Turns the street edges it visits into CandidateEdges if they are within the search radius.
+     * The distance is first computed directly on the coordinate sequence of the edge, so edges
+     * that are too far away cost no allocation.
+     */
+    private static class CandidateCollector implements ItemVisitor {
+
+        private final GenericLocation location;
+
+        private final TraversalRequirements reqs;
+
+        private final Collection<Edge> preferredEdges;
+
+        private final CandidateEdgeBundle candidates;
+
+        private final double x, y, xscale;
+
+        /** The current search radius, in degrees of latitude */
+        double radius = 0;
+
+        CandidateCollector(GenericLocation location, TraversalRequirements reqs,
+                Collection<Edge> preferredEdges, CandidateEdgeBundle candidates) {
+            this.location = location;
+            this.reqs = reqs;
+            this.preferredEdges = preferredEdges;
+            this.candidates = candidates;
+            Coordinate c = location.getCoordinate();
+            this.x = c.x;
+            this.y = c.y;
+            this.xscale = Math.cos(c.y * Math.PI / 180);
+        }
+
+        @Override
+        public void visitItem(Object item) {
+            if (!(item instanceof StreetEdge))
+                return;
+            StreetEdge e = (StreetEdge) item;
+            // Ignore invalid edges.
+            if (e.getFromVertex() == null) {
+                return;
+            }
+
+            // Ignore those edges we can't traverse. canBeTraversed checks internally if 
+            // walking a bike is possible on this StreetEdge.
+            if (!reqs.canBeTraversed(e)) {
+                return;
+            }
+
+            // Even if an edge is outside the query envelope, bounding boxes can
+            // still intersect. In this case, distance to the edge is greater
+            // than the query envelope size.
+            LineString geometry = e.getGeometry();
+            if (geometry == null
+                    || CandidateEdge.distance(geometry.getCoordinateSequence(), x, y, xscale)
+                            >= radius) {
+                return;
+            }
+
+            // Compute preference value
+            double preferrence = 1;
+            if (preferredEdges != null && preferredEdges.contains(e)) {
+                preferrence = 3.0;
+            }
+
+            TraverseModeSet modes = reqs.getModes();
+            candidates.add(new CandidateEdge(e, location, preferrence, modes));
+        }
+    }
+
     @Override
     public CandidateEdgeBundle getClosestEdges(GenericLocation location, TraversalRequirements reqs) {
         return getClosestEdges(location, reqs, null, null, false);
@@ -427,23 +466,27 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         return getIntersectionAt(coordinate, MAX_CORNER_DISTANCE);
     }
 
-    @SuppressWarnings("unchecked")
-    public StreetVertex getIntersectionAt(Coordinate coordinate, double distanceError) {
-        Envelope envelope = new Envelope(coordinate);
-        envelope.expandBy(distanceError * 2);
-        List<StreetVertex> nearby = intersectionTree.query(envelope);
-        StreetVertex nearest = null;
-        double bestDistance = Double.POSITIVE_INFINITY;
-        for (StreetVertex v : nearby) {
-            double distance = coordinate.distance(v.getCoordinate());
-            if (distance < distanceError) {
-                if (distance < bestDistance) {
+    public StreetVertex getIntersectionAt(final Coordinate coordinate,
+            final double distanceError) {
+        class NearestVisitor implements ItemVisitor {
+            StreetVertex nearest = null;
+
+            double bestDistance = Double.POSITIVE_INFINITY;
+
+            @Override
+            public void visitItem(Object item) {
+                StreetVertex v = (StreetVertex) item;
+                double distance = coordinate.distance(v.getCoordinate());
+                if (distance < distanceError && distance < bestDistance) {
                     bestDistance = distance;
                     nearest = v;
                 }
             }
         }
-        return nearest;
+        NearestVisitor visitor = new NearestVisitor();
+        intersectionTree.query(coordinate.x - distanceError * 2, coordinate.y - distanceError * 2,
+                coordinate.x + distanceError * 2, coordinate.y + distanceError * 2, visitor);
+        return visitor.nearest;
     }
 
     @Override
@@ -21,6 +21,7 @@ import java.util.List;
 import javax.xml.bind.annotation.XmlElement;
 
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
 
 public abstract class AbstractPatch implements Patch {
     private static final long serialVersionUID = 1371103825857750564L;
@@ -80,6 +81,27 @@ public abstract class AbstractPatch implements Patch {
         os.defaultWriteObject();
     }
 
+    /**
+     * Apply this patch alone, publishing a new patch overlay on the graph. The graph is locked
+     * from edit to publish, as PatchServiceImpl does.
+     */
+    public void apply(Graph graph) {
+        synchronized (graph) {
+            PatchOverlay.Builder overlay = graph.getPatchOverlay().edit();
+            apply(graph, overlay);
+            graph.setPatchOverlay(overlay.build());
+        }
+    }
+
+    /** Remove this patch alone, publishing a new patch overlay on the graph. */
+    public void remove(Graph graph) {
+        synchronized (graph) {
+            PatchOverlay.Builder overlay = graph.getPatchOverlay().edit();
+            remove(graph, overlay);
+            graph.setPatchOverlay(overlay.build());
+        }
+    }
+
     public void addTimePeriod(long start, long end) {
         timePeriods.add(new TimePeriod(start, end));
     }
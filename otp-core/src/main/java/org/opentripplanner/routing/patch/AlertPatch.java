@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.patch;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -55,53 +56,26 @@ public class AlertPatch extends AbstractPatch {
     }
 
     @Override
-    public void apply(Graph graph) {
-            TransitIndexService index = graph.getService(TransitIndexService.class);
-
-        if (route != null || trip != null || agency != null) {
-            List<RouteVariant> variants;
-
-            if(trip != null) {
-                variants = new LinkedList<RouteVariant>();
-                RouteVariant tripVariant = index.getVariantForTrip(trip);
-                if(tripVariant != null) {
-                    variants.add(index.getVariantForTrip(trip));
-                }
-            } else if (route != null) {
-               variants = index.getVariantsForRoute(route);
-            } else {
-               variants = index.getVariantsForAgency(agency);
-            }
-
-            for (RouteVariant variant : variants) {
-                if (direction != null && !direction.equals(variant.getDirection())) {
-                    continue;
-                }
-                for (RouteSegment segment : variant.getSegments()) {
-                    if (stop == null || segment.stop.equals(stop)) {
-                        if (segment.board != null) {
-                            segment.board.addPatch(this);
-                        }
-                        if(segment.alight != null) {
-                            segment.alight.addPatch(this);
-                        }
-                    }
-                }
-            }
-        } else if (stop != null) {
-            Edge edge = index.getPreBoardEdge(stop);
-            if(edge != null)
-                edge.addPatch(this);
-
-            edge = index.getPreAlightEdge(stop);
-            if(edge != null)
-                edge.addPatch(this);
+    public void apply(Graph graph, PatchOverlay.Builder overlay) {
+        for (Edge edge : getEdges(graph)) {
+            overlay.add(edge, this);
         }
     }
 
     @Override
-    public void remove(Graph graph) {
-            TransitIndexService index = graph.getService(TransitIndexService.class);
+    public void remove(Graph graph, PatchOverlay.Builder overlay) {
+        for (Edge edge : getEdges(graph)) {
+            overlay.remove(edge, this);
+        }
+    }
+
+    /**
+     * @return the boarding and alighting edges of the routes, trips or agency of this patch, or
+     *         the pre-board and pre-alight edges of its stop
+     */
+    private List<Edge> getEdges(Graph graph) {
+        TransitIndexService index = graph.getService(TransitIndexService.class);
+        List<Edge> edges = new ArrayList<Edge>();
 
         if (route != null || trip != null || agency != null) {
             List<RouteVariant> variants;
@@ -125,10 +99,10 @@ public class AlertPatch extends AbstractPatch {
                 for (RouteSegment segment : variant.getSegments()) {
                     if (stop == null || segment.stop.equals(stop)) {
                         if (segment.board != null) {
-                            segment.board.removePatch(this);
+                            edges.add(segment.board);
                         }
                         if(segment.alight != null) {
-                            segment.alight.removePatch(this);
+                            edges.add(segment.alight);
                         }
                     }
                 }
@@ -136,12 +110,13 @@ public class AlertPatch extends AbstractPatch {
         } else if (stop != null) {
             Edge edge = index.getPreBoardEdge(stop);
             if(edge != null)
-                edge.removePatch(this);
+                edges.add(edge);
 
             edge = index.getPreAlightEdge(stop);
             if(edge != null)
-                edge.removePatch(this);
+                edges.add(edge);
         }
+        return edges;
     }
 
     @Override
@@ -37,9 +37,14 @@ public interface Patch extends Serializable {
 
     void setId(String id);
 
-    public void apply(Graph graph);
-
-    public void remove(Graph graph);
+    /**
+     * Add this patch to the edges it applies to in the given overlay, which is published once all
+     * changes to it are made.
+     */
+    public void apply(Graph graph, PatchOverlay.Builder overlay);
+
+    /** Remove this patch from the edges it applies to in the given overlay. */
+    public void remove(Graph graph, PatchOverlay.Builder overlay);
 
     public boolean filterTraverseResult(StateEditor result, boolean displayOnly);
 }
@@ -0,0 +1,133 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.patch;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.opentripplanner.routing.graph.Edge;
+
+/**
+ * The patches in effect on the edges of a graph, as an immutable snapshot. Patches are never
+ * added to the edges themselves: a new overlay is built from the current one and published on the
+ * graph as a whole, and each search captures the overlay that was current when it started, just
+ * like the TimetableResolver snapshot. Searches therefore never see a half-applied update, and
+ * updates never have to wait for searches.
+ *
+ * Lookups first test a bit set of patched edge ids, so edges without patches cost one bit test.
+ */
+public final class PatchOverlay {
+
+    public static final PatchOverlay EMPTY = new PatchOverlay(0,
+            new IdentityHashMap<Edge, List<Patch>>());
+
+    /** Incremented by every overlay built from this one */
+    @Getter
+    private final long version;
+
+    /** The patches of each patched edge, in unmodifiable lists */
+    private final Map<Edge, List<Patch>> patches;
+
+    /** The ids of the patched edges. Ids are not unique across graphs, so this is only a filter. */
+    private final BitSet patchedIds = new BitSet();
+
+    private PatchOverlay(long version, Map<Edge, List<Patch>> patches) {
+        this.version = version;
+        this.patches = patches;
+        for (Edge edge : patches.keySet()) {
+            if (edge.getId() >= 0)
+                patchedIds.set(edge.getId());
+        }
+    }
+
+    /** @return the patches on the given edge, an empty list if there are none */
+    public List<Patch> getPatches(Edge edge) {
+        if (patches.isEmpty())
+            return Collections.emptyList();
+        int id = edge.getId();
+        if (id >= 0 && !patchedIds.get(id))
+            return Collections.emptyList();
+        List<Patch> result = patches.get(edge);
+        if (result == null)
+            return Collections.emptyList();
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return patches.isEmpty();
+    }
+
+    /** @return the number of patched edges */
+    public int size() {
+        return patches.size();
+    }
+
+    /** @return a builder for the next version of this overlay, which is left unchanged */
+    public Builder edit() {
+        return new Builder(this);
+    }
+
+    /**
+     * Accumulates changes to an overlay. Any number of patches can be added and removed before the
+     * new overlay is built, so that they are published together.
+     */
+    public static class Builder {
+
+        private final long version;
+
+        private final Map<Edge, List<Patch>> patches;
+
+        private Builder(PatchOverlay base) {
+            this.version = base.version + 1;
+            this.patches = new IdentityHashMap<Edge, List<Patch>>(base.patches);
+        }
+
+        public Builder add(Edge edge, Patch patch) {
+            List<Patch> existing = patches.get(edge);
+            if (existing == null) {
+                patches.put(edge, Collections.singletonList(patch));
+            } else if (!existing.contains(patch)) {
+                List<Patch> list = new ArrayList<Patch>(existing.size() + 1);
+                list.addAll(existing);
+                list.add(patch);
+                patches.put(edge, Collections.unmodifiableList(list));
+            }
+            return this;
+        }
+
+        public Builder remove(Edge edge, Patch patch) {
+            List<Patch> existing = patches.get(edge);
+            if (existing == null || !existing.contains(patch))
+                return this;
+            if (existing.size() == 1) {
+                patches.remove(edge);
+            } else {
+                List<Patch> list = new ArrayList<Patch>(existing);
+                list.remove(patch);
+                patches.put(edge, Collections.unmodifiableList(list));
+            }
+            return this;
+        }
+
+        public PatchOverlay build() {
+            return new PatchOverlay(version, new IdentityHashMap<Edge, List<Patch>>(patches));
+        }
+    }
+}
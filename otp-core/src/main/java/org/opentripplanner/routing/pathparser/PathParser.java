@@ -13,11 +13,38 @@
 
 package org.opentripplanner.routing.pathparser;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.opentripplanner.routing.automata.DFA;
+import org.opentripplanner.routing.automata.ProductDFA;
 import org.opentripplanner.routing.core.State;
 
 public abstract class PathParser {
 
+	/** Product automata by the DFAs they combine, which are mostly static per parser class. */
+	private static final Map<List<DFA>, ProductDFA> products =
+			new ConcurrentHashMap<List<DFA>, ProductDFA>();
+
+	/**
+	 * @return the automaton that runs the given parsers in parallel, in the order given. Parse
+	 *         states of the product encode one state for each parser, and its terminals one
+	 *         terminal for each parser, see StateEditor.parsePath.
+	 */
+	public static ProductDFA product(PathParser[] parsers) {
+		List<DFA> dfas = new ArrayList<DFA>(parsers.length);
+		for (PathParser parser : parsers)
+			dfas.add(parser.getDFA());
+		ProductDFA product = products.get(dfas);
+		if (product == null) {
+			product = new ProductDFA(dfas.toArray(new DFA[dfas.size()]));
+			products.put(dfas, product);
+		}
+		return product;
+	}
+
 	public int transition(int initState, int terminal) {
 		return this.getDFA().transition(initState, terminal);
 	}
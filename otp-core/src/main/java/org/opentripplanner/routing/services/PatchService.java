@@ -35,4 +35,10 @@ public interface PatchService {
 
 	void expireAllExcept(Set<String> ids);
 
+	/**
+	 * Expire the patches with the given ids and apply the given patches as a single change:
+	 * searches see the patches from either before or after the whole update.
+	 */
+	void update(Set<String> expire, Collection<Patch> apply);
+
 }
@@ -0,0 +1,324 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A shortest path tree keeping a bounded set of Pareto-optimal labels per vertex, on weight,
+ * elapsed time, walk distance and number of boardings.
+ *
+ * Unlike MultiShortestPathTree, whose lists of states grow without bound and are compared pairwise
+ * with State.dominates, the labels of a vertex are kept in a bag of at most maxLabels entries,
+ * with their criteria in one flat array. A label epsilon-dominates another when it is no worse
+ * than (1 + epsilon) times the other on weight, time and walk distance, and has no more boardings.
+ * When a bag is full, a new label only gets in by replacing the heaviest label it is comparable
+ * with, if that one is heavier. A label with nothing comparable in a full bag is added beyond
+ * maxLabels, so that every kind of state, such as renting a bike or not, keeps its best label.
+ *
+ * All criteria grow along a path, so a label at the target that dominates a label anywhere else
+ * also dominates every completion of it. Such labels are rejected when they are added, and
+ * dropped when they come out of the queue (target pruning).
+ */
+public class ParetoShortestPathTree extends AbstractShortestPathTree {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    public static final int DEFAULT_MAX_LABELS = 8;
+
+    public static final double DEFAULT_EPSILON = 0.02;
+
+    private static final int WEIGHT = 0, TIME = 1, WALK = 2, BOARDINGS = 3, N_CRITERIA = 4;
+
+    private final int maxLabels;
+
+    private final double epsilon;
+
+    private final Map<Vertex, LabelBag> bags = new IdentityHashMap<Vertex, LabelBag>();
+
+    /** The complete paths found so far, whose labels prune the search */
+    private final LabelBag targetLabels;
+
+    private final Vertex target;
+
+    /** The criteria of the state being added, to avoid allocating them for every state */
+    private final double[] criteria = new double[N_CRITERIA];
+
+    /** The number of labels rejected or dropped because a complete path dominated them */
+    @Getter
+    private int targetPrunedCount = 0;
+
+    /** The number of labels that were replaced because their bag was full */
+    @Getter
+    private int evictedCount = 0;
+
+    /** The lowest weight of any complete path found so far */
+    @Getter
+    private double bestTargetWeight = Double.POSITIVE_INFINITY;
+
+    public ParetoShortestPathTree(RoutingRequest options, int maxLabels, double epsilon) {
+        super(options);
+        if (maxLabels < 1)
+            throw new IllegalArgumentException("A vertex needs room for at least one label.");
+        this.maxLabels = maxLabels;
+        this.epsilon = epsilon;
+        this.targetLabels = new LabelBag(maxLabels, true);
+        this.target = options.rctx == null ? null : options.rctx.target;
+    }
+
+    public ParetoShortestPathTree(RoutingRequest options) {
+        this(options, DEFAULT_MAX_LABELS, DEFAULT_EPSILON);
+    }
+
+    /****
+     * {@link ShortestPathTree} Interface
+     ****/
+
+    @Override
+    public boolean add(State state) {
+        setCriteria(state);
+        if (targetLabels.dominates(criteria)) {
+            targetPrunedCount++;
+            return false;
+        }
+        Vertex vertex = state.getVertex();
+        LabelBag bag = bags.get(vertex);
+        if (bag == null) {
+            bag = new LabelBag(maxLabels, false);
+            bags.put(vertex, bag);
+        }
+        if (!bag.add(criteria, state))
+            return false;
+        if (vertex == target && state.isFinal() && state.allPathParsersAccept()
+                && targetLabels.add(criteria, state))
+            bestTargetWeight = Math.min(bestTargetWeight, state.getWeight());
+        return true;
+    }
+
+    /**
+     * A state coming out of the queue is only expanded if it is still in the bag of its vertex, and
+     * no complete path found since it was queued dominates it.
+     */
+    @Override
+    public boolean visit(State state) {
+        LabelBag bag = bags.get(state.getVertex());
+        if (bag == null || bag.indexOf(state) < 0)
+            return false;
+        if (state.getVertex() != target) {
+            setCriteria(state);
+            if (targetLabels.dominates(criteria)) {
+                targetPrunedCount++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        LabelBag bag = bags.get(dest);
+        if (bag == null)
+            return null;
+        State ret = null;
+        for (int i = 0; i < bag.size; i++) {
+            State s = bag.states[i];
+            if ((ret == null || s.betterThan(ret)) && s.isFinal() && s.allPathParsersAccept())
+                ret = s;
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        LabelBag bag = bags.get(dest);
+        if (bag == null)
+            return null;
+        return bag.toList();
+    }
+
+    /** @return the number of complete paths in the Pareto set */
+    public int getTargetCount() {
+        return targetLabels.size;
+    }
+
+    /** @return the Pareto set of complete paths to the target, in order of increasing weight */
+    public List<State> getTargetStates() {
+        List<State> states = targetLabels.toList();
+        Collections.sort(states, new Comparator<State>() {
+            @Override
+            public int compare(State a, State b) {
+                return Double.compare(a.getWeight(), b.getWeight());
+            }
+        });
+        return states;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return bags.size();
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        List<State> allStates = new ArrayList<State>();
+        for (LabelBag bag : bags.values()) {
+            allStates.addAll(bag.toList());
+        }
+        return allStates;
+    }
+
+    public String toString() {
+        return "ParetoSPT(" + bags.size() + " vertices)";
+    }
+
+    private void setCriteria(State state) {
+        criteria[WEIGHT] = state.getWeight();
+        criteria[TIME] = state.getElapsedTimeSeconds();
+        criteria[WALK] = state.getWalkDistance();
+        criteria[BOARDINGS] = state.getNumBoardings();
+    }
+
+    /** @return true if label a at index i is no worse than label b at index j, within epsilon */
+    private boolean dominates(double[] a, int i, double[] b, int j) {
+        double slack = 1 + epsilon;
+        return a[i + WEIGHT] <= b[j + WEIGHT] * slack && a[i + TIME] <= b[j + TIME] * slack
+                && a[i + WALK] <= b[j + WALK] * slack && a[i + BOARDINGS] <= b[j + BOARDINGS];
+    }
+
+    /**
+     * @return false if the states differ in ways the criteria do not capture, so that neither can
+     *         replace the other: renting a bike or not, the state of the path parsers, or turn
+     *         restrictions on the edge they came from.
+     */
+    private static boolean comparable(State a, State b) {
+        if (a.isBikeRenting() != b.isBikeRenting())
+            return false;
+        if (a.getPathParserState() != b.getPathParserState())
+            return false;
+        Edge backEdge = a.getBackEdge();
+        return backEdge == b.getBackEdge() || !restricted(backEdge) && !restricted(b.getBackEdge());
+    }
+
+    private static boolean restricted(Edge edge) {
+        return edge instanceof PlainStreetEdge
+                && !((PlainStreetEdge) edge).getTurnRestrictions().isEmpty();
+    }
+
+    /** The labels of one vertex, with the criteria of label i at criteria[i * N_CRITERIA] */
+    private class LabelBag {
+
+        /** Complete paths can always replace each other, whatever their states */
+        final boolean complete;
+
+        State[] states;
+
+        double[] criteria;
+
+        int size = 0;
+
+        LabelBag(int capacity, boolean complete) {
+            this.complete = complete;
+            states = new State[Math.min(capacity, 2)];
+            criteria = new double[states.length * N_CRITERIA];
+        }
+
+        /** @return true if a label in this bag dominates the given one, whatever their states */
+        boolean dominates(double[] label) {
+            for (int i = 0; i < size; i++) {
+                if (ParetoShortestPathTree.this.dominates(criteria, i * N_CRITERIA, label, 0))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Add a label unless it is dominated, removing the labels it dominates.
+         * @return true if the label was added
+         */
+        boolean add(double[] label, State state) {
+            // order is important, because in the case of a tie we want to reject the new state
+            for (int i = 0; i < size; i++) {
+                if (ParetoShortestPathTree.this.dominates(criteria, i * N_CRITERIA, label, 0)
+                        && (complete || comparable(states[i], state)))
+                    return false;
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                if (ParetoShortestPathTree.this.dominates(label, 0, criteria, i * N_CRITERIA)
+                        && (complete || comparable(state, states[i])))
+                    remove(i);
+            }
+            if (size >= maxLabels) {
+                // only a comparable label can make room, so no kind of state is pushed out
+                int worst = -1;
+                for (int i = 0; i < size; i++) {
+                    if ((complete || comparable(states[i], state))
+                            && (worst < 0 || criteria[i * N_CRITERIA + WEIGHT]
+                                    > criteria[worst * N_CRITERIA + WEIGHT]))
+                        worst = i;
+                }
+                if (worst >= 0) {
+                    if (criteria[worst * N_CRITERIA + WEIGHT] <= label[WEIGHT])
+                        return false;
+                    remove(worst);
+                    evictedCount++;
+                }
+            }
+            if (size == states.length) {
+                int capacity = Math.max(size + 1, Math.min(maxLabels, size * 2));
+                states = Arrays.copyOf(states, capacity);
+                criteria = Arrays.copyOf(criteria, capacity * N_CRITERIA);
+            }
+            states[size] = state;
+            System.arraycopy(label, 0, criteria, size * N_CRITERIA, N_CRITERIA);
+            size++;
+            return true;
+        }
+
+        /** Remove label i by moving the last label into its place */
+        void remove(int i) {
+            size--;
+            states[i] = states[size];
+            System.arraycopy(criteria, size * N_CRITERIA, criteria, i * N_CRITERIA, N_CRITERIA);
+            states[size] = null;
+        }
+
+        int indexOf(State state) {
+            for (int i = 0; i < size; i++) {
+                if (states[i] == state)
+                    return i;
+            }
+            return -1;
+        }
+
+        List<State> toList() {
+            return new ArrayList<State>(Arrays.asList(states).subList(0, size));
+        }
+    }
+}
@@ -13,6 +13,11 @@
 
 package org.opentripplanner.routing.trippattern;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -79,6 +84,32 @@ public class TripUpdateList extends AbstractUpdate {
         return !updates.isEmpty() && updates.get(0).hasDelay();
     }
 
+    /**
+     * @return a SHA-1 digest of everything in this list that determines the resulting TripTimes:
+     *         the status, and the stop, sequence number, times and status of each update.
+     *         Timestamps are left out so that a trip repeated unchanged in consecutive feed
+     *         messages has the same digest. The trip and service date are left out as well, since
+     *         callers compare digests of updates for the same trip and date. This must be called
+     *         before filter().
+     */
+    public byte[] getContentDigest() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(status.ordinal());
+            out.writeInt(updates.size());
+            for (Update u : updates) {
+                u.writeContent(out);
+            }
+            out.flush();
+            return MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public enum Status {
         /** This trip should be added to the graph, valid on the given serviceDate. */
         ADDED,
@@ -13,6 +13,9 @@
 
 package org.opentripplanner.routing.trippattern;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import lombok.Getter;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -95,6 +98,28 @@ public class Update extends AbstractUpdate implements Comparable<Update> {
         return result;
     }
 
+    /**
+     * Writes the content of this update, without the timestamp and trip: see
+     * TripUpdateList.getContentDigest(). Strings are length-prefixed and nulls flagged, so
+     * different contents never write the same bytes.
+     */
+    void writeContent(DataOutputStream out) throws IOException {
+        writeString(out, stopId.getAgencyId());
+        writeString(out, stopId.getId());
+        out.writeBoolean(stopSeq != null);
+        out.writeInt(stopSeq == null ? 0 : stopSeq);
+        out.writeBoolean(delay != null);
+        out.writeInt(delay == null ? 0 : delay);
+        out.writeInt(arrive);
+        out.writeInt(depart);
+        out.writeInt(status == null ? -1 : status.ordinal());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        out.writeUTF(s == null ? "" : s);
+    }
+
     @Override
     public String toString() {
         if(hasDelay())
@@ -28,9 +28,10 @@ public class BikeRentalStationVertex extends AbstractVertex {
 
     private static final long serialVersionUID = MavenVersion.VERSION.getUID();
 
-    private int bikesAvailable;
+    /* Updated in place by the bike rental updater while searches read them, see setAvailability */
+    private volatile int bikesAvailable;
 
-    private int spacesAvailable;
+    private volatile int spacesAvailable;
 
     private String id;
     
@@ -57,6 +58,15 @@ public class BikeRentalStationVertex extends AbstractVertex {
         this.spacesAvailable = spaces;
     }
 
+    /**
+     * Update the counts of an existing station. Each count is read on its own by the rental
+     * edges, so publishing each with a volatile write is enough for running searches to see it.
+     */
+    public void setAvailability(int bikes, int spaces) {
+        this.bikesAvailable = bikes;
+        this.spacesAvailable = spaces;
+    }
+
     public String getId() {
         return id;
     }
@@ -100,6 +100,14 @@ public class CommandLineParameters {
             description = "enable OTP Analyst extensions")
     boolean analyst;
     
+    @Parameter( names = { "--tileCache"},
+            description = "directory in which rendered analyst tiles are cached")
+    String tileCacheDirectory;
+
+    @Parameter( names = { "--tileCacheSize"}, validateWith = PositiveInteger.class,
+            description = "maximum size in megabytes of the analyst tile cache directory")
+    Integer tileCacheSize = 1024;
+
     @Parameter( names = { "-g", "--graphs"}, validateWith = ReadableDirectory.class, 
             description = "path to graph directory")
     String graphDirectory;
@@ -112,6 +120,18 @@ public class CommandLineParameters {
     description = "server port")
     Integer port;
 
+    @Parameter( names = { "--routingThreads"}, validateWith = PositiveInteger.class,
+    description = "number of trip planning requests routed at the same time")
+    Integer routingThreads;
+
+    @Parameter( names = { "--maxQueuedRequests"}, validateWith = PositiveInteger.class,
+    description = "number of trip planning requests that may wait for a routing thread")
+    Integer maxQueuedRequests;
+
+    @Parameter( names = { "--requestTimeout"},
+    description = "seconds after which a trip planning request is abandoned, 0 for no limit")
+    double requestTimeout = 30;
+
     @Parameter( names = { "-r", "--router"}, validateWith = RouterId.class,
     description = "Router ID, first one being the default")
     List<String> routerIds;
@@ -139,6 +159,8 @@ public class CommandLineParameters {
         if (routerIds == null) routerIds = Arrays.asList(DEFAULT_ROUTER_ID);
         if (staticDirectory == null) staticDirectory = DEFAULT_STATIC_DIRECTORY;        
         if (cacheDirectory == null)  cacheDirectory  = DEFAULT_CACHE_DIRECTORY;        
+        if (routingThreads == null) routingThreads = Runtime.getRuntime().availableProcessors();
+        if (maxQueuedRequests == null) maxQueuedRequests = 4 * routingThreads;
         if (server && port == null) {
             port = DEFAULT_PORT;
             new AvailablePort().validate(port);
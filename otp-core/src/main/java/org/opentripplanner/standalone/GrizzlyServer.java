@@ -108,8 +108,14 @@ public class GrizzlyServer {
         HttpServer httpServer = new HttpServer();
         NetworkListener networkListener = 
                 new NetworkListener("otp_listener", "0.0.0.0", params.port); // TODO add option for address to listen on
+        /* Trip planning runs on the RoutingExecutor's threads, while the HTTP workers mostly wait
+           for it. Allow a worker for every request being routed or waiting to be routed, plus
+           some for cheap requests (metadata, static files), which would otherwise queue behind
+           slow searches. */
+        int nWorkers = params.routingThreads + params.maxQueuedRequests
+                + Runtime.getRuntime().availableProcessors();
         ThreadPoolConfig threadPoolConfig = ThreadPoolConfig.defaultConfig()
-                .setCorePoolSize(1).setMaxPoolSize(Runtime.getRuntime().availableProcessors());
+                .setCorePoolSize(1).setMaxPoolSize(nWorkers);
         networkListener.getTransport().setWorkerThreadPoolConfig(threadPoolConfig);
         httpServer.addListener(networkListener);
         ResourceConfig rc = new PackagesResourceConfig("org.opentripplanner");
@@ -106,6 +106,9 @@ public class OTPComponentProviderFactory implements IoCComponentProviderFactory
                             LOG.error("Failed to perform field injection: {}", ex.toString());
                             ex.printStackTrace();
                         }
+                    } else if (field.isAnnotationPresent(Autowired.class)
+                            && !field.getAnnotation(Autowired.class).required()) {
+                        LOG.debug("Found no binding for optional {}", field.getType());
                     } else {
                         LOG.error("Found no binding for {}", field.getType());
                     }                        
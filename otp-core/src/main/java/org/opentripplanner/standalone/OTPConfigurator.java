@@ -8,6 +8,8 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.opentripplanner.analyst.core.GeometryIndex;
+import org.opentripplanner.analyst.request.BatchSearchService;
+import org.opentripplanner.analyst.request.DiskTileCache;
 import org.opentripplanner.analyst.request.Renderer;
 import org.opentripplanner.analyst.request.SPTCache;
 import org.opentripplanner.analyst.request.SampleFactory;
@@ -39,6 +41,7 @@ import org.opentripplanner.routing.impl.DefaultRemainingWeightHeuristicFactoryIm
 import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
 import org.opentripplanner.routing.impl.GraphServiceImpl;
 import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
+import org.opentripplanner.routing.impl.RoutingExecutor;
 import org.opentripplanner.routing.impl.LongDistancePathService;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PathService;
@@ -85,6 +88,8 @@ public class OTPConfigurator {
         cpf.bind(GraphService.class, getGraphService());
         cpf.bind(RoutingRequest.class);
         cpf.bind(PlanGenerator.class);
+        cpf.bind(RoutingExecutor.class, new RoutingExecutor(params.routingThreads,
+                params.maxQueuedRequests, params.requestTimeout));
         cpf.bind(MetadataService.class);
         cpf.bind(SPTService.class, new GenericAStar());
         
@@ -109,6 +114,11 @@ public class OTPConfigurator {
             cpf.bind(TileCache.class);
             cpf.bind(GeometryIndex.class);
             cpf.bind(SampleFactory.class);
+            cpf.bind(BatchSearchService.class);
+            if (params.tileCacheDirectory != null) {
+                cpf.bind(DiskTileCache.class, new DiskTileCache(
+                        new File(params.tileCacheDirectory), (long) params.tileCacheSize << 20));
+            }
         }
         
         // Perform field injection on bound instances and call post-construct methods
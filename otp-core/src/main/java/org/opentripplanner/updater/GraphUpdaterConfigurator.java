@@ -58,7 +58,7 @@ public class GraphUpdaterConfigurator {
 
     public void setupGraph(Graph graph, Preferences mainConfig) {
         // Create a updater manager for this graph
-        GraphUpdaterManager updaterManager = new GraphUpdaterManager(graph);
+        GraphUpdaterManager updaterManager = createUpdaterManager(graph, mainConfig);
 
         // Look for embedded config if it exists
         Properties embeddedGraphPreferences = graph.getEmbeddedPreferences();
@@ -82,6 +82,28 @@ public class GraphUpdaterConfigurator {
         }
     }
 
+    /**
+     * Create the updater manager, sizing its graph writer queue from the top-level properties
+     * writerQueueSize and writerQueuePolicy (BLOCK or DROP) when they are present.
+     */
+    private GraphUpdaterManager createUpdaterManager(Graph graph, Preferences mainConfig) {
+        if (mainConfig == null) {
+            return new GraphUpdaterManager(graph);
+        }
+        int maxQueueSize = mainConfig.getInt("writerQueueSize",
+                GraphUpdaterManager.DEFAULT_MAX_QUEUE_SIZE);
+        String policy = mainConfig.get("writerQueuePolicy", "BLOCK");
+        GraphUpdaterManager.QueueFullPolicy queueFullPolicy;
+        try {
+            queueFullPolicy = GraphUpdaterManager.QueueFullPolicy.valueOf(policy.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unknown graph writer queue policy: " + policy + ", using BLOCK");
+            queueFullPolicy = GraphUpdaterManager.QueueFullPolicy.BLOCK;
+        }
+        LOG.info("Graph writer queue holds {} updates, {} when full", maxQueueSize, queueFullPolicy);
+        return new GraphUpdaterManager(graph, maxQueueSize, queueFullPolicy);
+    }
+
     /**
      * Apply a list of configs to a graph. Please note that the order of the config in the list *is
      * important* as a child node already seen will not be overriden.
@@ -14,15 +14,23 @@
 package org.opentripplanner.updater;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.MapUtils;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,18 +45,64 @@ import org.slf4j.LoggerFactory;
  * updaters, this should be done via the execute method of this manager to prevent race conditions
  * between graph write operations.
  * 
+ * Graph writer runnables wait in a bounded queue. The writer thread drains it in batches; within a
+ * batch, a SupersedingGraphWriterRunnable is skipped when a later runnable with the same key
+ * follows it. When the queue is full, execute either blocks the calling updater or drops the
+ * runnable, depending on the QueueFullPolicy.
+ * 
  */
 public class GraphUpdaterManager {
 
     private static Logger LOG = LoggerFactory.getLogger(GraphUpdaterManager.class);
 
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /** What execute does when the writer queue is full. */
+    public enum QueueFullPolicy {
+        /** Wait until there is room in the queue. */
+        BLOCK,
+        /**
+         * Drop the new runnable, unless it supersedes a queued runnable, which it then replaces in
+         * place.
+         */
+        DROP
+    }
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+
+    /** The maximum number of runnables applied in one pass of the writer thread. */
+    private static final int MAX_BATCH_SIZE = 100;
+
     /**
      * OTP's multi-version concurrency control model for graph updating allows simultaneous reads,
      * but never simultaneous writes. We ensure this policy is respected by having a single writer
-     * thread, which sequentially executes all graph updater tasks. Each task is a runnable that is
-     * scheduled with the ExecutorService to run at regular intervals.
+     * thread, which sequentially executes all graph updater tasks taken from the queue. It is a
+     * daemon thread, so that a manager which is never stopped does not keep the JVM alive.
      */
-    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "graph-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Graph writer runnables waiting for the writer thread.
+     */
+    private BlockingQueue<WriterTask> queue;
+
+    private QueueFullPolicy queueFullPolicy;
+
+    private AtomicLong droppedCount = new AtomicLong();
+
+    private AtomicLong supersededCount = new AtomicLong();
+
+    private AtomicLong appliedCount = new AtomicLong();
+
+    /** Time between queueing and completing the most recently applied runnable, in milliseconds. */
+    private volatile long lastApplyLatency = 0;
 
     /**
      * Pool with updaters
@@ -71,7 +125,26 @@ public class GraphUpdaterManager {
      * @param graph is parent graph of manager
      */
     public GraphUpdaterManager(Graph graph) {
+        this(graph, DEFAULT_MAX_QUEUE_SIZE, QueueFullPolicy.BLOCK);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param graph is parent graph of manager
+     * @param maxQueueSize is the number of graph writer runnables that can wait for the writer
+     * @param queueFullPolicy is what execute does when that many runnables are waiting
+     */
+    public GraphUpdaterManager(Graph graph, int maxQueueSize, QueueFullPolicy queueFullPolicy) {
         this.graph = graph;
+        this.queue = new LinkedBlockingQueue<WriterTask>(maxQueueSize);
+        this.queueFullPolicy = queueFullPolicy;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
     }
 
     public void stop() {
@@ -95,16 +168,16 @@ public class GraphUpdaterManager {
         }
         updaterList.clear();
 
-        // Shutdown scheduler
-        scheduler.shutdownNow();
+        // Shutdown writer
+        writer.shutdownNow();
         try {
-            boolean ok = scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            boolean ok = writer.awaitTermination(30, TimeUnit.SECONDS);
             if (!ok) {
-                LOG.warn("Timeout waiting for scheduled task to finish.");
+                LOG.warn("Timeout waiting for graph writer to finish.");
             }
         } catch (InterruptedException e) {
             // This should not happen
-            LOG.warn("Interrupted while waiting for scheduled task to finish.");
+            LOG.warn("Interrupted while waiting for graph writer to finish.");
         }
     }
 
@@ -134,19 +207,34 @@ public class GraphUpdaterManager {
 
     /**
      * This is the method to use to modify the graph from the updaters. The runnables will be
-     * scheduled after each other, guaranteeing that only one of these runnables will be active at
-     * any time.
+     * executed after each other, guaranteeing that only one of these runnables will be active at
+     * any time. If the queue is full, this blocks or drops the runnable depending on the
+     * QueueFullPolicy.
      * 
      * @param runnable is a graph writer runnable
      */
     public void execute(GraphWriterRunnable runnable) {
-        executeReturningFuture(runnable);
+        WriterTask task = new WriterTask(runnable);
+        if (queueFullPolicy == QueueFullPolicy.BLOCK) {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while queueing graph writer {}", runnable.getClass().getName());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } else if (!queue.offer(task) && !replaceSuperseded(runnable)) {
+            droppedCount.incrementAndGet();
+            LOG.warn("Graph writer queue is full, dropping {}", runnable.getClass().getName());
+            return;
+        }
+        recordQueueSize();
     }
 
     /**
      * This is another method to use to modify the graph from the updaters. It behaves like execute,
      * but blocks until the runnable has been executed. This might be particularly useful in the 
-     * setup method of an updater.
+     * setup method of an updater. The runnable is never dropped, whatever the QueueFullPolicy.
      * 
      * @param runnable is a graph writer runnable
      * @throws ExecutionException
@@ -155,30 +243,215 @@ public class GraphUpdaterManager {
      */
     public void executeBlocking(GraphWriterRunnable runnable) throws InterruptedException,
             ExecutionException {
-        Future<?> future = executeReturningFuture(runnable);
+        WriterTask task = new WriterTask(runnable);
+        queue.put(task);
+        recordQueueSize();
         // Ask for result of future. Will block and return null when runnable is successfully
         // finished, throws otherwise
-        future.get();
+        task.get();
     }
 
-    private Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
-        // TODO: check for high water mark?
-        Future<?> future = scheduler.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runnable.run(graph);
-                } catch (Exception e) {
-                    LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
-                            e);
+    /**
+     * Puts the given runnable in the place of the last queued runnable it supersedes. The queue
+     * itself is not modified, so no other caller can take the place of the replaced runnable.
+     * 
+     * @return false if no queued runnable with the same key is still waiting for the writer
+     */
+    private boolean replaceSuperseded(GraphWriterRunnable runnable) {
+        if (!(runnable instanceof SupersedingGraphWriterRunnable)) {
+            return false;
+        }
+        Object key = ((SupersedingGraphWriterRunnable) runnable).getSupersedingKey();
+        if (key == null) {
+            return false;
+        }
+        WriterTask last = null;
+        for (WriterTask queued : queue) {
+            if (key.equals(queued.getSupersedingKey())) {
+                last = queued;
+            }
+        }
+        if (last == null || !last.slot.replace(runnable)) {
+            return false;
+        }
+        supersededCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The writer thread loop: takes all queued runnables, up to MAX_BATCH_SIZE, and applies them.
+     */
+    private void runWriter() {
+        List<WriterTask> batch = new ArrayList<WriterTask>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            applyBatch(batch);
+            batch.clear();
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        // Release anybody still waiting on a runnable that will never run
+        List<WriterTask> remaining = new ArrayList<WriterTask>();
+        queue.drainTo(remaining);
+        for (WriterTask task : remaining) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Applies a batch of runnables in queue order, skipping any that a later runnable in the batch
+     * supersedes. Skipped runnables complete together with the runnable that superseded them.
+     */
+    private void applyBatch(List<WriterTask> batch) {
+        Map<Object, Integer> lastIndexForKey = new HashMap<Object, Integer>();
+        for (int i = 0; i < batch.size(); i++) {
+            Object key = batch.get(i).getSupersedingKey();
+            if (key != null) {
+                lastIndexForKey.put(key, i);
+            }
+        }
+        Map<Object, List<WriterTask>> superseded = new HashMap<Object, List<WriterTask>>();
+        for (int i = 0; i < batch.size(); i++) {
+            WriterTask task = batch.get(i);
+            Object key = task.getSupersedingKey();
+            if (key != null && lastIndexForKey.get(key) != i) {
+                MapUtils.addToMapList(superseded, key, task);
+                supersededCount.incrementAndGet();
+                continue;
+            }
+            task.run();
+            long latency = System.currentTimeMillis() - task.queuedTime;
+            lastApplyLatency = latency;
+            appliedCount.incrementAndGet();
+            store.setLongMax("graphWriterLatency", latency);
+            if (key != null && superseded.containsKey(key)) {
+                for (WriterTask skipped : superseded.remove(key)) {
+                    skipped.supersede();
                 }
             }
-        });
-        return future;
+        }
+    }
+
+    private void recordQueueSize() {
+        store.setLongMax("graphWriterQueueSize", queue.size());
     }
 
     public int size() {
         return updaterList.size();
     }
 
+    /** @return the number of graph writer runnables waiting to be applied */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /** @return the number of graph writer runnables applied so far */
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+
+    /** @return the number of graph writer runnables dropped because the queue was full */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /** @return the number of graph writer runnables skipped because a later one superseded them */
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    /**
+     * @return the time between queueing and completing the most recently applied runnable, in
+     *         milliseconds
+     */
+    public long getLastApplyLatency() {
+        return lastApplyLatency;
+    }
+
+    /**
+     * A queued graph writer runnable, which doubles as the Future handed back to its caller. If
+     * its runnable is replaced by a superseding one, the Future completes when that one has run.
+     */
+    private class WriterTask extends FutureTask<Void> {
+
+        private final RunnableSlot slot;
+
+        private final long queuedTime = System.currentTimeMillis();
+
+        WriterTask(GraphWriterRunnable runnable) {
+            this(new RunnableSlot(runnable));
+        }
+
+        private WriterTask(RunnableSlot slot) {
+            super(slot, null);
+            this.slot = slot;
+        }
+
+        Object getSupersedingKey() {
+            GraphWriterRunnable runnable = slot.get();
+            if (runnable instanceof SupersedingGraphWriterRunnable) {
+                return ((SupersedingGraphWriterRunnable) runnable).getSupersedingKey();
+            }
+            return null;
+        }
+
+        /** Completes this task without running it, because a later one replaces its effect. */
+        void supersede() {
+            slot.close();
+            set(null);
+        }
+    }
+
+    /**
+     * The runnable of a WriterTask, which a superseding runnable can replace until the writer
+     * thread runs or skips it.
+     */
+    private class RunnableSlot implements Runnable {
+
+        private GraphWriterRunnable runnable;
+
+        private boolean closed = false;
+
+        RunnableSlot(GraphWriterRunnable runnable) {
+            this.runnable = runnable;
+        }
+
+        synchronized GraphWriterRunnable get() {
+            return runnable;
+        }
+
+        /** @return false if the writer thread has already run or skipped the current runnable */
+        synchronized boolean replace(GraphWriterRunnable replacement) {
+            if (closed) {
+                return false;
+            }
+            runnable = replacement;
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        @Override
+        public void run() {
+            GraphWriterRunnable current;
+            synchronized (this) {
+                closed = true;
+                current = runnable;
+            }
+            try {
+                current.run(graph);
+            } catch (Exception e) {
+                LOG.error("Error while running graph writer {}:", current.getClass().getName(), e);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,33 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater;
+
+/**
+ * A graph writer runnable that completely replaces whatever was written by earlier runnables with
+ * the same key, for instance the full list of bike rental stations or alerts from one updater.
+ * When several of these are waiting in the GraphUpdaterManager queue, only the most recent one is
+ * applied.
+ * 
+ * Incremental updates, which depend on the updates before them, must not implement this interface.
+ * 
+ * @see GraphUpdaterManager.execute
+ */
+public interface SupersedingGraphWriterRunnable extends GraphWriterRunnable {
+
+    /**
+     * Runnables with equal keys supersede each other. This is usually the updater that created
+     * the runnable.
+     */
+    public Object getSupersedingKey();
+}
@@ -16,11 +16,13 @@ package org.opentripplanner.updater.alerts;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.patch.AlertPatch;
+import org.opentripplanner.routing.patch.Patch;
 import org.opentripplanner.routing.patch.TimePeriod;
 import org.opentripplanner.routing.patch.TranslatedString;
 import org.opentripplanner.routing.services.PatchService;
@@ -55,21 +57,29 @@ public class AlertsUpdateHandler {
     public AlertsUpdateHandler() {
     }
 
+    /**
+     * Replace the patches of the previous message by those of the given one, in a single update of
+     * the patch service so that no search sees the alerts of both or of neither.
+     */
     public void update(FeedMessage message) {
-        patchService.expire(patchIds);
+        Set<String> expired = new HashSet<String>(patchIds);
         patchIds.clear();
 
+        List<Patch> patches = new ArrayList<Patch>();
         for (FeedEntity entity : message.getEntityList()) {
             if (!entity.hasAlert()) {
                 continue;
             }
             GtfsRealtime.Alert alert = entity.getAlert();
             String id = entity.getId();
-            handleAlert(id, alert);
+            handleAlert(id, alert, patches);
         }
+        // patches that are in the new message as well are replaced rather than expired
+        expired.removeAll(patchIds);
+        patchService.update(expired, patches);
     }
 
-    private void handleAlert(String id, GtfsRealtime.Alert alert) {
+    private void handleAlert(String id, GtfsRealtime.Alert alert, List<Patch> patches) {
         Alert alertText = new Alert();
         alertText.alertDescriptionText = deBuffer(alert.getDescriptionText());
         alertText.alertHeaderText = deBuffer(alert.getHeaderText());
@@ -141,7 +151,7 @@ public class AlertsUpdateHandler {
             patch.setId(patchId);
             patchIds.add(patchId);
 
-            patchService.apply(patch);
+            patches.add(patch);
         }
     }
 
@@ -21,8 +21,8 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.PatchServiceImpl;
 import org.opentripplanner.routing.services.PatchService;
 import org.opentripplanner.updater.GraphUpdaterManager;
-import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.PollingGraphUpdater;
+import org.opentripplanner.updater.SupersedingGraphWriterRunnable;
 import org.opentripplanner.util.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -105,12 +105,18 @@ public class GtfsRealtimeAlertsUpdater extends PollingGraphUpdater {
                 return;
             }
             
-            // Handle update in graph writer runnable
-            updaterManager.execute(new GraphWriterRunnable() {
+            // Handle update in graph writer runnable. Each feed replaces all alerts from the
+            // previous one, so it also replaces any feed still waiting to be applied.
+            updaterManager.execute(new SupersedingGraphWriterRunnable() {
                 @Override
                 public void run(Graph graph) {
                     updateHandler.update(feed);
                 }
+
+                @Override
+                public Object getSupersedingKey() {
+                    return GtfsRealtimeAlertsUpdater.this;
+                }
             });
 
             lastTimestamp = feedTimestamp;
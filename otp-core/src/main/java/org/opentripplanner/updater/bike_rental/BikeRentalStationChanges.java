@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+
+/**
+ * The changes made by one poll of a bike rental data source, at the level of stations. Most polls
+ * only change the numbers of bikes and spaces at existing stations, which can be written to their
+ * vertices directly. Stations that appear, disappear, move or are renamed are structural changes,
+ * which need their vertices to be created again and linked to or unlinked from the street network.
+ */
+class BikeRentalStationChanges {
+
+    /** Existing stations whose bike and space counts or real-time flag changed */
+    final List<BikeRentalStation> changed = new ArrayList<BikeRentalStation>();
+
+    /** Whether any station was added, removed, moved or renamed */
+    boolean structural = false;
+
+    boolean isEmpty() {
+        return changed.isEmpty() && !structural;
+    }
+
+    /**
+     * Compare a full list of stations with the known stations, which are updated to the new list.
+     */
+    static BikeRentalStationChanges between(Map<String, BikeRentalStation> known,
+            List<BikeRentalStation> stations) {
+        BikeRentalStationChanges changes = new BikeRentalStationChanges();
+        Set<String> ids = new HashSet<String>(stations.size());
+        for (BikeRentalStation station : stations) {
+            ids.add(station.id);
+            changes.add(known.put(station.id, station), station);
+        }
+        for (Iterator<String> it = known.keySet().iterator(); it.hasNext();) {
+            if (!ids.contains(it.next())) {
+                it.remove();
+                changes.structural = true;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Apply changes reported by a data source to the known stations, which costs time in the
+     * number of changes rather than the number of stations.
+     */
+    static BikeRentalStationChanges applying(Map<String, BikeRentalStation> known,
+            List<BikeRentalStation> changed, Collection<String> removedIds) {
+        BikeRentalStationChanges changes = new BikeRentalStationChanges();
+        for (BikeRentalStation station : changed) {
+            changes.add(known.put(station.id, station), station);
+        }
+        for (String id : removedIds) {
+            if (known.remove(id) != null)
+                changes.structural = true;
+        }
+        return changes;
+    }
+
+    private void add(BikeRentalStation previous, BikeRentalStation station) {
+        if (previous == null || previous.x != station.x || previous.y != station.y
+                || !equal(previous.name, station.name)) {
+            // vertex names are fixed, so a renamed station gets a new vertex
+            structural = true;
+        } else if (previous.bikesAvailable != station.bikesAvailable
+                || previous.spacesAvailable != station.spacesAvailable
+                || previous.realTimeData != station.realTimeData) {
+            this.changed.add(station);
+        }
+    }
+
+    static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
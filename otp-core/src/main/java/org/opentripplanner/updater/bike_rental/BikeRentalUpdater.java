@@ -26,6 +26,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.prefs.Preferences;
 
 import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.Setter;
 
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
@@ -41,12 +42,21 @@ import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.PollingGraphUpdater;
 import org.opentripplanner.updater.PreferencesConfigurable;
+import org.opentripplanner.updater.SupersedingGraphWriterRunnable;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Dynamic bike-rental station updater which encapsulate one BikeRentalDataSource.
  * 
+ * Each poll is compared with the previous one station by station, unless the source reports its
+ * own changes (see DeltaBikeRentalDataSource). Polls that only change bike and space counts are
+ * applied to the existing station vertices; only polls that add, remove, move or rename stations
+ * relink the stations to the street network. The time from a poll to its changes being visible in the
+ * graph is recorded as bikeRentalUpdateLatency.
+ * 
  * Usage example ('bike1' name is an example) in the file 'Graph.properties':
  * 
  * <pre>
@@ -61,6 +71,8 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
 
     private static final Logger LOG = LoggerFactory.getLogger(BikeRentalUpdater.class);
 
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
     private GraphUpdaterManager updaterManager;
 
     private static final String DEFAULT_NETWORK_LIST = "default";
@@ -75,6 +87,22 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
 
     private BikeRentalStationService service;
 
+    /** The stations as of the last poll, by id. Only used by the polling thread. */
+    private Map<String, BikeRentalStation> knownStations = new HashMap<String, BikeRentalStation>();
+
+    /** Whether the next poll should send all stations, whatever the source reports as changed */
+    private boolean resynchronize = true;
+
+    /** The number of polls sent to the graph so far. Only used by the polling thread. */
+    private long pollSequence = 0;
+
+    /** The poll of the last structural update applied. Only used by the graph writer thread. */
+    private long appliedStructuralSequence = -1;
+
+    /** Time between the most recent applied poll and its changes being visible, in milliseconds */
+    @Getter
+    private volatile long lastUpdateLatency = 0;
+
     @Setter
     private String network = "default";
 
@@ -119,6 +147,12 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                 source);
     }
 
+    /** Poll the given source into the given graph, without any preferences */
+    void setSource(Graph graph, BikeRentalDataSource source) {
+        this.graph = graph;
+        this.source = source;
+    }
+
     @Override
     public void setup() throws InterruptedException, ExecutionException {
         // Creation of network linker library will not modify the graph
@@ -141,36 +175,126 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
     @Override
     protected void runPolling() throws Exception {
         LOG.debug("Updating bike rental stations from " + source);
+        long polledTime = System.currentTimeMillis();
         if (!source.update()) {
             LOG.debug("No updates");
             return;
         }
-        List<BikeRentalStation> stations = source.getStations();
+        BikeRentalStationChanges changes = null;
+        if (source instanceof DeltaBikeRentalDataSource && !resynchronize) {
+            DeltaBikeRentalDataSource deltaSource = (DeltaBikeRentalDataSource) source;
+            List<BikeRentalStation> changed = deltaSource.getChangedStations();
+            if (changed != null) {
+                changes = BikeRentalStationChanges.applying(knownStations, changed,
+                        deltaSource.getRemovedStationIds());
+            }
+        }
+        if (changes == null) {
+            changes = BikeRentalStationChanges.between(knownStations, source.getStations());
+        }
+        resynchronize = false;
+        if (changes.isEmpty()) {
+            LOG.debug("No changes");
+            return;
+        }
 
-        // Create graph writer runnable to apply these stations to the graph
-        BikeRentalGraphWriterRunnable graphWriterRunnable = new BikeRentalGraphWriterRunnable(stations);
+        // Only added, removed or moved stations need the whole set of stations to be relinked
+        GraphWriterRunnable graphWriterRunnable;
+        long sequence = pollSequence++;
+        if (changes.structural) {
+            graphWriterRunnable = new BikeRentalGraphWriterRunnable(
+                    new ArrayList<BikeRentalStation>(knownStations.values()), sequence, polledTime);
+        } else {
+            graphWriterRunnable = new BikeRentalAvailabilityRunnable(changes.changed, sequence,
+                    polledTime);
+        }
+        long droppedCount = updaterManager.getDroppedCount();
         updaterManager.execute(graphWriterRunnable);
+        if (updaterManager.getDroppedCount() != droppedCount) {
+            // Changes may have been lost from a full queue, send all stations next time
+            knownStations.clear();
+            resynchronize = true;
+        }
     }
 
     @Override
     public void teardown() {
     }
 
+    /** Record the time between polling the source and the graph reflecting the result */
+    private void recordLatency(long polledTime) {
+        long latency = System.currentTimeMillis() - polledTime;
+        lastUpdateLatency = latency;
+        store.setLongMax("bikeRentalUpdateLatency", latency);
+        LOG.debug("Bike rental update visible {} msec after polling", latency);
+    }
+
+    /**
+     * Updates the bike and space counts of existing stations, without touching the graph
+     * structure. Each one only carries the changes of one poll, so it must not be skipped unless a
+     * later structural update, which carries all stations, has already been applied. That happens
+     * when a full queue lets the structural update take the place of an earlier one, ahead of
+     * this runnable.
+     */
     @AllArgsConstructor
-    private class BikeRentalGraphWriterRunnable implements GraphWriterRunnable {
+    private class BikeRentalAvailabilityRunnable implements GraphWriterRunnable {
 
         private List<BikeRentalStation> stations;
 
+        private long sequence;
+
+        private long polledTime;
+
+        @Override
+        public void run(Graph graph) {
+            if (sequence < appliedStructuralSequence) {
+                LOG.debug("Skipping the counts of poll {}, superseded by poll {}", sequence,
+                        appliedStructuralSequence);
+                return;
+            }
+            for (BikeRentalStation station : stations) {
+                BikeRentalStationVertex vertex = verticesByStation.get(station);
+                if (vertex == null)
+                    continue; // not linked yet, the next structural update will add it
+                service.addStation(station);
+                vertex.setAvailability(station.bikesAvailable, station.spacesAvailable);
+            }
+            recordLatency(polledTime);
+        }
+    }
+
+    @AllArgsConstructor
+    private class BikeRentalGraphWriterRunnable implements SupersedingGraphWriterRunnable {
+
+        private List<BikeRentalStation> stations;
+
+        private long sequence;
+
+        private long polledTime;
+
+        /** Each update carries all the stations, replacing any update still waiting to be applied. */
+        @Override
+        public Object getSupersedingKey() {
+            return BikeRentalUpdater.this;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
             Set<BikeRentalStation> stationSet = new HashSet<BikeRentalStation>();
             Set<String> networks = new HashSet<String>(Arrays.asList(network));
-            /* add any new stations and update bike counts for existing stations */
+            /* add any new, moved or renamed stations and update bike counts for existing ones */
             for (BikeRentalStation station : stations) {
                 service.addStation(station);
                 stationSet.add(station);
                 BikeRentalStationVertex vertex = verticesByStation.get(station);
+                if (vertex != null && (vertex.getX() != station.x || vertex.getY() != station.y
+                        || !BikeRentalStationChanges.equal(vertex.getName(), station.name))) {
+                    if (graph.containsVertex(vertex)) {
+                        graph.removeVertexAndEdges(vertex);
+                    }
+                    vertex = null;
+                }
                 if (vertex == null) {
                     vertex = new BikeRentalStationVertex(graph, station);
                     LinkRequest request = networkLinkerLibrary.connectVertexToStreets(vertex);
@@ -181,8 +305,7 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                     new RentABikeOnEdge(vertex, vertex, networks);
                     new RentABikeOffEdge(vertex, vertex, networks);
                 } else {
-                    vertex.setBikesAvailable(station.bikesAvailable);
-                    vertex.setSpacesAvailable(station.spacesAvailable);
+                    vertex.setAvailability(station.bikesAvailable, station.spacesAvailable);
                 }
             }
             /* remove existing stations that were not present in the update */
@@ -203,6 +326,8 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                 // post-iteration removal to avoid concurrent modification
                 verticesByStation.remove(station);
             }
+            appliedStructuralSequence = sequence;
+            recordLatency(polledTime);
         }
     }
 }
@@ -0,0 +1,37 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+
+/**
+ * A bike rental data source that can report what changed in its last update, so that the updater
+ * does not have to compare every station with the previous poll. getStations must still return
+ * all the stations, for the first update and whenever the updater has to resynchronize.
+ */
+public interface DeltaBikeRentalDataSource extends BikeRentalDataSource {
+
+    /**
+     * @return the stations added or changed by the last update, or null if the last update
+     *         cannot be expressed as changes, in which case getStations is used instead. The
+     *         first update should return null.
+     */
+    List<BikeRentalStation> getChangedStations();
+
+    /** @return the ids of the stations removed by the last update, if getChangedStations is not null */
+    Collection<String> getRemovedStationIds();
+}
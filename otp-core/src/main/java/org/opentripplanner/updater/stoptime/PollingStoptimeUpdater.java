@@ -40,6 +40,14 @@ import org.slf4j.LoggerFactory;
  * rt.defaultAgencyId = TA
  * </pre>
  * 
+ * For streaming sources (gtfs-zmq, kv8-zmq), frequencySec is typically 0 and messages can be
+ * applied in micro-batches, see {@link TripUpdateBatcher}:
+ * 
+ * <pre>
+ * rt.batchWindowMs = 1000
+ * rt.maxBatchSize = 1000
+ * </pre>
+ * 
  */
 public class PollingStoptimeUpdater extends PollingGraphUpdater {
 
@@ -70,6 +78,12 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Collects the updates of streaming sources into batches, or null to apply every poll on its
+     * own
+     */
+    private TripUpdateBatcher batcher;
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -107,6 +121,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
         if (!purgeExpiredData.isEmpty()) {
             this.purgeExpiredData = preferences.getBoolean("purgeExpiredData", true);
         }
+        batcher = TripUpdateBatcher.fromPreferences(updaterManager, preferences);
 
         LOG.info("Creating stop time updater running every {} seconds : {}", getFrequencySec(), updateSource);
     }
@@ -148,6 +163,12 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
         // Get update lists from update source
         List<TripUpdateList> updates = updateSource.getUpdates();
 
+        // Collect trip updates into the current batch, if batching
+        if (batcher != null) {
+            batcher.add(updates);
+            return;
+        }
+
         // Handle trip updates via graph writer runnable
         TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(updates);
         updaterManager.execute(runnable);
@@ -155,6 +176,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
 
     @Override
     public void teardown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
     }
 
     public String toString() {
@@ -13,12 +13,18 @@
 
 package org.opentripplanner.updater.stoptime;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import lombok.Getter;
 import lombok.Setter;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.model.T2;
 import org.opentripplanner.routing.edgetype.TableTripPattern;
 import org.opentripplanner.routing.edgetype.TimetableResolver;
 import org.opentripplanner.routing.graph.Graph;
@@ -52,6 +58,9 @@ public class TimetableSnapshotSource {
      * given to more than one routing thread if the maximum snapshot frequency is exceeded. 
      */
     private TimetableResolver snapshot = null;
+
+    /** The number of snapshots committed so far, which identifies the last one. */
+    private long snapshotVersion = 0;
     
     /** The working copy of the timetable resolver. Should not be visible to routing threads. */
     private TimetableResolver buffer = new TimetableResolver();
@@ -62,6 +71,24 @@ public class TimetableSnapshotSource {
     /** The TransitIndexService */
     private TransitIndexService transitIndexService;
     
+    /**
+     * Content digests of the last update applied to each trip on each service date. An update with
+     * the same content as the last one applied to its trip would produce identical TripTimes, so
+     * it is skipped without copying its Timetable. Digests are forgotten once their service date
+     * has expired, whether or not the expired timetables are purged.
+     */
+    private Map<T2<AgencyAndId, ServiceDate>, byte[]> appliedContentDigests =
+            new HashMap<T2<AgencyAndId, ServiceDate>, byte[]>();
+
+    /** The service date up to which digests have been forgotten */
+    private ServiceDate lastForgetDate = null;
+
+    /** Number of trip updates applied to a trip, since this snapshot source was created. */
+    @Getter private long changedTripCount = 0;
+
+    /** Number of trip updates skipped because they did not change their trip. */
+    @Getter private long unchangedTripCount = 0;
+
     protected ServiceDate lastPurgeDate = null;
     
     protected long lastSnapshotTime = -1;
@@ -83,12 +110,23 @@ public class TimetableSnapshotSource {
         return getTimetableSnapshot(false);
     }
     
+    /**
+     * @return the version of the snapshot that getTimetableSnapshot returns now. It is incremented
+     *         whenever a new snapshot is committed, so requests that see the same version are
+     *         routed on the same realtime data.
+     */
+    public synchronized long getTimetableSnapshotVersion() {
+        getTimetableSnapshot(false);
+        return snapshotVersion;
+    }
+
     protected synchronized TimetableResolver getTimetableSnapshot(boolean force) {
         long now = System.currentTimeMillis();
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                snapshotVersion++;
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
@@ -111,11 +149,22 @@ public class TimetableSnapshotSource {
 
         LOG.debug("message contains {} trip update blocks", updates.size());
         int uIndex = 0;
+        int nChanged = 0;
+        int nUnchanged = 0;
         for (TripUpdateList tripUpdateList : updates) {
             uIndex += 1;
             LOG.debug("trip update block #{} ({} updates) :", uIndex, tripUpdateList.getUpdates().size());
             LOG.trace("{}", tripUpdateList);
-            
+
+            T2<AgencyAndId, ServiceDate> tripKey = new T2<AgencyAndId, ServiceDate>(
+                    tripUpdateList.getTripId(), tripUpdateList.getServiceDate());
+            byte[] contentDigest = tripUpdateList.getContentDigest();
+            if (Arrays.equals(appliedContentDigests.get(tripKey), contentDigest)) {
+                LOG.trace("trip update block #{} is unchanged, skipping.", uIndex);
+                nUnchanged++;
+                continue;
+            }
+
             boolean applied = false;
             switch(tripUpdateList.getStatus()) {
             case ADDED:
@@ -134,15 +183,23 @@ public class TimetableSnapshotSource {
             
             if(applied) {
                 appliedBlockCount++;
+                nChanged++;
+                appliedContentDigests.put(tripKey, contentDigest);
              } else {
                  LOG.warn("Failed to apply TripUpdateList: {}", tripUpdateList);
+                 // whatever the last applied update was, it has now been superseded
+                 appliedContentDigests.remove(tripKey);
              }
 
              if (appliedBlockCount % logFrequency == 0) {
                  LOG.info("Applied {} stoptime update blocks.", appliedBlockCount);
              }
         }
-        LOG.debug("end of update message");
+        changedTripCount += nChanged;
+        unchangedTripCount += nUnchanged;
+        LOG.debug("end of update message: {} trips changed, {} unchanged, {} failed", nChanged,
+                nUnchanged, updates.size() - nChanged - nUnchanged);
+        forgetExpiredDigests();
         
         // Make a snapshot after each message in anticipation of incoming requests
         // Purge data if necessary (and force new snapshot if anything was purged)
@@ -216,10 +273,28 @@ public class TimetableSnapshotSource {
         // TODO: purge expired realtime data
         
         lastPurgeDate = previously;
-        
+
         return buffer.purgeExpiredData(previously);
     }
 
+    /**
+     * Forget the updates applied to trips on expired service dates, at most once a day. Those
+     * trips are no longer updated, so their digests would otherwise pile up.
+     */
+    private void forgetExpiredDigests() {
+        ServiceDate previously = new ServiceDate().previous().previous();
+        if (lastForgetDate != null && lastForgetDate.compareTo(previously) >= 0)
+            return;
+        for (Iterator<T2<AgencyAndId, ServiceDate>> it = appliedContentDigests.keySet().iterator();
+                it.hasNext();) {
+            ServiceDate serviceDate = it.next().getSecond();
+            if (serviceDate != null && previously.compareTo(serviceDate) >= 0) {
+                it.remove();
+            }
+        }
+        lastForgetDate = previously;
+    }
+
     protected TableTripPattern getPatternForTrip(AgencyAndId tripId) {
         TableTripPattern pattern = transitIndexService.getTripPatternForTrip(tripId);
         return pattern;
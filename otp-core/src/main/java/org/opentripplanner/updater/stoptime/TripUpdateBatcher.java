@@ -0,0 +1,206 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.stoptime;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+
+import lombok.Getter;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.model.T2;
+import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the TripUpdateLists of a streaming realtime source into micro-batches. Each batch is
+ * applied to the graph by a single TripUpdateGraphWriterRunnable, and hence results in a single
+ * TimetableSnapshotSource commit, rather than one per incoming message.
+ *
+ * A batch is handed to the graph updater manager when it holds maxBatchSize distinct trips, or
+ * windowMs milliseconds after its first update arrived, whichever comes first. Within a batch,
+ * only the latest update for each trip and service date is kept: realtime updates are applied on
+ * top of the scheduled times, so a newer update for a trip completely replaces an older one.
+ *
+ * Usage example, in addition to the preferences of the streaming updater itself:
+ *
+ * <pre>
+ * rt.batchWindowMs = 1000
+ * rt.maxBatchSize = 1000
+ * </pre>
+ */
+public class TripUpdateBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripUpdateBatcher.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Parent update manager. Is used to execute graph writer runnables.
+     */
+    private final GraphUpdaterManager updaterManager;
+
+    /**
+     * The maximum number of distinct trips in a batch
+     */
+    @Getter
+    private final int maxBatchSize;
+
+    /**
+     * The maximum number of milliseconds an update waits in a batch before it is applied
+     */
+    @Getter
+    private final long windowMs;
+
+    /**
+     * Fires the time-based flushes
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The batch being collected, keyed on trip and service date, in order of first arrival
+     */
+    private Map<T2<AgencyAndId, ServiceDate>, TripUpdateList> pending =
+            new LinkedHashMap<T2<AgencyAndId, ServiceDate>, TripUpdateList>();
+
+    /**
+     * The time-based flush of the batch being collected, if one is scheduled
+     */
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    /** Number of trip updates received */
+    @Getter
+    private long receivedCount = 0;
+
+    /** Number of trip updates replaced by a newer update for the same trip within a batch */
+    @Getter
+    private long duplicateCount = 0;
+
+    /** Number of batches handed to the graph updater manager */
+    @Getter
+    private long batchCount = 0;
+
+    public TripUpdateBatcher(GraphUpdaterManager updaterManager, int maxBatchSize, long windowMs) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1.");
+        this.updaterManager = updaterManager;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMs = windowMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "trip-update-batcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create a batcher from the preferences batchWindowMs and maxBatchSize of a streaming updater.
+     *
+     * @return the batcher, or null if batchWindowMs is not set, in which case every message should
+     *         be applied on its own.
+     */
+    public static TripUpdateBatcher fromPreferences(GraphUpdaterManager updaterManager,
+            Preferences preferences) {
+        long windowMs = preferences.getLong("batchWindowMs", -1);
+        if (windowMs < 0)
+            return null;
+        int maxBatchSize = preferences.getInt("maxBatchSize", DEFAULT_MAX_BATCH_SIZE);
+        LOG.info("Batching trip updates for at most {} ms or {} trips", windowMs, maxBatchSize);
+        return new TripUpdateBatcher(updaterManager, maxBatchSize, windowMs);
+    }
+
+    /**
+     * Add the updates decoded from one incoming message to the current batch. This may block when
+     * the batch is full and the graph writer queue is full as well.
+     */
+    public synchronized void add(List<TripUpdateList> updates) {
+        if (updates == null || updates.isEmpty())
+            return;
+
+        for (TripUpdateList update : updates) {
+            T2<AgencyAndId, ServiceDate> key = new T2<AgencyAndId, ServiceDate>(
+                    update.getTripId(), update.getServiceDate());
+            TripUpdateList previous = pending.put(key, update);
+            if (previous != null) {
+                duplicateCount++;
+                // never let an update that arrived late replace a newer one
+                if (previous.getTimestamp() > update.getTimestamp()) {
+                    pending.put(key, previous);
+                }
+            }
+        }
+        receivedCount += updates.size();
+
+        if (pending.size() >= maxBatchSize || windowMs == 0) {
+            flush();
+        } else if (scheduledFlush == null) {
+            final long batchNumber = batchCount;
+            scheduledFlush = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(batchNumber);
+                }
+            }, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hand the current batch to the graph updater manager, if it is not empty.
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty())
+            return;
+
+        List<TripUpdateList> batch = new ArrayList<TripUpdateList>(pending.values());
+        pending = new LinkedHashMap<T2<AgencyAndId, ServiceDate>, TripUpdateList>();
+        batchCount++;
+        LOG.debug("Applying batch #{} of {} trip updates", batchCount, batch.size());
+        updaterManager.execute(new TripUpdateGraphWriterRunnable(batch));
+    }
+
+    /**
+     * Time-based flush: only flush if the batch it was scheduled for has not been flushed yet.
+     */
+    private synchronized void flush(long batchNumber) {
+        if (batchCount == batchNumber) {
+            flush();
+        }
+    }
+
+    /**
+     * Apply the remaining updates and stop the timer.
+     */
+    public void shutdown() {
+        flush();
+        timer.shutdownNow();
+    }
+}
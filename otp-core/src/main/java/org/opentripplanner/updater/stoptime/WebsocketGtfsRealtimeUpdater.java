@@ -48,6 +48,14 @@ import com.ning.http.client.websocket.WebSocketUpgradeHandler;
  * websocket.url = ws://localhost:8088/tripUpdates
  * </pre>
  * 
+ * Messages can be applied in micro-batches rather than one by one, see
+ * {@link TripUpdateBatcher}:
+ * 
+ * <pre>
+ * websocket.batchWindowMs = 1000
+ * websocket.maxBatchSize = 1000
+ * </pre>
+ * 
  */
 public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
 
@@ -80,6 +88,11 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
      */
     private int reconnectPeriodSec;
 
+    /**
+     * Collects incoming updates into batches, or null to apply every message on its own
+     */
+    private TripUpdateBatcher batcher;
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -91,6 +104,7 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
         url = preferences.get("url", null);
         agencyId = preferences.get("defaultAgencyId", "");
         reconnectPeriodSec = preferences.getInt("reconnectPeriodSec", DEFAULT_RECONNECT_PERIOD_SEC);
+        batcher = TripUpdateBatcher.fromPreferences(updaterManager, preferences);
     }
 
     @Override
@@ -160,6 +174,9 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
 
     @Override
     public void teardown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
     }
 
     /**
@@ -173,9 +190,14 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
                 FeedMessage feed = GtfsRealtime.FeedMessage.PARSER.parseFrom(message);
                 List<TripUpdateList> updates = TripUpdateList.decodeFromGtfsRealtime(feed, agencyId);
 
-                // Handle trip updates via graph writer runnable
-                TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(updates);
-                updaterManager.execute(runnable);
+                if (batcher != null) {
+                    // Collect trip updates into the current batch
+                    batcher.add(updates);
+                } else {
+                    // Handle trip updates via graph writer runnable
+                    TripUpdateGraphWriterRunnable runnable = new TripUpdateGraphWriterRunnable(updates);
+                    updaterManager.execute(runnable);
+                }
             } catch (InvalidProtocolBufferException e) {
                 LOG.error("Could not decode gtfs-rt message:", e);
             }
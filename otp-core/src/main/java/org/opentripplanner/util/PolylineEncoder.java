@@ -20,6 +20,7 @@ import java.util.List;
 import org.opentripplanner.util.model.EncodedPolylineBean;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
@@ -95,6 +96,32 @@ public class PolylineEncoder {
         return new EncodedPolylineBean(pointsString, levelsString, count);
     }
 
+    /**
+     * Encode the concatenation of the given line strings, reading their coordinate sequences in
+     * place rather than copying them into one coordinate list first. The first point of each line
+     * string after the first one is skipped, since it duplicates the last point of the previous
+     * one.
+     */
+    public static EncodedPolylineBean encodeLineStrings(List<LineString> lineStrings) {
+        StringBuilder encodedPoints = new StringBuilder();
+        int plat = 0;
+        int plng = 0;
+        int count = 0;
+        for (LineString lineString : lineStrings) {
+            CoordinateSequence sequence = lineString.getCoordinateSequence();
+            for (int i = (count == 0) ? 0 : 1; i < sequence.size(); i++) {
+                int late5 = floor1e5(sequence.getY(i));
+                int lnge5 = floor1e5(sequence.getX(i));
+                appendSignedNumber(encodedPoints, late5 - plat);
+                appendSignedNumber(encodedPoints, lnge5 - plng);
+                plat = late5;
+                plng = lnge5;
+                count++;
+            }
+        }
+        return new EncodedPolylineBean(encodedPoints.toString(), null, count);
+    }
+
     public static List<Coordinate> decode(EncodedPolylineBean polyline) {
 
         String pointString = polyline.getPoints();
@@ -137,6 +164,18 @@ public class PolylineEncoder {
         return (encodeNumber(sgn_num));
     }
 
+    private static void appendSignedNumber(StringBuilder sb, int num) {
+        int sgn_num = num << 1;
+        if (num < 0) {
+            sgn_num = ~(sgn_num);
+        }
+        while (sgn_num >= 0x20) {
+            sb.append((char) ((0x20 | (sgn_num & 0x1f)) + 63));
+            sgn_num >>= 5;
+        }
+        sb.append((char) (sgn_num + 63));
+    }
+
     public static int decodeSignedNumber(String value) {
         int[] r = decodeSignedNumberWithIndex(value, 0);
         return r[0];
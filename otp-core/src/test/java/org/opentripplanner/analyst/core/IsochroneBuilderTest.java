@@ -0,0 +1,158 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Traces isochrones on small synthetic grids of one degree cells, whose south-west corner is at
+ * the origin, so that the center of cell (c, r) is at (c + 0.5, r + 0.5). Crossing points are
+ * interpolated between cell centers, and between a cell and the unreachable grid points around
+ * it they are half way.
+ */
+public class IsochroneBuilderTest {
+
+    private static final int U = TimeSurface.UNREACHABLE;
+
+    private static final double DELTA = 1e-9;
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private static TimeSurface surface(int cols, int[] times) {
+        return new TimeSurface(0, 0, 1, 1, cols, times);
+    }
+
+    private static Point point(double x, double y) {
+        return geometryFactory.createPoint(new Coordinate(x, y));
+    }
+
+    /** Times grow by 100 sec per cell away from the center, so contours are diamonds. */
+    @Test
+    public void testNestedDiamonds() {
+        int[] times = new int[7 * 7];
+        for (int r = 0; r < 7; r++) {
+            for (int c = 0; c < 7; c++) {
+                times[r * 7 + c] = 100 * (Math.abs(c - 3) + Math.abs(r - 3));
+            }
+        }
+        MultiPolygon[] isochrones = IsochroneBuilder.build(surface(7, times),
+                new int[] { 250, 150 });
+
+        // |x - 3.5| + |y - 3.5| <= 2.5 and <= 1.5
+        MultiPolygon outer = isochrones[0];
+        MultiPolygon inner = isochrones[1];
+        assertEquals(1, outer.getNumGeometries());
+        assertEquals(1, inner.getNumGeometries());
+        assertEquals(12.5, outer.getArea(), DELTA);
+        assertEquals(4.5, inner.getArea(), DELTA);
+        assertEquals(new Envelope(1, 6, 1, 6), outer.getEnvelopeInternal());
+        assertEquals(new Envelope(2, 5, 2, 5), inner.getEnvelopeInternal());
+        assertTrue(outer.isValid());
+        assertTrue(inner.isValid());
+        assertTrue(outer.contains(inner));
+    }
+
+    /** A ring of reachable cells around an unreachable one makes a polygon with a hole. */
+    @Test
+    public void testUnreachableHole() {
+        int[] times = new int[5 * 5];
+        for (int r = 0; r < 5; r++) {
+            for (int c = 0; c < 5; c++) {
+                int ring = Math.max(Math.abs(c - 2), Math.abs(r - 2));
+                times[r * 5 + c] = ring == 0 ? U : ring == 1 ? 100 : 900;
+            }
+        }
+        MultiPolygon isochrone = IsochroneBuilder.build(surface(5, times), new int[] { 500 })[0];
+
+        assertEquals(1, isochrone.getNumGeometries());
+        Polygon polygon = (Polygon) isochrone.getGeometryN(0);
+        assertEquals(1, polygon.getNumInteriorRing());
+        // the square [1, 4] without its corners, and a diamond around the center cell
+        LinearRing exterior = (LinearRing) polygon.getExteriorRing();
+        LinearRing interior = (LinearRing) polygon.getInteriorRingN(0);
+        Polygon shell = geometryFactory.createPolygon(exterior, null);
+        Polygon hole = geometryFactory.createPolygon(interior, null);
+        assertEquals(9 - 4 * 0.125, shell.getArea(), DELTA);
+        assertEquals(0.5, hole.getArea(), DELTA);
+        assertEquals(new Envelope(2, 3, 2, 3), hole.getEnvelopeInternal());
+        assertTrue(polygon.isValid());
+        assertTrue(polygon.contains(point(1.5, 1.5)));
+        assertFalse(polygon.contains(point(2.5, 2.5)));
+    }
+
+    /**
+     * Two reachable cells touching at a corner, with two unreachable ones: whether they are
+     * connected depends on the average of the four cells.
+     */
+    @Test
+    public void testSaddle() {
+        int[] times = { 0, 1000, 1000, 0 };
+
+        // average 500 > 400: two separate polygons
+        MultiPolygon isochrone = IsochroneBuilder.build(surface(2, times), new int[] { 400 })[0];
+        assertEquals(2, isochrone.getNumGeometries());
+        assertEquals(2 * 0.405, isochrone.getArea(), DELTA);
+        assertTrue(isochrone.isValid());
+        assertTrue(isochrone.contains(point(0.5, 0.5)));
+        assertTrue(isochrone.contains(point(1.5, 1.5)));
+        assertFalse(isochrone.contains(point(1, 1)));
+
+        // average 500 <= 600: one polygon across the center
+        isochrone = IsochroneBuilder.build(surface(2, times), new int[] { 600 })[0];
+        assertEquals(1, isochrone.getNumGeometries());
+        assertEquals(1.69, isochrone.getArea(), DELTA);
+        assertTrue(isochrone.isValid());
+        assertTrue(isochrone.contains(point(1, 1)));
+    }
+
+    /** Bands that reach the edge of the grid are closed half a cell beyond the last cells. */
+    @Test
+    public void testGridEdge() {
+        int[] times = new int[4 * 3];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 4; c++) {
+                times[r * 4 + c] = 100 * (c + 1);
+            }
+        }
+        MultiPolygon[] isochrones = IsochroneBuilder.build(surface(4, times),
+                new int[] { 50, 250, 1000 });
+
+        // nothing is reachable within 50 sec
+        assertTrue(isochrones[0].isEmpty());
+
+        // the first two columns, without the four corners
+        assertEquals(1, isochrones[1].getNumGeometries());
+        assertEquals(new Envelope(0, 2, 0, 3), isochrones[1].getEnvelopeInternal());
+        assertEquals(6 - 4 * 0.125, isochrones[1].getArea(), DELTA);
+        assertTrue(isochrones[1].isValid());
+
+        // the whole grid, without its four corners
+        assertEquals(1, isochrones[2].getNumGeometries());
+        assertEquals(new Envelope(0, 4, 0, 3), isochrones[2].getEnvelopeInternal());
+        assertEquals(12 - 4 * 0.125, isochrones[2].getArea(), DELTA);
+        assertTrue(isochrones[2].isValid());
+    }
+}
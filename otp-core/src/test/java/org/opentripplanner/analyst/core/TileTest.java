@@ -0,0 +1,186 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.analyst.parameter.Layer;
+import org.opentripplanner.analyst.parameter.MIMEImageFormat;
+import org.opentripplanner.analyst.parameter.Style;
+import org.opentripplanner.analyst.request.RenderRequest;
+import org.opentripplanner.analyst.request.TileRequest;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+/**
+ * Renders a 256x256 tile, which is split in several chunks rendered in parallel, and compares
+ * every pixel with the same tile rendered serially, one sample or one coordinate at a time.
+ */
+public class TileTest {
+
+    private static final double WEST = -122.70, SOUTH = 45.50, SIZE = 0.02;
+
+    private static final int N = 4;
+
+    private Vertex[] vertices = new Vertex[N * N];
+
+    private ShortestPathTree spt, spt2;
+
+    private SampleSource sampleSource;
+
+    private Tile tile;
+
+    /**
+     * A grid of vertices reached at the start of the search, except one in each SPT. Samples are
+     * linked to the two nearest vertices, with a time growing with the distance to them and with
+     * the index of the vertex, so that some pixels are clamped, and there are no samples outside
+     * a circle in the middle of the tile.
+     */
+    @Before
+    public void setUp() {
+        Graph graph = new Graph();
+        RoutingRequest options = new RoutingRequest();
+        spt = new BasicShortestPathTree(options);
+        spt2 = new BasicShortestPathTree(options);
+        for (int i = 0; i < N * N; i++) {
+            double x = WEST + (i % N + 0.5) * SIZE / N;
+            double y = SOUTH + (i / N + 0.5) * SIZE / N;
+            vertices[i] = new IntersectionVertex(graph, "v" + i, x, y);
+            if (i != 5)
+                spt.add(new State(vertices[i], 0, options));
+            if (i != 10)
+                spt2.add(new State(vertices[i], 0, options));
+        }
+        sampleSource = new SampleSource() {
+            @Override
+            public Sample getSample(double lon, double lat) {
+                double dx = lon - (WEST + SIZE / 2);
+                double dy = lat - (SOUTH + SIZE / 2);
+                if (dx * dx + dy * dy > SIZE * SIZE / 5)
+                    return null;
+                int i0 = -1, i1 = -1;
+                double d0 = Double.MAX_VALUE, d1 = Double.MAX_VALUE;
+                for (int i = 0; i < vertices.length; i++) {
+                    double d = distance(vertices[i], lon, lat);
+                    if (d < d0) {
+                        i1 = i0;
+                        d1 = d0;
+                        i0 = i;
+                        d0 = d;
+                    } else if (d < d1) {
+                        i1 = i;
+                        d1 = d;
+                    }
+                }
+                return new Sample(vertices[i0], (int) (d0 * 3) + i0 * 500, vertices[i1],
+                        (int) (d1 * 3) + i1 * 500);
+            }
+        };
+        Envelope2D bbox = new Envelope2D(DefaultGeographicCRS.WGS84, WEST, SOUTH, SIZE, SIZE);
+        tile = new DynamicTile(new TileRequest(bbox, 256, 256), sampleSource);
+    }
+
+    private static double distance(Vertex v, double lon, double lat) {
+        double dx = (v.getX() - lon) * 111111 * Math.cos(Math.toRadians(lat));
+        double dy = (v.getY() - lat) * 111111;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static byte[] pixels(BufferedImage image) {
+        assertNotNull(image);
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static byte toPixel(double minutes) {
+        return (byte) Math.max(-120, Math.min(120, minutes));
+    }
+
+    private static RenderRequest renderRequest(Layer layer, Style style) {
+        return new RenderRequest(new MIMEImageFormat("image/png"), layer, style, true, false);
+    }
+
+    @Test
+    public void testSPT() {
+        Sample[] samples = tile.getSamples();
+        byte[] expected = new byte[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            long t = samples[i] == null ? Long.MAX_VALUE : samples[i].eval(spt);
+            expected[i] = t == Long.MAX_VALUE ? Tile.UNREACHABLE : toPixel(t / 60);
+        }
+        RenderRequest rr = renderRequest(Layer.TRAVELTIME, Style.COLOR30);
+        assertArrayEquals(expected, pixels(tile.generateImage(spt, rr)));
+        // again, from the cached vertex times
+        assertArrayEquals(expected, pixels(tile.generateImage(spt, rr)));
+    }
+
+    @Test
+    public void testBoardings() {
+        Sample[] samples = tile.getSamples();
+        byte[] expected = new byte[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            expected[i] = samples[i] == null ? Tile.UNREACHABLE : samples[i].evalBoardings(spt);
+        }
+        RenderRequest rr = renderRequest(Layer.TRAVELTIME, Style.BOARDINGS);
+        assertArrayEquals(expected, pixels(tile.generateImage(spt, rr)));
+    }
+
+    @Test
+    public void testTimeSurfaces() {
+        TimeSurface surface = TimeSurface.build(spt, sampleSource, 20);
+        TimeSurface surface2 = TimeSurface.build(spt2, sampleSource, 20);
+        double[] coords = tile.getWorldCoordinates();
+        int n = coords.length / 2;
+        byte[] expected = new byte[n];
+        byte[] expectedDifference = new byte[n];
+        for (int i = 0; i < n; i++) {
+            int t = surface.getTime(coords[2 * i], coords[2 * i + 1]);
+            int t2 = surface2.getTime(coords[2 * i], coords[2 * i + 1]);
+            expected[i] = t == TimeSurface.UNREACHABLE ? Tile.UNREACHABLE : toPixel(t / 60);
+            expectedDifference[i] = t == TimeSurface.UNREACHABLE || t2 == TimeSurface.UNREACHABLE
+                    ? Tile.UNREACHABLE : toPixel((t - t2) / 60.0 + 10);
+        }
+        assertArrayEquals(expected, pixels(tile.generateImage(surface,
+                renderRequest(Layer.TRAVELTIME, Style.COLOR30))));
+        assertArrayEquals(expectedDifference, pixels(tile.linearCombination(1, surface, -1,
+                surface2, 10, renderRequest(Layer.DIFFERENCE, Style.DIFFERENCE))));
+    }
+
+    /** An SPT that reaches nothing has a surface, and renders as unreachable everywhere. */
+    @Test
+    public void testEmptySurface() {
+        TimeSurface surface = TimeSurface.build(new BasicShortestPathTree(new RoutingRequest()),
+                sampleSource, 20);
+        assertNotNull(surface);
+        assertEquals(TimeSurface.UNREACHABLE, surface.getTime(WEST + SIZE / 2, SOUTH + SIZE / 2));
+        byte[] expected = new byte[tile.getWorldCoordinates().length / 2];
+        Arrays.fill(expected, Tile.UNREACHABLE);
+        assertArrayEquals(expected, pixels(tile.generateImage(surface,
+                renderRequest(Layer.TRAVELTIME, Style.COLOR30))));
+    }
+}
@@ -0,0 +1,208 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.analyst.parameter.Layer;
+import org.opentripplanner.analyst.parameter.MIMEImageFormat;
+import org.opentripplanner.analyst.parameter.Style;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+
+public class DiskTileCacheTest {
+
+    private File directory;
+
+    private GraphServiceBeanImpl graphService = new GraphServiceBeanImpl();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tiles", "");
+        directory.delete();
+        directory.mkdirs();
+        graphService.setGraph(new Graph());
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    private DiskTileCache newCache(long maxBytes) {
+        DiskTileCache cache = new DiskTileCache(directory, maxBytes);
+        cache.setGraphService(graphService);
+        return cache;
+    }
+
+    private static byte[] tile(int size, int value) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        assertNotNull(buffer);
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private File graphDirectory() {
+        return new File(directory, graphService.getGraph().getBuildId());
+    }
+
+    @Test
+    public void testKeys() throws Exception {
+        Graph graph = new Graph();
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        new GTFSPatternHopFactory(context).run(graph);
+        TransitIndexBuilder builder = new TransitIndexBuilder();
+        builder.setDao(context.getDao());
+        builder.buildGraph(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        graphService.setGraph(graph);
+        DiskTileCache cache = newCache(1 << 20);
+
+        TileRequest tileRequest = new TileRequest(new Envelope2D(DefaultGeographicCRS.WGS84,
+                -122.7, 45.5, 0.01, 0.01), 256, 256);
+        RenderRequest renderRequest = new RenderRequest(new MIMEImageFormat("image/png"),
+                Layer.TRAVELTIME, Style.COLOR30, true, false);
+        RoutingRequest req = new RoutingRequest();
+        req.setFromString("45.5,-122.6");
+        req.setToString("45.6,-122.7");
+        req.dateTime = 1200000000;
+        String key = cache.getKey(tileRequest, renderRequest, req, null);
+        assertNotNull(key);
+        assertEquals(key, cache.getKey(tileRequest, renderRequest, req.clone(), null));
+        RoutingRequest later = req.clone();
+        later.dateTime += 60;
+        assertFalse(key.equals(cache.getKey(tileRequest, renderRequest, later, null)));
+
+        // keys include the version of the realtime snapshot, which only changes with the data
+        TimetableSnapshotSource snapshotSource = new TimetableSnapshotSource(graph);
+        snapshotSource.setMaxSnapshotFrequency(-1);
+        graph.setTimetableSnapshotSource(snapshotSource);
+        String realtimeKey = cache.getKey(tileRequest, renderRequest, req, null);
+        assertFalse(key.equals(realtimeKey));
+        assertEquals(realtimeKey, cache.getKey(tileRequest, renderRequest, req, null));
+        snapshotSource.applyTripUpdateLists(Arrays.asList(TripUpdateList.forCanceledTrip(
+                new AgencyAndId("agency", "1.1"), 0, new ServiceDate())));
+        String updatedKey = cache.getKey(tileRequest, renderRequest, req, null);
+        assertFalse(realtimeKey.equals(updatedKey));
+
+        // tiles are not shared between graphs
+        cache.put(updatedKey, tile(10, 1));
+        assertArrayEquals(tile(10, 1), bytes(cache.get(updatedKey)));
+        graphService.setGraph(new Graph());
+        assertNull(cache.get(updatedKey));
+    }
+
+    @Test
+    public void testEviction() {
+        DiskTileCache cache = newCache(250);
+        cache.put("a", tile(100, 1));
+        cache.put("b", tile(100, 2));
+        assertNotNull(cache.get("a"));
+        cache.put("c", tile(100, 3));
+        // b is the least recently used
+        assertNull(cache.get("b"));
+        assertArrayEquals(tile(100, 1), bytes(cache.get("a")));
+        assertArrayEquals(tile(100, 3), bytes(cache.get("c")));
+        assertEquals(2, graphDirectory().list().length);
+
+        // replacing a tile counts its new size only
+        cache.put("a", tile(160, 4));
+        assertNull(cache.get("c"));
+        assertArrayEquals(tile(160, 4), bytes(cache.get("a")));
+        assertEquals(1, graphDirectory().list().length);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        Graph graph = graphService.getGraph();
+        DiskTileCache cache = newCache(1 << 20);
+        cache.put("a", tile(100, 1));
+        cache.put("b", tile(100, 2));
+
+        // a restarted server with the same graph
+        cache = newCache(1 << 20);
+        assertArrayEquals(tile(100, 1), bytes(cache.get("a")));
+        assertArrayEquals(tile(100, 2), bytes(cache.get("b")));
+
+        // the graph is saved, and the tiles of its previous build are removed
+        File unsavedDirectory = graphDirectory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        graph.save(oos);
+        oos.close();
+        cache.put("a", tile(100, 3));
+        assertFalse(unsavedDirectory.exists());
+
+        // a server loading the same graph file finds them
+        Graph loaded = Graph.load(new ByteArrayInputStream(out.toByteArray()), LoadLevel.BASIC);
+        assertEquals(graph.getBuildId(), loaded.getBuildId());
+        graphService.setGraph(loaded);
+        cache = newCache(1 << 20);
+        assertArrayEquals(tile(100, 3), bytes(cache.get("a")));
+        assertNull(cache.get("b"));
+
+        // but not one with another graph
+        graphService.setGraph(new Graph());
+        cache = newCache(1 << 20);
+        assertNull(cache.get("a"));
+        assertTrue(graphDirectory().isDirectory());
+        assertEquals(1, directory.list().length);
+    }
+}
@@ -575,7 +575,7 @@ public class PlanGeneratorTest {
         // Edge initialization that can't be done using the constructor
         e3.setElevationProfile(elevation3, false);
         e17.addTrip(firstTrip, secondTrip, 4, 0, 0);
-        e29.addPatch(patch);
+        graph.setPatchOverlay(graph.getPatchOverlay().edit().add(e29, patch).build());
         e39.setElevationProfile(elevation39, false);
         e41.setElevationProfile(elevation41, false);
         e41.setHasBogusName(true);
@@ -0,0 +1,87 @@
+package org.opentripplanner.common.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class PackedRTreeTest {
+
+    @Test
+    public final void testQueryMatchesBruteForce() {
+        Random random = new Random(42);
+        List<Envelope> envelopes = new ArrayList<Envelope>();
+        PackedRTree<Integer> tree = new PackedRTree<Integer>(4);
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextDouble() * 10;
+            double y = random.nextDouble() * 10;
+            Envelope env = new Envelope(x, x + random.nextDouble() * 0.2, y,
+                    y + random.nextDouble() * 0.2);
+            envelopes.add(env);
+            tree.insert(env, i);
+        }
+        tree.build();
+        assertEquals(1000, tree.size());
+        for (int q = 0; q < 100; q++) {
+            double x = random.nextDouble() * 10;
+            double y = random.nextDouble() * 10;
+            Envelope query = new Envelope(x, x + random.nextDouble(), y, y + random.nextDouble());
+            Set<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < envelopes.size(); i++) {
+                if (envelopes.get(i).intersects(query))
+                    expected.add(i);
+            }
+            List<Integer> found = tree.query(query);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<Integer>(found));
+        }
+    }
+
+    @Test
+    public final void testEmptyAndSingleItem() {
+        PackedRTree<String> tree = new PackedRTree<String>();
+        assertTrue(tree.query(new Envelope(0, 1, 0, 1)).isEmpty());
+        tree = new PackedRTree<String>();
+        tree.insert(new Envelope(0.5, 0.5, 0.5, 0.5), "a");
+        assertEquals(1, tree.query(new Envelope(0, 1, 0, 1)).size());
+        assertTrue(tree.query(new Envelope(2, 3, 2, 3)).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public final void testInsertAfterBuild() {
+        PackedRTree<String> tree = new PackedRTree<String>();
+        tree.build();
+        tree.insert(new Envelope(0, 1, 0, 1), "a");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void testSerialization() throws Exception {
+        PackedRTree<String> tree = new PackedRTree<String>();
+        for (int i = 0; i < 100; i++) {
+            tree.insert(new Envelope(i, i + 1, 0, 1), Integer.toString(i));
+        }
+        tree.build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(tree);
+        out.close();
+        PackedRTree<String> copy = (PackedRTree<String>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(new HashSet<String>(tree.query(new Envelope(10.5, 12.5, 0, 1))),
+                new HashSet<String>(copy.query(new Envelope(10.5, 12.5, 0, 1))));
+        assertEquals(3, copy.query(new Envelope(10.5, 12.5, 0, 1)).size());
+    }
+}
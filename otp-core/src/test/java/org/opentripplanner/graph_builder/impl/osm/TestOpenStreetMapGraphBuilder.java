@@ -14,8 +14,11 @@
 package org.opentripplanner.graph_builder.impl.osm;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -98,6 +101,42 @@ public class TestOpenStreetMapGraphBuilder extends TestCase {
                 .getName().contains("Mariana Smoluchowskiego"));
     }
 
+    /**
+     * Area visibility graphs are computed in parallel, but the resulting graph must be identical to
+     * the one built on a single thread.
+     */
+    @Test
+    public void testParallelAreasMatchSequential() throws Exception {
+        List<String> sequential = describeEdges(buildAreaGraph(1));
+        List<String> parallel = describeEdges(buildAreaGraph(4));
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+    }
+
+    private Graph buildAreaGraph(int areaThreads) {
+        Graph gg = new Graph();
+        OpenStreetMapGraphBuilderImpl loader = new OpenStreetMapGraphBuilderImpl();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        loader.setAreaThreads(areaThreads);
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(getClass().getResource("map.osm.gz").getFile()));
+        loader.setProvider(provider);
+        loader.buildGraph(gg, new HashMap<Class<?>, Object>());
+        return gg;
+    }
+
+    private List<String> describeEdges(Graph gg) {
+        List<String> out = new ArrayList<String>();
+        for (Vertex v : gg.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                out.add(e.getFromVertex().getLabel() + " " + e.getToVertex().getLabel() + " "
+                        + e.getName() + " " + e.getDistance());
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
     /**
      * Detailed testing of OSM graph building using a very small chunk of NYC (SOHO-ish).
      * @throws Exception
@@ -16,7 +16,9 @@ package org.opentripplanner.graph_builder.impl.osm;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -26,9 +28,11 @@ import org.opentripplanner.graph_builder.impl.osm.OpenStreetMapGraphBuilderImpl;
 import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetCostTables;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -38,8 +42,12 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.MultiShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class TriangleInequalityTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TriangleInequalityTest.class);
     
     private static HashMap<Class<?>, Object> extra;
     private static Graph _graph;
@@ -169,6 +177,48 @@ public class TriangleInequalityTest {
         assertFalse(violated);
     }
 
+    /**
+     * Bike searches give the same results with and without precompiled street costs. Also reports
+     * the time taken by each.
+     */
+    @Test
+    public void testBikeSafeCostTables() {
+        List<Vertex> targets = new ArrayList<Vertex>();
+        for (Vertex v : _graph.getVertices()) {
+            if (v != start && targets.size() < 200)
+                targets.add(v);
+        }
+        RoutingRequest proto = new RoutingRequest(TraverseMode.BICYCLE, OptimizeType.SAFE);
+        GenericAStar aStar = new GenericAStar();
+        StreetCostTables tables = StreetCostTables.forGraph(_graph);
+        try {
+            tables.setEnabled(false);
+            long t0 = System.currentTimeMillis();
+            List<Double> weights = searchWeights(aStar, proto, targets);
+            long t1 = System.currentTimeMillis();
+            tables.setEnabled(true);
+            searchWeights(aStar, proto, targets); // compile the table
+            long t2 = System.currentTimeMillis();
+            List<Double> tableWeights = searchWeights(aStar, proto, targets);
+            long t3 = System.currentTimeMillis();
+            assertEquals(weights, tableWeights);
+            LOG.info("{} bike searches: {} msec on the fly, {} msec with cost tables",
+                    targets.size(), t1 - t0, t3 - t2);
+        } finally {
+            tables.setEnabled(true);
+        }
+    }
+
+    private List<Double> searchWeights(GenericAStar aStar, RoutingRequest proto,
+            List<Vertex> targets) {
+        List<Double> weights = new ArrayList<Double>();
+        for (Vertex target : targets) {
+            GraphPath path = getPath(aStar, proto, null, start, target);
+            weights.add(path == null ? null : path.getWeight());
+        }
+        return weights;
+    }
+
     @Test
     public void testTriangleInequalityDefaultModes() {
         checkTriangleInequality();
@@ -25,15 +25,20 @@ import org.opentripplanner.routing.core.Fare;
 import org.opentripplanner.routing.core.Fare.FareType;
 import org.opentripplanner.routing.core.Money;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.WrappedCurrency;
+import org.opentripplanner.routing.edgetype.HopEdge;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultFareServiceImpl;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.util.TestUtils;
 
+import com.google.common.cache.CacheStats;
+
 public class TestFares extends TestCase {
 
     private GenericAStar aStar = new GenericAStar();
@@ -110,4 +115,39 @@ public class TestFares extends TestCase {
         // thread on gtfs-changes.
         // assertEquals(cost.getFare(FareType.regular), new Money(new WrappedCurrency("USD"), 430));
     }
+
+    public void testMemoizedFaresAndLowerBound() throws Exception {
+        Graph gg = new Graph();
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(gg);
+        gg.putService(CalendarServiceData.class, GtfsLibrary.createCalendarServiceData(context.getDao()));
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        options.setRoutingContext(gg, "Caltrain_Millbrae Caltrain", "Caltrain_Mountain View Caltrain");
+        ShortestPathTree spt = aStar.getShortestPathTree(options);
+        GraphPath path = spt.getPath(gg.getVertex("Caltrain_Mountain View Caltrain"), true);
+
+        DefaultFareServiceImpl fareService = (DefaultFareServiceImpl) gg.getService(FareService.class);
+        Money expected = new Money(new WrappedCurrency("USD"), 425);
+        CacheStats before = fareService.getFareCacheStats();
+        assertEquals(expected, fareService.getCost(path).getFare(FareType.regular));
+        CacheStats first = fareService.getFareCacheStats().minus(before);
+        assertTrue(first.missCount() > 0);
+        // the second time the fares of all ride sequences come from the cache
+        assertEquals(expected, fareService.getCost(path).getFare(FareType.regular));
+        CacheStats second = fareService.getFareCacheStats().minus(before).minus(first);
+        assertEquals(0, second.missCount());
+        assertEquals(first.requestCount(), second.hitCount());
+
+        for (State state : path.states) {
+            if (state.getBackEdge() instanceof HopEdge) {
+                HopEdge hop = (HopEdge) state.getBackEdge();
+                float bound = fareService.getFareLowerBound(
+                        hop.getStartStop().getId().getAgencyId(), state.getRoute());
+                assertTrue(bound > 0);
+                assertTrue(bound <= 4.25f);
+            }
+        }
+    }
 }
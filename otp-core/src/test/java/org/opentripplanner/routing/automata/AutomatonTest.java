@@ -14,6 +14,9 @@
 package org.opentripplanner.routing.automata;
 
 import static org.opentripplanner.routing.automata.Nonterminal.*;
+
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 public class AutomatonTest extends TestCase {
@@ -80,6 +83,37 @@ public class AutomatonTest extends TestCase {
 
     }
 
+    /** The product automaton must accept exactly the inputs that all of its components accept. */
+    public void testProduct() {
+        DFA modes = itinerary.toDFA().minimize();
+        DFA thru = seq(star(NONTHRU), star(THRU), star(NONTHRU)).toDFA().minimize();
+        ProductDFA product = new ProductDFA(modes, thru);
+        assertTrue(product.accepts(AutomatonState.START) == (modes.accepts(AutomatonState.START)
+                && thru.accepts(AutomatonState.START)));
+        assertEquals(-1, product.encodeTerminal(1, 2));
+
+        Random random = new Random(42);
+        for (int n = 0; n < 1000; n++) {
+            int length = 1 + random.nextInt(10);
+            int[] modeSymbols = new int[length];
+            int[] thruSymbols = new int[length];
+            int state = AutomatonState.START;
+            for (int i = 0; i < length; i++) {
+                modeSymbols[i] = random.nextInt(3);
+                thruSymbols[i] = random.nextInt(2);
+                int terminal = product.encodeTerminal(0, modeSymbols[i])
+                        + product.encodeTerminal(1, thruSymbols[i]);
+                state = product.transition(state, terminal);
+            }
+            assertEquals(modes.parse(modeSymbols) && thru.parse(thruSymbols),
+                    product.accepts(state));
+        }
+
+        // no components at all accepts any number of empty tuples
+        ProductDFA empty = new ProductDFA();
+        assertEquals(1, empty.getStateCount());
+        assertTrue(empty.accepts(empty.transition(AutomatonState.START, 0)));
+    }
 
     private static void testParse(DFA dfa) {
         testParse(dfa, true, WALK, WALK, WALK, WALK, WALK, WALK, WALK);
@@ -0,0 +1,41 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.graph.Graph;
+
+public class TestSearchWorkspace extends TestCase {
+
+    public void testQueueIsReused() {
+        SearchWorkspace workspace = SearchWorkspace.forGraph(new Graph());
+        BinHeap<State> queue = workspace.acquireQueue(10);
+        // a nested search gets its own queue
+        BinHeap<State> nested = workspace.acquireQueue(10);
+        assertNotSame(queue, nested);
+        workspace.releaseQueue(nested);
+        for (int i = 0; i < 100; i++) {
+            queue.insert(null, i);
+        }
+        workspace.releaseQueue(queue);
+
+        BinHeap<State> reused = workspace.acquireQueue(10);
+        assertSame(queue, reused);
+        assertTrue(reused.empty());
+        assertTrue(reused.getCapacity() >= 100);
+        workspace.releaseQueue(reused);
+    }
+}
@@ -0,0 +1,64 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.TestUtils;
+
+public class TestServiceDayCache extends TestCase {
+
+    public void testServiceDaysAreCached() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        CalendarService cs = graph.getCalendarService();
+        String agencyId = graph.getAgencyIds().iterator().next();
+        ServiceDayCache cache = ServiceDayCache.forGraph(graph);
+        assertSame(cache, ServiceDayCache.forGraph(graph));
+
+        long morning = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 8, 0, 0);
+        long evening = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 20, 0, 0);
+        ServiceDay today = cache.getServiceDay(graph, morning, cs, agencyId);
+        assertSame(today, cache.getServiceDay(graph, evening, cs, agencyId));
+        ServiceDay tomorrow = cache.getServiceDay(graph, morning + 86400, cs, agencyId);
+        assertNotSame(today, tomorrow);
+
+        // cached service days are the same as freshly computed ones
+        ServiceDay fresh = new ServiceDay(graph, morning, cs, agencyId);
+        assertEquals(fresh, today);
+        assertEquals(fresh.getServiceDate(), today.getServiceDate());
+        assertEquals(fresh.serviceIdsRunning, today.serviceIdsRunning);
+    }
+
+    public void testServiceDaysAreSharedBetweenThreads() throws Exception {
+        final Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        final CalendarService cs = graph.getCalendarService();
+        final String agencyId = graph.getAgencyIds().iterator().next();
+        final long time = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 2, 8, 0, 0);
+        ServiceDay here = ServiceDayCache.forGraph(graph).getServiceDay(graph, time, cs, agencyId);
+        final ServiceDay[] there = new ServiceDay[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                there[0] = ServiceDayCache.forGraph(graph).getServiceDay(graph, time, cs,
+                        agencyId);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertSame(here, there[0]);
+    }
+}
@@ -13,6 +13,9 @@
 
 package org.opentripplanner.routing.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -119,4 +122,54 @@ public class TestTransferTable extends TestCase {
         assertEquals(5, table.getTransferTime(fromStop, toStopParent, fromTrip, toTrip, true));
         assertEquals(StopTransfer.TIMED_TRANSFER, table.getTransferTime(fromStop, toStopParent, fromTrip, toTrip2, true));
     }
+
+    /**
+     * Test lookups among many stops, after indexing the table
+     */
+    public void testIndexedTransferTable() {
+        Route route = new Route();
+        route.setId(new AgencyAndId("A1", "R1"));
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("A1", "T1"));
+        trip.setRoute(route);
+
+        TransferTable table = new TransferTable();
+        Stop fromStop = stop("S0", null);
+        List<Stop> stops = new ArrayList<Stop>();
+        stops.add(fromStop);
+        for (int i = 1; i <= 20; i++) {
+            Stop toStop = stop("S" + i, null);
+            stops.add(toStop);
+            // add them in no particular order
+            table.addTransferTime(fromStop, stop("S" + (21 - i), null), null, null, null, null,
+                    21 - i);
+        }
+        Stop child = stop("C1", "S0");
+        stops.add(child);
+        Stop unknown = stop("X", null);
+        table.index(stops);
+
+        for (int i = 1; i <= 20; i++) {
+            assertEquals(i, table.getTransferTime(fromStop, stops.get(i), trip, trip, true));
+            assertEquals(i, table.getTransferTime(child, stops.get(i), trip, trip, true));
+            assertEquals(StopTransfer.UNKNOWN_TRANSFER,
+                    table.getTransferTime(stops.get(i), fromStop, trip, trip, true));
+        }
+        assertEquals(StopTransfer.UNKNOWN_TRANSFER,
+                table.getTransferTime(fromStop, unknown, trip, trip, true));
+        assertEquals(StopTransfer.UNKNOWN_TRANSFER,
+                table.getTransferTime(unknown, fromStop, trip, trip, true));
+
+        // transfers added after indexing are found
+        table.addTransferTime(unknown, fromStop, null, null, null, null, 30);
+        assertEquals(30, table.getTransferTime(unknown, fromStop, trip, trip, true));
+        assertEquals(30, table.getTransferTime(fromStop, unknown, trip, trip, false));
+    }
+
+    private static Stop stop(String id, String parentStation) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("A1", id));
+        stop.setParentStation(parentStation);
+        return stop;
+    }
 }
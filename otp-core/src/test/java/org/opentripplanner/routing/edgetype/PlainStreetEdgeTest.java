@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -171,6 +172,55 @@ public class PlainStreetEdgeTest {
         assertEquals(42, s5.getElapsedTimeSeconds());
     }
 
+    @Test
+    public void testCostTable() {
+        PlainStreetEdge e1 = edge(v1, v2, 100.0, StreetTraversalPermission.ALL);
+        PlainStreetEdge e2 = edge(v2, v0, 50.0, StreetTraversalPermission.PEDESTRIAN);
+
+        RoutingRequest options = proto.clone();
+        options.setMode(TraverseMode.BICYCLE);
+        options.setOptimize(OptimizeType.SAFE);
+        StreetCostTable table = new StreetCostTable(StreetCostTable.indexEdges(_graph), options,
+                TraverseMode.BICYCLE);
+
+        double[] cost = new double[2];
+        assertTrue(e1.computeCost(options, TraverseMode.BICYCLE, cost));
+        int index = table.indexOf(e1);
+        assertEquals(cost[0], table.getTime(index), 0.0);
+        assertEquals(cost[1], table.getWeight(index), 0.0);
+
+        // cannot ride on a pedestrian street
+        assertFalse(e2.computeCost(options, TraverseMode.BICYCLE, cost));
+        assertTrue(Double.isNaN(table.getTime(table.indexOf(e2))));
+
+        // edges created after the edge index are costed on the fly
+        PlainStreetEdge e3 = edge(v0, v1, 10.0, StreetTraversalPermission.ALL);
+        assertEquals(-1, table.indexOf(e3));
+    }
+
+    @Test
+    public void testCostTableCompiledForRepeatedProfiles() {
+        edge(v1, v2, 100.0, StreetTraversalPermission.ALL);
+        RoutingRequest options = proto.clone();
+        options.setMode(TraverseMode.WALK);
+
+        StreetCostTables tables = StreetCostTables.forGraph(_graph);
+        StreetCostTable table = null;
+        int n = 0;
+        while (table == null && n < 10) {
+            table = tables.get(_graph, options, TraverseMode.WALK);
+            n++;
+        }
+        assertNotNull(table);
+        assertTrue(n > 1);
+        assertSame(table, tables.get(_graph, options.clone(), TraverseMode.WALK));
+
+        // a different speed is a different profile
+        RoutingRequest faster = options.clone();
+        faster.setWalkSpeed(2.0);
+        assertNull(tables.get(_graph, faster, TraverseMode.WALK));
+    }
+
     /****
      * Private Methods
      ****/
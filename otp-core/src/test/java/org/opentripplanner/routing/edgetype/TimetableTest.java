@@ -21,10 +21,13 @@ import static org.opentripplanner.common.IterableLibrary.filter;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -37,6 +40,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -44,6 +49,7 @@ import org.opentripplanner.routing.request.BannedStopSet;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.trippattern.CanceledTripTimes;
+import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.trippattern.TripUpdateList;
 import org.opentripplanner.routing.trippattern.Update;
 import org.opentripplanner.routing.trippattern.Update.Status;
@@ -156,4 +162,72 @@ public class TimetableTest {
         endTime = startTime + 40 * 60;
         assertEquals(endTime, path.getEndTime());
     }
+
+    /**
+     * The columnar search of indexed timetables must find trips at the same times as the search
+     * through the TripTimes of the indexes. Also reports the time taken by each, over all stops of
+     * the large Portland patterns at every minute of the day.
+     */
+    @Test
+    public void testColumnarSearch() {
+        Graph portland = ConstantsForTests.getInstance().getPortlandGraph();
+        Set<TableTripPattern> patterns = new LinkedHashSet<TableTripPattern>();
+        Vertex vertex = null;
+        for (TransitStopDepart tsd : filter(portland.getVertices(), TransitStopDepart.class)) {
+            for (TransitBoardAlight tba : filter(tsd.getOutgoing(), TransitBoardAlight.class)) {
+                // only timetables with more trips than INDEX_THRESHOLD are indexed
+                if (tba.getPattern().getTrips().size() > 16) {
+                    patterns.add(tba.getPattern());
+                    vertex = tsd;
+                }
+            }
+        }
+        assertFalse(patterns.isEmpty());
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 2, 0, 0, 0);
+        State state0 = new State(vertex, options);
+        String agencyId = portland.getAgencyIds().iterator().next();
+        ServiceDay sd = new ServiceDay(portland, options.dateTime,
+                portland.getCalendarService(), agencyId);
+
+        long t0 = System.nanoTime();
+        List<Integer> found = searchAll(patterns, state0, sd);
+        long columnarTime = System.nanoTime() - t0;
+        // without its columns, an indexed timetable is searched through its TripTimes
+        try {
+            for (TableTripPattern pattern : patterns) {
+                pattern.scheduledTimetable.clearColumns();
+            }
+            t0 = System.nanoTime();
+            List<Integer> expected = searchAll(patterns, state0, sd);
+            long objectTime = System.nanoTime() - t0;
+            assertEquals(expected, found);
+            System.out.println("trip searches in " + patterns.size() + " patterns: "
+                    + objectTime / 1000000 + " msec through TripTimes, " + columnarTime / 1000000
+                    + " msec through columns");
+        } finally {
+            for (TableTripPattern pattern : patterns) {
+                pattern.scheduledTimetable.finish();
+            }
+        }
+    }
+
+    /** @return the times of the trips found boarding and alighting at every stop and minute */
+    private static List<Integer> searchAll(Set<TableTripPattern> patterns, State state0,
+            ServiceDay sd) {
+        List<Integer> times = new ArrayList<Integer>();
+        for (TableTripPattern pattern : patterns) {
+            Timetable timetable = pattern.scheduledTimetable;
+            int nHops = pattern.getHopCount();
+            for (int time = 0; time < 26 * 3600; time += 60) {
+                for (int stop = 0; stop < nHops; stop++) {
+                    TripTimes tt = timetable.getNextTrip(stop, time, state0, sd, false, true);
+                    times.add(tt == null ? -1 : tt.getDepartureTime(stop));
+                    tt = timetable.getNextTrip(stop + 1, time, state0, sd, false, false);
+                    times.add(tt == null ? -1 : tt.getArrivalTime(stop));
+                }
+            }
+        }
+        return times;
+    }
 }
@@ -19,6 +19,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.patch.AlertPatch;
+import org.opentripplanner.routing.patch.PatchOverlay;
 
 public class EdgeTest {
 
@@ -74,25 +75,31 @@ public class EdgeTest {
             alerts[1].setId("1");
             alerts[2].setId("2");
             
-            edge.addPatch(alerts[0]);
-            edge.addPatch(alerts[1]);
+            PatchOverlay empty = _graph.getPatchOverlay();
+            assertTrue(empty.isEmpty());
+            PatchOverlay overlay = empty.edit().add(edge, alerts[0]).add(edge, alerts[1]).build();
             
-            assertEquals(2, edge.getPatches().size());
-            assertTrue(edge.getPatches().contains(alerts[0]));
-            assertTrue(edge.getPatches().contains(alerts[1]));
+            assertEquals(2, overlay.getPatches(edge).size());
+            assertTrue(overlay.getPatches(edge).contains(alerts[0]));
+            assertTrue(overlay.getPatches(edge).contains(alerts[1]));
+            assertTrue(overlay.getPatches(makeSimpleEdge()).isEmpty());
+            // overlays are never modified, edits make new versions
+            assertTrue(empty.getPatches(edge).isEmpty());
+            assertTrue(overlay.getVersion() > empty.getVersion());
             
-            edge.removePatch(alerts[0]);
+            overlay = overlay.edit().remove(edge, alerts[0]).build();
             
-            assertEquals(1, edge.getPatches().size());
-            assertFalse(edge.getPatches().contains(alerts[0]));
-            assertTrue(edge.getPatches().contains(alerts[1]));
+            assertEquals(1, overlay.getPatches(edge).size());
+            assertFalse(overlay.getPatches(edge).contains(alerts[0]));
+            assertTrue(overlay.getPatches(edge).contains(alerts[1]));
             
-            edge.removePatch(alerts[0]);
-            assertEquals(1, edge.getPatches().size());
-            assertFalse(edge.getPatches().contains(alerts[0]));
-            assertTrue(edge.getPatches().contains(alerts[1]));
+            overlay = overlay.edit().remove(edge, alerts[0]).build();
+            assertEquals(1, overlay.getPatches(edge).size());
+            assertFalse(overlay.getPatches(edge).contains(alerts[0]));
+            assertTrue(overlay.getPatches(edge).contains(alerts[1]));
             
-            edge.removePatch(alerts[1]);
-            assertTrue(edge.getPatches().isEmpty());
+            overlay = overlay.edit().remove(edge, alerts[1]).build();
+            assertTrue(overlay.getPatches(edge).isEmpty());
+            assertTrue(overlay.isEmpty());
         }
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.pathparser.BasicPathParser;
+import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ParetoPathServiceImplTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParetoPathServiceImplTest.class);
+
+    private static final int N_SEARCHES = 10;
+
+    /** Seconds that both searches get to find their first itinerary */
+    private static final double TIME_BUDGET = 2;
+
+    /**
+     * Run the Pareto search and the multi-objective search on the same random pairs of stops in
+     * the Portland graph, with the same time budget. Unless it timed out, the Pareto search must
+     * find an itinerary whenever the multi-objective search does, so that the result does not
+     * depend on the speed of the machine. No two itineraries it returns may tie on duration,
+     * transfers and walk distance, since the cheaper or first one dominates the other. The number
+     * of itineraries and the total time of both are only logged.
+     */
+    @Test
+    public void testParetoAgainstMultiObjective() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        ParetoPathServiceImpl pareto = new ParetoPathServiceImpl();
+        pareto.setTimeout(TIME_BUDGET);
+        MultiObjectivePathServiceImpl multiObjective = new MultiObjectivePathServiceImpl();
+        // the later timeouts only shorten the search once itineraries are found
+        multiObjective.setTimeouts(Arrays.asList(TIME_BUDGET, 1.0, 0.5, 0.4));
+
+        long paretoTime = 0;
+        long multiObjectiveTime = 0;
+        int nParetoPaths = 0;
+        int nMultiObjectivePaths = 0;
+        int nParetoTimeouts = 0;
+        Random rand = new Random(42);
+        for (int i = 0; i < N_SEARCHES; i++) {
+            Vertex[] endpoints = randomStops(graph, rand);
+
+            RoutingRequest options = createRequest(graph, endpoints);
+            long t0 = System.currentTimeMillis();
+            List<GraphPath> multiObjectivePaths = multiObjective.getPaths(options);
+            multiObjectiveTime += System.currentTimeMillis() - t0;
+            options.rctx.destroy();
+
+            options = createRequest(graph, endpoints);
+            t0 = System.currentTimeMillis();
+            List<GraphPath> paretoPaths = pareto.getPaths(options);
+            paretoTime += System.currentTimeMillis() - t0;
+            boolean timedOut = options.rctx.debug.timedOut;
+            options.rctx.destroy();
+
+            // a search that timed out still returns the itineraries it found
+            assertTrue(paretoPaths != null);
+            if (timedOut)
+                nParetoTimeouts++;
+            if (multiObjectivePaths.isEmpty())
+                continue;
+            assertTrue(timedOut || !paretoPaths.isEmpty());
+            for (GraphPath path : paretoPaths) {
+                assertEquals(endpoints[1], path.getEndVertex());
+            }
+            assertFalse(hasTies(paretoPaths));
+            nParetoPaths += paretoPaths.size();
+            nMultiObjectivePaths += multiObjectivePaths.size();
+        }
+        LOG.info("Multi-objective search: {} itineraries in {} ms", nMultiObjectivePaths,
+                multiObjectiveTime);
+        LOG.info("Pareto search: {} itineraries in {} ms, {} timeouts", nParetoPaths, paretoTime,
+                nParetoTimeouts);
+    }
+
+    /** @return true if two itineraries are identical on duration, transfers and walk distance */
+    private boolean hasTies(List<GraphPath> paths) {
+        for (int i = 0; i < paths.size(); i++) {
+            for (int j = i + 1; j < paths.size(); j++) {
+                GraphPath a = paths.get(i);
+                GraphPath b = paths.get(j);
+                if (a.getDuration() == b.getDuration()
+                        && a.states.getLast().getNumBoardings() == b.states.getLast()
+                                .getNumBoardings() && a.getWalkDistance() == b.getWalkDistance())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private RoutingRequest createRequest(Graph graph, Vertex[] endpoints) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.setRoutingContext(graph, endpoints[0], endpoints[1]);
+        options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                new NoThruTrafficPathParser() };
+        return options;
+    }
+
+    private Vertex[] randomStops(Graph graph, Random rand) {
+        Vertex start = null;
+        Vertex end = null;
+        while (start == null)
+            start = graph.getVertex("TriMet_" + rand.nextInt(10000));
+        while (end == null)
+            end = graph.getVertex("TriMet_" + rand.nextInt(10000));
+        return new Vertex[] { start, end };
+    }
+}
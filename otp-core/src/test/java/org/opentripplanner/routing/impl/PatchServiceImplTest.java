@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.impl;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -23,18 +24,20 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.patch.Alert;
 import org.opentripplanner.routing.patch.AlertPatch;
+import org.opentripplanner.routing.patch.Patch;
+import org.opentripplanner.routing.patch.PatchOverlay;
 import org.opentripplanner.routing.services.GraphService;
 
 public class PatchServiceImplTest {
     
     private class TestAlertPatch extends AlertPatch {
         @Override
-        public void apply(Graph graph) {
+        public void apply(Graph graph, PatchOverlay.Builder overlay) {
             // NO-OP
         }
 
         @Override
-        public void remove(Graph graph) {
+        public void remove(Graph graph, PatchOverlay.Builder overlay) {
             // NO-OP
         }
         
@@ -126,4 +129,20 @@ public class PatchServiceImplTest {
         assertEquals(1, instance.getAllPatches().size());
         assertTrue(instance.getAllPatches().contains(alerts[0]));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUpdate() {
+        PatchServiceImpl instance = getPatchServiceImpl();
+        instance.apply(alerts[0]);
+        instance.apply(alerts[1]);
+
+        Set<String> purge = new HashSet<String>();
+        purge.add(alerts[0].getId());
+        instance.update(purge, Arrays.<Patch> asList(alerts[2], alerts[3]));
+
+        assertEquals(3, instance.getAllPatches().size());
+        assertFalse(instance.getAllPatches().contains(alerts[0]));
+        assertTrue(instance.getStopPatches(testStop).isEmpty());
+        assertTrue(instance.getAllPatches().contains(alerts[3]));
+    }
+}
@@ -0,0 +1,148 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.pathparser.BasicPathParser;
+import org.opentripplanner.routing.pathparser.NoThruTrafficPathParser;
+import org.opentripplanner.routing.pathparser.PathParser;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RetryingPathServiceImplTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingPathServiceImplTest.class);
+
+    private static final int N_SEARCHES = 20;
+
+    /**
+     * Compare the concurrent search for additional itineraries with the sequential one, between
+     * random pairs of stops in the Portland graph. Both find the first itinerary with the same
+     * search, so they must agree on whether there is one and on the best weight. The additional
+     * itineraries come from different searches, accepted in a different order, so they are only
+     * checked to be distinct. The number of itineraries and the total time of both variants are
+     * logged.
+     */
+    @Test
+    public void testConcurrentMatchesSequential() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        RetryingPathServiceImpl sequential = createPathService(false);
+        RetryingPathServiceImpl concurrent = createPathService(true);
+
+        // warm up both variants before timing them
+        Random rand = new Random(42);
+        for (int i = 0; i < 5; i++) {
+            Vertex[] endpoints = randomStops(graph, rand);
+            sequential.getPaths(createRequest(graph, endpoints));
+            concurrent.getPaths(createRequest(graph, endpoints));
+        }
+
+        long sequentialTime = 0;
+        long concurrentTime = 0;
+        int nSequentialPaths = 0;
+        int nConcurrentPaths = 0;
+        rand = new Random(43);
+        for (int i = 0; i < N_SEARCHES; i++) {
+            Vertex[] endpoints = randomStops(graph, rand);
+
+            RoutingRequest options = createRequest(graph, endpoints);
+            long t0 = System.currentTimeMillis();
+            List<GraphPath> sequentialPaths = sequential.getPaths(options);
+            sequentialTime += System.currentTimeMillis() - t0;
+            options.rctx.destroy();
+
+            options = createRequest(graph, endpoints);
+            t0 = System.currentTimeMillis();
+            List<GraphPath> concurrentPaths = concurrent.getPaths(options);
+            concurrentTime += System.currentTimeMillis() - t0;
+            options.rctx.destroy();
+
+            if (sequentialPaths == null) {
+                assertNull(concurrentPaths);
+                continue;
+            }
+            assertTrue(concurrentPaths != null && !concurrentPaths.isEmpty());
+            assertTrue(concurrentPaths.size() <= options.numItineraries);
+            assertEquals(Collections.min(weights(sequentialPaths)),
+                    Collections.min(weights(concurrentPaths)));
+            List<List<AgencyAndId>> trips = trips(concurrentPaths);
+            assertEquals(trips.size(), new HashSet<List<AgencyAndId>>(trips).size());
+            nSequentialPaths += sequentialPaths.size();
+            nConcurrentPaths += concurrentPaths.size();
+        }
+        LOG.info("Sequential search: {} itineraries in {} ms", nSequentialPaths, sequentialTime);
+        LOG.info("Concurrent search: {} itineraries in {} ms", nConcurrentPaths, concurrentTime);
+    }
+
+    private RetryingPathServiceImpl createPathService(boolean concurrent) {
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.setSptService(new GenericAStar());
+        pathService.setConcurrent(concurrent);
+        return pathService;
+    }
+
+    private RoutingRequest createRequest(Graph graph, Vertex[] endpoints) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.numItineraries = 3;
+        options.setRoutingContext(graph, endpoints[0], endpoints[1]);
+        options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                new NoThruTrafficPathParser() };
+        return options;
+    }
+
+    private Vertex[] randomStops(Graph graph, Random rand) {
+        Vertex start = null;
+        Vertex end = null;
+        while (start == null)
+            start = graph.getVertex("TriMet_" + rand.nextInt(10000));
+        while (end == null)
+            end = graph.getVertex("TriMet_" + rand.nextInt(10000));
+        return new Vertex[] { start, end };
+    }
+
+    private List<Double> weights(List<GraphPath> paths) {
+        List<Double> weights = new ArrayList<Double>();
+        for (GraphPath path : paths) {
+            weights.add(path.getWeight());
+        }
+        return weights;
+    }
+
+    private List<List<AgencyAndId>> trips(List<GraphPath> paths) {
+        List<List<AgencyAndId>> trips = new ArrayList<List<AgencyAndId>>();
+        for (GraphPath path : paths) {
+            trips.add(path.getTrips());
+        }
+        return trips;
+    }
+}
@@ -0,0 +1,107 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.RequestTimeoutException;
+
+public class RoutingExecutorTest {
+
+    private RoutingExecutor executor;
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testResultAndDeadline() {
+        executor = new RoutingExecutor(1, 1, 10);
+        final RoutingRequest request = new RoutingRequest();
+        long before = System.currentTimeMillis();
+        long deadline = executor.execute(request, new Callable<Long>() {
+            public Long call() {
+                return request.deadline;
+            }
+        });
+        assertTrue(deadline >= before + 10000);
+        assertTrue(deadline <= System.currentTimeMillis() + 10000);
+    }
+
+    @Test
+    public void testTimedOutSearchIsInterrupted() throws Exception {
+        executor = new RoutingExecutor(1, 1, 0.1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            executor.execute(new RoutingRequest(), new Callable<Object>() {
+                public Object call() {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                }
+            });
+            fail("the request should have timed out");
+        } catch (RequestTimeoutException e) {
+            // expected
+        }
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.getTimedOutCount());
+    }
+
+    @Test
+    public void testRequestsAreRejectedWhenQueueIsFull() throws Exception {
+        executor = new RoutingExecutor(1, 1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blocking = new Callable<Object>() {
+            public Object call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+        // one request is routed and one waits, both from other threads
+        for (int i = 0; i < 2; i++) {
+            new Thread() {
+                public void run() {
+                    executor.execute(new RoutingRequest(), blocking);
+                }
+            }.start();
+        }
+        for (int i = 0; i < 500 && executor.getQueuedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        try {
+            executor.execute(new RoutingRequest(), blocking);
+            fail("the request should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+        assertEquals(1, executor.getRejectedCount());
+    }
+}
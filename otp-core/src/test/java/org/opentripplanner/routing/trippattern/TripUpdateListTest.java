@@ -0,0 +1,52 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.trippattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+public class TripUpdateListTest {
+
+    private static final AgencyAndId TRIP_ID = new AgencyAndId("agency", "1.1");
+
+    private static final ServiceDate TODAY = new ServiceDate();
+
+    private static TripUpdateList tripUpdateList(String stopId, int delay, long timestamp) {
+        Update u = new Update(TRIP_ID, new AgencyAndId("agency", stopId), 0, delay,
+                Update.Status.PREDICTION, timestamp, TODAY);
+        return TripUpdateList.forUpdatedTrip(TRIP_ID, timestamp, TODAY,
+                Collections.singletonList(u));
+    }
+
+    @Test
+    public void testContentDigest() {
+        // timestamps are left out
+        assertArrayEquals(tripUpdateList("A", 60, 0).getContentDigest(),
+                tripUpdateList("A", 60, 30).getContentDigest());
+
+        assertFalse(Arrays.equals(tripUpdateList("A", 60, 0).getContentDigest(),
+                tripUpdateList("A", 120, 0).getContentDigest()));
+
+        // stop ids with the same String.hashCode() still differ
+        assertFalse(Arrays.equals(tripUpdateList("Aa", 60, 0).getContentDigest(),
+                tripUpdateList("BB", 60, 0).getContentDigest()));
+    }
+}
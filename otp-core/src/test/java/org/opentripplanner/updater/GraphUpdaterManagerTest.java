@@ -0,0 +1,175 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphUpdaterManager.QueueFullPolicy;
+
+public class GraphUpdaterManagerTest {
+
+    private GraphUpdaterManager manager;
+
+    private List<Integer> applied = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @After
+    public void tearDown() {
+        manager.stop();
+    }
+
+    @Test
+    public void testSupersededUpdatesAreSkipped() throws Exception {
+        manager = new GraphUpdaterManager(new Graph(), 10, QueueFullPolicy.BLOCK);
+        CountDownLatch latch = holdWriter();
+        Object updater = new Object();
+        manager.execute(new Superseding(updater, 1));
+        manager.execute(new Recording(2));
+        manager.execute(new Superseding(updater, 3));
+        latch.countDown();
+        manager.executeBlocking(new Recording(4));
+
+        assertEquals(3, applied.size());
+        assertEquals(Integer.valueOf(2), applied.get(0));
+        assertEquals(Integer.valueOf(3), applied.get(1));
+        assertEquals(Integer.valueOf(4), applied.get(2));
+        assertEquals(1, manager.getSupersededCount());
+    }
+
+    @Test
+    public void testDropPolicy() throws Exception {
+        manager = new GraphUpdaterManager(new Graph(), 2, QueueFullPolicy.DROP);
+        CountDownLatch latch = holdWriter();
+        Object updater = new Object();
+        manager.execute(new Recording(1));
+        manager.execute(new Superseding(updater, 2));
+        // The queue is full: an incremental update is dropped...
+        manager.execute(new Recording(3));
+        // ...but a superseding one replaces its queued predecessor.
+        manager.execute(new Superseding(updater, 4));
+        latch.countDown();
+        manager.executeBlocking(new Recording(5));
+
+        assertEquals(3, applied.size());
+        assertEquals(Integer.valueOf(1), applied.get(0));
+        assertEquals(Integer.valueOf(4), applied.get(1));
+        assertEquals(Integer.valueOf(5), applied.get(2));
+        assertEquals(1, manager.getDroppedCount());
+        assertEquals(1, manager.getSupersededCount());
+    }
+
+    /**
+     * While the queue is full, several updaters replace their queued runnable concurrently, and
+     * other threads try to queue incremental updates. The latter are all dropped, and the last
+     * runnable of each updater is applied.
+     */
+    @Test
+    public void testConcurrentReplacement() throws Exception {
+        final int nUpdaters = 4;
+        final int nUpdates = 2000;
+        manager = new GraphUpdaterManager(new Graph(), nUpdaters, QueueFullPolicy.DROP);
+        CountDownLatch latch = holdWriter();
+        for (int u = 0; u < nUpdaters; u++) {
+            manager.execute(new Superseding(u, u * nUpdates));
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(nUpdaters * 2);
+        for (int u = 0; u < nUpdaters; u++) {
+            final int updater = u;
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i < nUpdates; i++) {
+                        manager.execute(new Superseding(updater, updater * nUpdates + i));
+                    }
+                }
+            });
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < nUpdates; i++) {
+                        manager.execute(new Recording(-1));
+                    }
+                }
+            });
+        }
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(60, TimeUnit.SECONDS));
+        latch.countDown();
+        manager.executeBlocking(new Recording(-2));
+
+        assertEquals(nUpdaters + 1, applied.size());
+        for (int u = 0; u < nUpdaters; u++) {
+            assertTrue(applied.contains((u + 1) * nUpdates - 1));
+        }
+        assertEquals(nUpdaters * nUpdates, manager.getDroppedCount());
+        assertEquals(nUpdaters * (nUpdates - 1), manager.getSupersededCount());
+    }
+
+    /** Keeps the writer thread busy until the returned latch is released. */
+    private CountDownLatch holdWriter() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.execute(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return latch;
+    }
+
+    private class Recording implements GraphWriterRunnable {
+        private int id;
+
+        Recording(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run(Graph graph) {
+            applied.add(id);
+        }
+    }
+
+    private class Superseding extends Recording implements SupersedingGraphWriterRunnable {
+        private Object key;
+
+        Superseding(Object key, int id) {
+            super(id);
+            this.key = key;
+        }
+
+        @Override
+        public Object getSupersedingKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+
+public class BikeRentalStationChangesTest {
+
+    private Map<String, BikeRentalStation> known = new HashMap<String, BikeRentalStation>();
+
+    private static BikeRentalStation station(String id, double x, int bikes) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = "station " + id;
+        station.x = x;
+        station.y = 45.5;
+        station.bikesAvailable = bikes;
+        station.spacesAvailable = 10 - bikes;
+        return station;
+    }
+
+    @Test
+    public void testFullPolls() {
+        BikeRentalStationChanges changes = BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.6, 3), station("b", -122.7, 4)));
+        assertTrue(changes.structural);
+        assertEquals(2, known.size());
+
+        // nothing changed
+        changes = BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.6, 3), station("b", -122.7, 4)));
+        assertTrue(changes.isEmpty());
+
+        // only counts changed
+        changes = BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.6, 2), station("b", -122.7, 4)));
+        assertFalse(changes.structural);
+        assertEquals(1, changes.changed.size());
+        assertEquals("a", changes.changed.get(0).id);
+        assertEquals(2, known.get("a").bikesAvailable);
+
+        // a station was renamed
+        BikeRentalStation renamed = station("b", -122.7, 4);
+        renamed.name = "renamed station b";
+        changes = BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.6, 2), renamed));
+        assertTrue(changes.structural);
+        assertEquals("renamed station b", known.get("b").name);
+
+        // a station moved
+        changes = BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.5, 2), station("b", -122.7, 4)));
+        assertTrue(changes.structural);
+
+        // a station was removed
+        changes = BikeRentalStationChanges.between(known, Arrays.asList(station("a", -122.5, 2)));
+        assertTrue(changes.structural);
+        assertEquals(Collections.singleton("a"), known.keySet());
+    }
+
+    @Test
+    public void testDeltas() {
+        BikeRentalStationChanges.between(known,
+                Arrays.asList(station("a", -122.6, 3), station("b", -122.7, 4)));
+
+        BikeRentalStationChanges changes = BikeRentalStationChanges.applying(known,
+                Arrays.asList(station("b", -122.7, 5)), Collections.<String> emptyList());
+        assertFalse(changes.structural);
+        assertEquals(1, changes.changed.size());
+        assertEquals(5, known.get("b").bikesAvailable);
+        assertEquals(2, known.size());
+
+        changes = BikeRentalStationChanges.applying(known, Arrays.asList(station("c", -122.8, 1)),
+                Arrays.asList("a"));
+        assertTrue(changes.structural);
+        assertEquals(2, known.size());
+        assertTrue(known.containsKey("b"));
+        assertTrue(known.containsKey("c"));
+
+        // removing an unknown station changes nothing
+        changes = BikeRentalStationChanges.applying(known,
+                Collections.<BikeRentalStation> emptyList(), Arrays.asList("x"));
+        assertTrue(changes.isEmpty());
+    }
+}
@@ -0,0 +1,151 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.bike_rental;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphUpdaterManager.QueueFullPolicy;
+import org.opentripplanner.updater.GraphWriterRunnable;
+
+/**
+ * Polls a fake source into a graph without streets, so that stations are not linked, and checks
+ * the station vertices once the graph writer has applied the polls.
+ */
+public class BikeRentalUpdaterTest {
+
+    private GraphUpdaterManager manager;
+
+    private BikeRentalUpdater updater;
+
+    private List<BikeRentalStation> stations = new ArrayList<BikeRentalStation>();
+
+    @Before
+    public void setUp() throws Exception {
+        Graph graph = new Graph();
+        manager = new GraphUpdaterManager(graph, 2, QueueFullPolicy.DROP);
+        updater = new BikeRentalUpdater();
+        updater.setGraphUpdaterManager(manager);
+        updater.setSource(graph, new BikeRentalDataSource() {
+            @Override
+            public boolean update() {
+                return true;
+            }
+
+            @Override
+            public List<BikeRentalStation> getStations() {
+                return new ArrayList<BikeRentalStation>(stations);
+            }
+        });
+        updater.setup();
+    }
+
+    @After
+    public void tearDown() {
+        manager.stop();
+    }
+
+    /**
+     * With a full queue, a structural update takes the place of a queued one, ahead of the counts
+     * of an older poll, which must not overwrite the newer counts.
+     */
+    @Test
+    public void testStructuralUpdateSupersedesQueuedCounts() throws Exception {
+        poll(station("a", "station a", 3));
+        flush();
+
+        CountDownLatch latch = holdWriter();
+        poll(station("a", "station a", 3), station("b", "station b", 4));
+        poll(station("a", "station a", 5), station("b", "station b", 4));
+        // The queue is full: this update replaces the first one, ahead of the counts of the second
+        poll(station("a", "station a", 7));
+        assertEquals(0, manager.getDroppedCount());
+        latch.countDown();
+        flush();
+
+        assertEquals(1, updater.verticesByStation.size());
+        assertEquals(7, vertex("a").getBikesAvailable());
+        assertEquals(3, vertex("a").getSpacesAvailable());
+    }
+
+    /** A renamed station gets a vertex with the new name. */
+    @Test
+    public void testRenamedStation() throws Exception {
+        poll(station("a", "station a", 3));
+        flush();
+        poll(station("a", "renamed station a", 4));
+        flush();
+
+        assertEquals("renamed station a", vertex("a").getName());
+        assertEquals(4, vertex("a").getBikesAvailable());
+    }
+
+    private void poll(BikeRentalStation... polled) throws Exception {
+        stations = Arrays.asList(polled);
+        updater.runPolling();
+    }
+
+    /** Wait for all queued updates to be applied */
+    private void flush() throws Exception {
+        manager.executeBlocking(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+            }
+        });
+    }
+
+    private BikeRentalStationVertex vertex(String id) {
+        return updater.verticesByStation.get(station(id, null, 0));
+    }
+
+    private static BikeRentalStation station(String id, String name, int bikes) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = name;
+        station.x = -122.6;
+        station.y = 45.5;
+        station.bikesAvailable = bikes;
+        station.spacesAvailable = 10 - bikes;
+        return station;
+    }
+
+    private CountDownLatch holdWriter() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.execute(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return latch;
+    }
+}
@@ -80,8 +80,11 @@ public class TimetableSnapshotSourceTest {
         TimetableResolver resolver = updater.getTimetableSnapshot();
         assertNotNull(resolver);
         assertSame(resolver, updater.getTimetableSnapshot());
+        long version = updater.getTimetableSnapshotVersion();
         
-        tripUpdateList = TripUpdateList.forCanceledTrip(tripId, 0, serviceDate);
+        // a different trip, since an unchanged update would not dirty the buffer
+        AgencyAndId tripId2 = new AgencyAndId("agency", "1.2");
+        tripUpdateList = TripUpdateList.forCanceledTrip(tripId2, 0, serviceDate);
         updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
         assertSame(resolver, updater.getTimetableSnapshot());
 
@@ -89,6 +92,9 @@ public class TimetableSnapshotSourceTest {
         TimetableResolver newResolver = updater.getTimetableSnapshot();
         assertNotNull(newResolver);
         assertNotSame(resolver, newResolver);
+        assertEquals(version + 1, updater.getTimetableSnapshotVersion());
+        assertSame(newResolver, updater.getTimetableSnapshot());
+        assertEquals(version + 1, updater.getTimetableSnapshotVersion());
     }
     
     @Test
@@ -135,6 +141,65 @@ public class TimetableSnapshotSourceTest {
         assertSame(forToday.getTripTimes(tripIndex2), schedule.getTripTimes(tripIndex2));
     }
 
+    @Test
+    public void testUnchangedTripUpdateIsSkipped() {
+        AgencyAndId tripId = new AgencyAndId("agency", "1.1");
+        AgencyAndId stopId = new AgencyAndId("agency", "A");
+        ServiceDate today = new ServiceDate();
+        TableTripPattern pattern = transitIndexService.getTripPatternForTrip(tripId);
+        int tripIndex = pattern.getTripIndex(tripId);
+
+        updater.setMaxSnapshotFrequency(-1);
+
+        Update u = new Update(tripId, stopId, 0, 60, Update.Status.PREDICTION, 0, today);
+        TripUpdateList tripUpdateList = TripUpdateList.forUpdatedTrip(tripId, 0, today,
+                Collections.singletonList(u));
+        updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
+        TimetableResolver resolverA = updater.getTimetableSnapshot();
+
+        // the same content with a newer timestamp does not change anything
+        u = new Update(tripId, stopId, 0, 60, Update.Status.PREDICTION, 30, today);
+        tripUpdateList = TripUpdateList.forUpdatedTrip(tripId, 30, today,
+                Collections.singletonList(u));
+        updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
+        TimetableResolver resolverB = updater.getTimetableSnapshot();
+        assertSame(resolverA, resolverB);
+        assertEquals(1, updater.getChangedTripCount());
+        assertEquals(1, updater.getUnchangedTripCount());
+
+        // a different delay is applied
+        u = new Update(tripId, stopId, 0, 120, Update.Status.PREDICTION, 60, today);
+        tripUpdateList = TripUpdateList.forUpdatedTrip(tripId, 60, today,
+                Collections.singletonList(u));
+        updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
+        TimetableResolver resolverC = updater.getTimetableSnapshot();
+        assertNotSame(resolverB, resolverC);
+        assertNotSame(resolverB.resolve(pattern, today).getTripTimes(tripIndex),
+                resolverC.resolve(pattern, today).getTripTimes(tripIndex));
+        assertEquals(2, updater.getChangedTripCount());
+    }
+
+    @Test
+    public void testFailedTripUpdateIsNotCounted() {
+        AgencyAndId tripId = new AgencyAndId("agency", "no such trip");
+        AgencyAndId stopId = new AgencyAndId("agency", "A");
+        ServiceDate today = new ServiceDate();
+
+        Update u = new Update(tripId, stopId, 0, 60, Update.Status.PREDICTION, 0, today);
+        TripUpdateList tripUpdateList = TripUpdateList.forUpdatedTrip(tripId, 0, today,
+                Collections.singletonList(u));
+        updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
+        assertEquals(0, updater.getChangedTripCount());
+
+        // a failed update is not remembered, so the same update is not taken as unchanged
+        u = new Update(tripId, stopId, 0, 60, Update.Status.PREDICTION, 30, today);
+        tripUpdateList = TripUpdateList.forUpdatedTrip(tripId, 30, today,
+                Collections.singletonList(u));
+        updater.applyTripUpdateLists(Arrays.asList(tripUpdateList));
+        assertEquals(0, updater.getChangedTripCount());
+        assertEquals(0, updater.getUnchangedTripCount());
+    }
+
     @Test
     public void testPurgeExpiredData() {
         AgencyAndId tripId = new AgencyAndId("agency", "1.1");
@@ -0,0 +1,194 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.stoptime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.TripUpdateList;
+import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+public class TripUpdateBatcherTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripUpdateBatcherTest.class);
+
+    private static final int N_MESSAGES = 200;
+
+    private static Graph graph = new Graph();
+
+    private static GtfsContext context;
+
+    /** A captured stream of GTFS-RT messages, each updating the same two trips. */
+    private static List<byte[]> capturedFeed = new ArrayList<byte[]>();
+
+    private GraphUpdaterManager manager;
+
+    private TimetableSnapshotSource snapshotSource;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        context = GtfsLibrary.readGtfs(new File("../otp-core/" + ConstantsForTests.FAKE_GTFS));
+
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+
+        TransitIndexBuilder builder = new TransitIndexBuilder();
+        builder.setDao(context.getDao());
+        builder.buildGraph(graph);
+
+        for (int i = 0; i < N_MESSAGES; i++) {
+            capturedFeed.add(buildMessage(i).toByteArray());
+        }
+    }
+
+    private static FeedMessage buildMessage(int i) {
+        FeedMessage.Builder feed = FeedMessage.newBuilder();
+        feed.setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0")
+                .setTimestamp(i));
+        for (String tripId : new String[] { "1.1", "1.2" }) {
+            GtfsRealtime.TripUpdate.StopTimeUpdate.Builder stopTimeUpdate =
+                    GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder().setStopId("A")
+                    .setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setDelay(i));
+            GtfsRealtime.TripUpdate.Builder tripUpdate = GtfsRealtime.TripUpdate.newBuilder()
+                    .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId(tripId))
+                    .addStopTimeUpdate(stopTimeUpdate);
+            feed.addEntity(GtfsRealtime.FeedEntity.newBuilder().setId(tripId)
+                    .setTripUpdate(tripUpdate));
+        }
+        return feed.build();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        snapshotSource = new TimetableSnapshotSource(graph);
+        graph.setTimetableSnapshotSource(snapshotSource);
+        manager = new GraphUpdaterManager(graph);
+    }
+
+    @After
+    public void tearDown() {
+        manager.stop();
+        graph.setTimetableSnapshotSource(null);
+    }
+
+    @Test
+    public void testReplayIsAppliedInOneBatch() throws Exception {
+        TripUpdateBatcher batcher = new TripUpdateBatcher(manager, 1000, 60000);
+        long elapsed = replay(batcher);
+        batcher.shutdown();
+        waitForWriter();
+
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(2 * N_MESSAGES, batcher.getReceivedCount());
+        assertEquals(2 * N_MESSAGES - 2, batcher.getDuplicateCount());
+        // only the latest update of each trip reached the snapshot source
+        assertEquals(2, snapshotSource.getChangedTripCount());
+        LOG.info("Replayed {} messages in micro-batches in {} ms", N_MESSAGES, elapsed);
+    }
+
+    @Test
+    public void testReplayWithoutBatching() throws Exception {
+        long elapsed = replay(null);
+        waitForWriter();
+
+        assertEquals(2 * N_MESSAGES, snapshotSource.getChangedTripCount());
+        LOG.info("Replayed {} messages one by one in {} ms", N_MESSAGES, elapsed);
+    }
+
+    @Test
+    public void testFullBatchIsFlushed() throws Exception {
+        TripUpdateBatcher batcher = new TripUpdateBatcher(manager, 2, 60000);
+        batcher.add(decode(capturedFeed.get(0)));
+        assertEquals(1, batcher.getBatchCount());
+        batcher.shutdown();
+        waitForWriter();
+
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(2, snapshotSource.getChangedTripCount());
+    }
+
+    @Test
+    public void testBatchIsFlushedAfterWindow() throws Exception {
+        TripUpdateBatcher batcher = new TripUpdateBatcher(manager, 1000, 10);
+        batcher.add(decode(capturedFeed.get(0)));
+        for (int i = 0; i < 500 && batcher.getBatchCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        waitForWriter();
+        batcher.shutdown();
+
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(2, snapshotSource.getChangedTripCount());
+    }
+
+    /**
+     * In-process publisher: decodes the captured messages as a streaming updater would, and
+     * hands them to the batcher, or applies them one by one if the batcher is null.
+     *
+     * @return the number of milliseconds until all updates were applied
+     */
+    private long replay(TripUpdateBatcher batcher) throws Exception {
+        long start = System.currentTimeMillis();
+        for (byte[] message : capturedFeed) {
+            List<TripUpdateList> updates = decode(message);
+            if (batcher != null) {
+                batcher.add(updates);
+            } else {
+                manager.execute(new TripUpdateGraphWriterRunnable(updates));
+            }
+        }
+        if (batcher != null) {
+            batcher.flush();
+        }
+        waitForWriter();
+        return System.currentTimeMillis() - start;
+    }
+
+    private List<TripUpdateList> decode(byte[] message) throws Exception {
+        return TripUpdateList.decodeFromGtfsRealtime(FeedMessage.PARSER.parseFrom(message),
+                "agency");
+    }
+
+    /** Waits until all previously queued graph writers have run. */
+    private void waitForWriter() throws Exception {
+        manager.executeBlocking(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+            }
+        });
+    }
+}
@@ -19,6 +19,8 @@ import java.util.List;
 import org.opentripplanner.util.model.EncodedPolylineBean;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 
 import junit.framework.TestCase;
 
@@ -35,4 +37,18 @@ public class TestPolylineEncoder extends TestCase {
         assertEquals(3, eplb.getLength());
         assertNull(eplb.getLevels());
     }
+
+    public void testEncodeLineStrings() {
+        GeometryFactory gf = new GeometryFactory();
+        Coordinate a = new Coordinate(-73.85062, 40.903125);
+        Coordinate b = new Coordinate(-73.85136, 40.902261);
+        Coordinate c = new Coordinate(-73.85151, 40.902066);
+        List<LineString> lineStrings = new ArrayList<LineString>();
+        lineStrings.add(gf.createLineString(new Coordinate[] { a, b }));
+        lineStrings.add(gf.createLineString(new Coordinate[] { b, c }));
+        EncodedPolylineBean eplb = PolylineEncoder.encodeLineStrings(lineStrings);
+        // the shared point is only encoded once
+        assertEquals("o{sxFl}vaMjDpCf@\\", eplb.getPoints());
+        assertEquals(3, eplb.getLength());
+    }
 }